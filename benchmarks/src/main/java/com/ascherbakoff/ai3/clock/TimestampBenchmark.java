@@ -0,0 +1,68 @@
+package com.ascherbakoff.ai3.clock;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares object and packed timestamp representations on a lease validation path.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TimestampBenchmark {
+    private static final int LEASE_DURATION = 100;
+
+    private Timestamp lease;
+    private Timestamp at;
+
+    private long leasePacked;
+    private long leaseEndPacked;
+    private long atPacked;
+
+    @Setup
+    public void setup() {
+        lease = new Timestamp(1_000, 3);
+        at = new Timestamp(1_050, 7);
+
+        leasePacked = lease.toLong();
+        leaseEndPacked = Timestamp.adjust(leasePacked, LEASE_DURATION);
+        atPacked = at.toLong();
+    }
+
+    @Benchmark
+    public boolean validLeaseObject() {
+        return lease.compareTo(at) <= 0 && at.compareTo(lease.adjust(LEASE_DURATION)) < 0;
+    }
+
+    @Benchmark
+    public boolean validLeasePacked() {
+        return Timestamp.compare(leasePacked, atPacked) <= 0 && Timestamp.compare(atPacked, leaseEndPacked) < 0;
+    }
+
+    @Benchmark
+    public int compareObject() {
+        return lease.compareTo(at);
+    }
+
+    @Benchmark
+    public int comparePacked() {
+        return Timestamp.compare(leasePacked, atPacked);
+    }
+
+    @Benchmark
+    public Object toUUID() {
+        return at.toUUID();
+    }
+}
@@ -0,0 +1,99 @@
+package com.ascherbakoff.ai3.cluster;
+
+import com.ascherbakoff.ai3.clock.Clock;
+import com.ascherbakoff.ai3.clock.ManualTimeProvider;
+import com.ascherbakoff.ai3.clock.Timestamp;
+import com.ascherbakoff.ai3.replication.Put;
+import com.ascherbakoff.ai3.replication.ReplicationOptions;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Replication throughput of an in-process group. Physical time is frozen, so the lease never expires.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ReplicationBenchmark {
+    private static final String GRP_NAME = "benchGrp";
+
+    @Param({"1", "3", "5"})
+    private int nodes;
+
+    private Topology top;
+
+    private Node leader;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        ManualTimeProvider provider = new ManualTimeProvider();
+        provider.set(1);
+
+        Clock clock = new Clock(provider);
+
+        ReplicationOptions options = new ReplicationOptions();
+        // Keep the log bounded over a long run.
+        options.setDeltaStoreFactory((nodeId, grp) -> new MapDeltaStore(true));
+
+        top = new Topology();
+
+        Set<NodeId> members = new HashSet<>();
+
+        for (int i = 0; i < nodes; i++) {
+            NodeId nodeId = new NodeId("node" + i);
+            top.regiser(new Node(nodeId, top, clock, options, GRP_NAME));
+            members.add(nodeId);
+        }
+
+        NodeId leaderId = new NodeId("node0");
+
+        Tracker tracker = new Tracker(top, clock);
+        Timestamp lease = tracker.assignLeader(GRP_NAME, leaderId, members).join();
+
+        leader = top.getNode(leaderId);
+
+        for (Node node : top.getNodeMap().values()) {
+            while (!leaderId.equals(node.getLeader(GRP_NAME)) || !lease.equals(node.getLease(GRP_NAME))) {
+                Thread.onSpinWait();
+            }
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        for (Node node : top.getNodeMap().values()) {
+            node.stop();
+            node.group(GRP_NAME).executorService.shutdownNow();
+        }
+    }
+
+    @Benchmark
+    @Threads(1)
+    public Timestamp replicate() {
+        return leader.replicate(GRP_NAME, new Put(1, 1)).join();
+    }
+
+    @Benchmark
+    @Threads(8)
+    public Timestamp replicateConcurrent() {
+        return leader.replicate(GRP_NAME, new Put(1, 1)).join();
+    }
+}
@@ -0,0 +1,62 @@
+package com.ascherbakoff.ai3.lock;
+
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Acquire and release of a single contended lock.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LockBenchmark {
+    private static final AtomicLong ID_GEN = new AtomicLong();
+
+    @Param({"S", "X", "IX"})
+    private LockMode mode;
+
+    @Param({"false", "true"})
+    private boolean fast;
+
+    private Lock lock;
+
+    @State(Scope.Thread)
+    public static class Locker {
+        UUID id = new UUID(0, ID_GEN.incrementAndGet());
+    }
+
+    @Setup
+    public void setup() {
+        lock = fast ? new FastLock(true, DeadlockPrevention.none()) : new Lock(true, DeadlockPrevention.none());
+    }
+
+    @Benchmark
+    @Threads(1)
+    public void uncontended(Locker locker) {
+        lock.acquire(locker.id, mode).join();
+        lock.release(locker.id);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void contended(Locker locker) {
+        lock.acquire(locker.id, mode).join();
+        lock.release(locker.id);
+    }
+}
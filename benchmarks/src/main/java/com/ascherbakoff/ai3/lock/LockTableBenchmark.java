@@ -0,0 +1,67 @@
+package com.ascherbakoff.ai3.lock;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Lock table lookups.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(4)
+public class LockTableBenchmark {
+    @Param({"1024", "1048576"})
+    private int keys;
+
+    private LockTable lockTable;
+
+    private Integer[] keySet;
+
+    @Setup
+    public void setup() {
+        lockTable = new LockTable(keys, true, DeadlockPrevention.none());
+
+        keySet = new Integer[keys];
+
+        for (int i = 0; i < keys; i++) {
+            keySet[i] = i;
+            lockTable.getOrAddEntry(keySet[i]);
+        }
+    }
+
+    /**
+     * Lookup of a retained entry: the key set is pinned in setup.
+     */
+    @Benchmark
+    public Lock getOrAddEntry() {
+        Lock lock = lockTable.getOrAddEntry(keySet[ThreadLocalRandom.current().nextInt(keys)]);
+        lock.releaseEntry();
+        return lock;
+    }
+
+    /**
+     * Lookup of a reclaimed entry: creates and removes an entry on each call.
+     */
+    @Benchmark
+    public Lock getOrAddEntryReclaimed() {
+        Lock lock = lockTable.getOrAddEntry(-1 - ThreadLocalRandom.current().nextInt(keys));
+        lock.releaseEntry();
+        return lock;
+    }
+}
@@ -0,0 +1,89 @@
+package com.ascherbakoff.ai3.replication;
+
+import com.ascherbakoff.ai3.clock.Timestamp;
+import com.ascherbakoff.ai3.cluster.NodeId;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Encoding and decoding of a replication request by the binary codec and by Java serialization.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CodecBenchmark {
+    @Param({"binary", "jdk"})
+    private String codecType;
+
+    /** Entries in a replication batch, 0 for a single entry command. */
+    @Param({"0", "16"})
+    private int batch;
+
+    private MessageCodec codec;
+
+    private Request request;
+
+    private ByteBuffer buf;
+
+    private ByteBuffer encoded;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        NodeId alice = new NodeId("alice");
+
+        codec = "binary".equals(codecType) ? new BinaryMessageCodec(List.of(alice, new NodeId("bob"), new NodeId("charlie")))
+                : new JdkMessageCodec();
+
+        request = new Request();
+        request.setSender(alice);
+        request.setGrp("benchGrp");
+        request.setTs(new Timestamp(System.currentTimeMillis(), 3));
+        request.setId(UUID.randomUUID());
+
+        if (batch == 0) {
+            request.setPayload(new Replicate(1000, new Put(42, 4242)));
+        } else {
+            Timestamp[] tss = new Timestamp[batch];
+            Object[] puts = new Object[batch];
+
+            for (int i = 0; i < batch; i++) {
+                tss[i] = new Timestamp(System.currentTimeMillis(), i);
+                puts[i] = new Put(i, i * 1000);
+            }
+
+            request.setPayload(new Replicate(1000, tss, puts));
+        }
+
+        buf = ByteBuffer.allocateDirect(64 * 1024);
+        encoded = codec.encode(request);
+    }
+
+    @Benchmark
+    public ByteBuffer encode() {
+        buf.clear();
+        codec.encode(request, buf);
+        return buf;
+    }
+
+    @Benchmark
+    public Object decode() {
+        return codec.decode(encoded.duplicate());
+    }
+}
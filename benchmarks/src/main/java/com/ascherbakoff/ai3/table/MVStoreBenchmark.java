@@ -0,0 +1,88 @@
+package com.ascherbakoff.ai3.table;
+
+import com.ascherbakoff.ai3.clock.Timestamp;
+import com.ascherbakoff.ai3.lock.DeadlockPrevention;
+import com.ascherbakoff.ai3.lock.LockTable;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Single threaded write transactions against a table with 0 to 4 secondary indexes.
+ * Even indexes are sorted, odd are hash.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MVStoreBenchmark {
+    @Param({"0", "1", "2", "3", "4"})
+    private int indexes;
+
+    private MVStoreImpl store;
+
+    private long txCntr;
+
+    private VersionChain<Tuple> rowId;
+
+    @Setup(Level.Iteration)
+    public void setup() {
+        VersionChainRowStore<Tuple> rowStore = new VersionChainRowStore<>();
+
+        Map<Integer, Index> idxs = new HashMap<>();
+
+        for (int col = 0; col < indexes; col++) {
+            LockTable lockTable = new LockTable(1024, true, DeadlockPrevention.none());
+
+            idxs.put(col, col % 2 == 0 ?
+                    new SortedNonUniqueIndex(col, lockTable, new SortedIndexStoreImpl<>(), rowStore) :
+                    new HashNonUniqueIndex(col, lockTable, new HashIndexStoreImpl<>(), rowStore));
+        }
+
+        store = new MVStoreImpl(rowStore, new LockTable(1024, true, DeadlockPrevention.none()), idxs);
+
+        UUID txId = nextTx();
+        rowId = store.insert(row(0), txId).join();
+        store.commit(txId, new Timestamp(txCntr, 0));
+    }
+
+    private UUID nextTx() {
+        return new UUID(0, ++txCntr);
+    }
+
+    private static Tuple row(long val) {
+        int v = (int) val;
+        return Tuple.create(v, v, v, v, v);
+    }
+
+    @Benchmark
+    public VersionChain<Tuple> insertCommit() {
+        UUID txId = nextTx();
+        VersionChain<Tuple> rowId = store.insert(row(txCntr), txId).join();
+        store.commit(txId, new Timestamp(txCntr, 0));
+        return rowId;
+    }
+
+    @Benchmark
+    public Tuple updateCommit() {
+        UUID txId = nextTx();
+        Tuple old = store.update(rowId, row(txCntr), txId).join();
+        store.commit(txId, new Timestamp(txCntr, 0));
+        return old;
+    }
+}
@@ -0,0 +1,75 @@
+package com.ascherbakoff.ai3.table;
+
+import java.util.Map.Entry;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Range scans over a prefilled sorted index.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SortedIndexStoreBenchmark {
+    private static final int KEYS = 100_000;
+
+    @Param({"1", "100", "10000"})
+    private int range;
+
+    @Param({"skiplist", "binary", "offheap"})
+    private String impl;
+
+    private SortedIndexStore<Integer> store;
+
+    @Setup
+    public void setup() {
+        switch (impl) {
+            case "binary":
+                store = new BinarySortedIndexStoreImpl<>();
+                break;
+            case "offheap":
+                store = new OffHeapSortedIndexStoreImpl<>(Integer::longValue, v -> (int) v);
+                break;
+            default:
+                store = new SortedIndexStoreImpl<>();
+        }
+
+        for (int i = 0; i < KEYS; i++) {
+            store.insert(Tuple.create(i), i);
+        }
+    }
+
+    @Benchmark
+    public void scan(Blackhole bh) {
+        int lower = ThreadLocalRandom.current().nextInt(KEYS - range);
+
+        Cursor<Entry<Tuple, Cursor<Integer>>> cur = store.scan(Tuple.create(lower), true, Tuple.create(lower + range), false);
+
+        Entry<Tuple, Cursor<Integer>> entry;
+
+        while ((entry = cur.next()) != null) {
+            Cursor<Integer> rows = entry.getValue();
+
+            Integer row;
+
+            while ((row = rows.next()) != null) {
+                bh.consume(row);
+            }
+        }
+    }
+}
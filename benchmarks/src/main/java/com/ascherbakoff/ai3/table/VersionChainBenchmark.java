@@ -0,0 +1,63 @@
+package com.ascherbakoff.ai3.table;
+
+import com.ascherbakoff.ai3.clock.Timestamp;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Snapshot reads over version chains of different length.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class VersionChainBenchmark {
+    @Param({"1", "2", "5", "10"})
+    private int length;
+
+    private VersionChain<Tuple> chain;
+
+    private Timestamp newest;
+
+    private Timestamp oldest;
+
+    @Setup
+    public void setup() {
+        UUID txId = new UUID(0, 0);
+
+        chain = new VersionChain<>(txId, null, null, Tuple.create(0, 0));
+        chain.commitWrite(new Timestamp(1, 0), txId);
+
+        for (int i = 1; i < length; i++) {
+            txId = new UUID(0, i);
+            chain.addWrite(Tuple.create(0, i), txId);
+            chain.commitWrite(new Timestamp(i + 1, 0), txId);
+        }
+
+        oldest = new Timestamp(1, 0);
+        newest = new Timestamp(length, 0);
+    }
+
+    @Benchmark
+    public Tuple resolveNewest() {
+        return chain.resolve(null, newest, null);
+    }
+
+    @Benchmark
+    public Tuple resolveOldest() {
+        return chain.resolve(null, oldest, null);
+    }
+}
@@ -3,7 +3,7 @@ package com.ascherbakoff.ai3.clock;
 import org.jetbrains.annotations.TestOnly;
 
 public class Clock {
-    private final PhysicalTimeProvider provider;
+    protected final PhysicalTimeProvider provider;
 
     private Timestamp current = new Timestamp(0, 0);
 
@@ -22,6 +22,18 @@ public class Clock {
         return current;
     }
 
+    /**
+     * Packed version of {@link #now()}. This implementation saturates the counter if it doesn't fit into the packed form, so the
+     * result is only good for physical time comparisons (like lease checks) and must not be sent to other nodes.
+     *
+     * @return Packed timestamp.
+     */
+    public long nowLong() {
+        Timestamp now = now();
+
+        return Timestamp.pack(now.physical(), Math.min(now.counter(), Timestamp.COUNTER_MASK));
+    }
+
     @TestOnly
     public synchronized Timestamp get() {
         return current;
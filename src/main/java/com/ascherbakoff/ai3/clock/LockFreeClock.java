@@ -0,0 +1,76 @@
+package com.ascherbakoff.ai3.clock;
+
+import java.util.concurrent.atomic.AtomicLong;
+import org.jetbrains.annotations.TestOnly;
+
+/**
+ * Hybrid logical clock, which keeps the current time packed into a single long (see {@link Timestamp#pack(long, long)}) and
+ * updates it with CAS. Logical counter overflow carries to the physical part, as does a remote counter, which doesn't
+ * fit into the packed form.
+ */
+public class LockFreeClock extends Clock {
+    private final AtomicLong current = new AtomicLong();
+
+    public LockFreeClock(PhysicalTimeProvider provider) {
+        super(provider);
+    }
+
+    @Override
+    public Timestamp now() {
+        return Timestamp.unpack(nowLong());
+    }
+
+    @Override
+    public long nowLong() {
+        long phys = Timestamp.pack(provider.get(), 0);
+
+        while (true) {
+            long cur = current.get();
+            long next = Math.max(cur + 1, phys);
+
+            if (current.compareAndSet(cur, next)) {
+                return next;
+            }
+        }
+    }
+
+    @TestOnly
+    @Override
+    public Timestamp get() {
+        return Timestamp.unpack(current.get());
+    }
+
+    @Override
+    public void onRequest(Timestamp ts) {
+        onRequest(ts.toLongCeil());
+    }
+
+    /**
+     * Merges a remote timestamp.
+     *
+     * @param ts Packed timestamp.
+     */
+    public void onRequest(long ts) {
+        long next = Math.max(ts, Timestamp.pack(provider.get(), 0));
+
+        while (true) {
+            long cur = current.get();
+
+            if (cur >= next || current.compareAndSet(cur, next)) {
+                return;
+            }
+        }
+    }
+
+    @Override
+    public void onResponse(Timestamp ts) {
+        onRequest(ts.toLongCeil());
+    }
+
+    @Override
+    public String toString() {
+        return "LockFreeClock{" +
+                "now=" + get() +
+                '}';
+    }
+}
@@ -1,16 +1,28 @@
 package com.ascherbakoff.ai3.clock;
 
+import java.io.Serializable;
 import java.util.UUID;
 import org.jetbrains.annotations.Nullable;
 
-public class Timestamp implements Comparable<Timestamp> {
+public class Timestamp implements Comparable<Timestamp>, Serializable {
+    private static final long serialVersionUID = 1L;
+
+    // Packed layout: physical time in high bits, logical counter in low bits. Packed values preserve the order.
+    public static final int COUNTER_BITS = 16;
+    public static final long COUNTER_MASK = (1L << COUNTER_BITS) - 1;
+    public static final long MAX_PHYSICAL = (1L << (Long.SIZE - 1 - COUNTER_BITS)) - 1;
+
     private static Timestamp MIN = new Timestamp(0, 0);
+    private static Timestamp MAX = new Timestamp(Long.MAX_VALUE, Long.MAX_VALUE);
     private static Timestamp INVALID = new Timestamp(Long.MIN_VALUE, 0);
 
     private final long physical;
 
     private final long counter;
 
+    // Lazily computed transaction id. Benign race.
+    private transient @Nullable UUID uuid;
+
     public Timestamp(long physical, long counter) {
         this.physical = physical;
         this.counter = counter;
@@ -33,6 +45,10 @@ public class Timestamp implements Comparable<Timestamp> {
         return MIN;
     }
 
+    public static Timestamp max() {
+        return MAX;
+    }
+
     public static Timestamp invalid() {
         return INVALID;
     }
@@ -79,7 +95,88 @@ public class Timestamp implements Comparable<Timestamp> {
         return "[" + physical + ":" + counter + "]";
     }
 
+    /**
+     * Packs a timestamp into a single long.
+     *
+     * @param physical Physical part, must not exceed {@link #MAX_PHYSICAL}.
+     * @param counter Logical part, must not exceed {@link #COUNTER_MASK}.
+     * @return Packed value.
+     */
+    public static long pack(long physical, long counter) {
+        assert physical >= 0 && physical <= MAX_PHYSICAL : physical;
+        assert counter >= 0 && counter <= COUNTER_MASK : counter;
+
+        return (physical << COUNTER_BITS) | counter;
+    }
+
+    public static long physical(long packed) {
+        return packed >>> COUNTER_BITS;
+    }
+
+    public static long counter(long packed) {
+        return packed & COUNTER_MASK;
+    }
+
+    /**
+     * Compares packed timestamps.
+     */
+    public static int compare(long packed1, long packed2) {
+        return Long.compare(packed1, packed2);
+    }
+
+    /**
+     * Compares a packed timestamp with a timestamp. The timestamp is not required to fit into the packed form.
+     */
+    public static int compare(long packed, Timestamp ts) {
+        long physical = physical(packed);
+
+        if (physical == ts.physical) {
+            return Long.compare(counter(packed), ts.counter);
+        }
+
+        return Long.compare(physical, ts.physical);
+    }
+
+    /**
+     * Packed version of {@link #adjust(long)}.
+     */
+    public static long adjust(long packed, long delta) {
+        assert delta > 0;
+        return pack(physical(packed) + delta, 0);
+    }
+
+    public static Timestamp unpack(long packed) {
+        return new Timestamp(physical(packed), counter(packed));
+    }
+
+    /**
+     * @return Packed value.
+     */
+    public long toLong() {
+        return pack(physical, counter);
+    }
+
+    /**
+     * Packs a timestamp, which may not fit into the packed form. A counter above {@link #COUNTER_MASK} is rolled into
+     * the physical part, a physical part above {@link #MAX_PHYSICAL} is saturated.
+     *
+     * @return The smallest packed value, which is not less than this timestamp.
+     */
+    public long toLongCeil() {
+        if (physical > MAX_PHYSICAL || physical == MAX_PHYSICAL && counter > COUNTER_MASK) {
+            return pack(MAX_PHYSICAL, COUNTER_MASK);
+        }
+
+        return counter > COUNTER_MASK ? pack(physical + 1, 0) : pack(physical, counter);
+    }
+
     public UUID toUUID() {
-        return new UUID(physical(), counter());
+        UUID uuid = this.uuid;
+
+        if (uuid == null) {
+            this.uuid = uuid = new UUID(physical, counter);
+        }
+
+        return uuid;
     }
 }
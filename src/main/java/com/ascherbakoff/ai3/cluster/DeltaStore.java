@@ -2,7 +2,7 @@ package com.ascherbakoff.ai3.cluster;
 
 import com.ascherbakoff.ai3.clock.Timestamp;
 import com.ascherbakoff.ai3.replication.Replicate;
-import java.util.NavigableMap;
+import java.util.Map.Entry;
 
 /**
  * An abstraction for storing replicated data with delta snap support.
@@ -10,9 +10,32 @@ import java.util.NavigableMap;
 public interface DeltaStore {
     void put(Timestamp repTs, Replicate replicate);
 
-    NavigableMap<Timestamp, Replicate> snapshot(Timestamp low, Timestamp high);
+    /**
+     * Returns entries in the {@code (low, high]} range in timestamp order.
+     * The result is not affected by subsequent updates and can be iterated from any thread.
+     *
+     * @param low Lower bound, exclusive.
+     * @param high Upper bound, inclusive.
+     * @return Entries.
+     */
+    Iterable<Entry<Timestamp, Replicate>> snapshot(Timestamp low, Timestamp high);
+
+    /**
+     * Returns first entries in the {@code (low, high]} range in timestamp order. A store can use the limit to avoid
+     * copying the whole range, the caller must not consume more than {@code maxEntries} entries.
+     *
+     * @param low Lower bound, exclusive.
+     * @param high Upper bound, inclusive.
+     * @param maxEntries Max number of entries.
+     * @return Entries.
+     */
+    default Iterable<Entry<Timestamp, Replicate>> snapshot(Timestamp low, Timestamp high, int maxEntries) {
+        return snapshot(low, high);
+    }
 
     void compact(Timestamp compactTs);
 
     Timestamp compactTs();
+
+    int logSize();
 }
@@ -1,23 +1,27 @@
 package com.ascherbakoff.ai3.cluster;
 
 import com.ascherbakoff.ai3.clock.Timestamp;
+import com.ascherbakoff.ai3.replication.CounterRing;
 import com.ascherbakoff.ai3.replication.Inflight;
 import com.ascherbakoff.ai3.replication.Replicate;
+import com.ascherbakoff.ai3.replication.ReplicationOptions;
 import com.ascherbakoff.ai3.replication.Replicator;
 import java.util.Arrays;
 import java.util.Collections;
-import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
-import java.util.NavigableMap;
+import java.util.Queue;
 import java.util.Set;
 import java.util.TreeMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
@@ -37,11 +41,19 @@ public class Group {
     // Replicators for this group on a leader.
     Map<NodeId, Replicator> replicators = new HashMap<>();
 
+    // Replicators of stable members, kept ordered by acknowledged counters (descending) between quorum updates.
+    private Replicator[] stableReps = new Replicator[0];
+    private int stableCnt;
+    private boolean stableChanged = true; // Set on membership change, the stable set is rebuilt on the next update.
+
     // Replica inflights (used by replica).
-    private TreeMap<Long, Inflight> repInflights = new TreeMap<Long, Inflight>();
+    private final CounterRing<Inflight> repInflights = new CounterRing<>();
+
+    // Snapshot store.
+    final DeltaStore deltaStore;
 
-    // Snapshot store. TODO make pluggable.
-    DeltaStore deltaStore = new MapDeltaStore(false);
+    // Materialized applied updates, serves reads.
+    private final StateMachine stateMachine;
 
     // Maintained on a leader.
     // TODO rename safe <-> rep
@@ -50,14 +62,53 @@ public class Group {
 
     // Group state.
     private @Nullable Timestamp lease;
+    private long leaseEnd; // Physical time of the lease end (exclusive), cached to avoid allocations on validation.
     private @Nullable NodeId leader;
     private Set<NodeId> members = Collections.emptySet();
 
+    // Set on a leader which failed to apply its own update. The local state can't be trusted anymore, so the group
+    // refuses writes and lease requests.
+    private volatile boolean broken;
+
     // Read requests, waiting for repTs.
-    public TreeMap<Timestamp, Read> pendingReads = new TreeMap<>();
+    public TreeMap<Timestamp, List<Read>> pendingReads = new TreeMap<>();
+
+    // Write requests, waiting to be packed into a replication batch (used by leader).
+    final Queue<PendingWrite> pendingWrites = new ConcurrentLinkedQueue<>();
+
+    // Set if a batch flush is scheduled on the group thread.
+    final AtomicBoolean flushScheduled = new AtomicBoolean();
 
     public Group(String name) {
+        this(name, new MapDeltaStore(false));
+    }
+
+    public Group(String name, DeltaStore deltaStore) {
+        this(name, deltaStore, Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(@NotNull Runnable r) {
+                Thread thread = new Thread(r);
+                thread.setName(name + "-sender-thread");
+                return thread;
+            }
+        }));
+    }
+
+    public Group(String name, DeltaStore deltaStore, ExecutorService executorService) {
+        this(name, deltaStore, new KeyValueStateMachine(), executorService);
+    }
+
+    /**
+     * @param name Group name.
+     * @param deltaStore Delta store.
+     * @param stateMachine State machine.
+     * @param executorService Group executor, must execute tasks serially.
+     */
+    public Group(String name, DeltaStore deltaStore, StateMachine stateMachine, ExecutorService executorService) {
         this.name = name;
+        this.deltaStore = deltaStore;
+        this.stateMachine = stateMachine;
+        this.executorService = executorService;
     }
 
     public String getName() {
@@ -74,6 +125,14 @@ public class Group {
 
     public void setLease(Timestamp lease) {
         this.lease = lease;
+        this.leaseEnd = lease.physical() + Tracker.LEASE_DURATION;
+    }
+
+    /**
+     * @return Physical time of the lease end, equivalent to {@code getLease().adjust(Tracker.LEASE_DURATION).physical()}.
+     */
+    public long getLeaseEnd() {
+        return leaseEnd;
     }
 
     public NodeId getLeader() {
@@ -90,16 +149,28 @@ public class Group {
 
     public void setState(Set<NodeId> members) {
         this.members = new HashSet<>(members);
+        stableChanged = true;
     }
 
-    public ExecutorService executorService = Executors.newSingleThreadExecutor(new ThreadFactory() {
-        @Override
-        public Thread newThread(@NotNull Runnable r) {
-            Thread thread = new Thread(r);
-            thread.setName(name + "-sender-thread");
-            return thread;
-        }
-    });
+    /**
+     * @param nodeId Member id.
+     * @param replicator The replicator.
+     */
+    public void addReplicator(NodeId nodeId, Replicator replicator) {
+        replicators.put(nodeId, replicator);
+        stableChanged = true;
+    }
+
+    /**
+     * @param nodeId Member id.
+     * @return Removed replicator or null.
+     */
+    public @Nullable Replicator removeReplicator(NodeId nodeId) {
+        stableChanged = true;
+        return replicators.remove(nodeId);
+    }
+
+    public ExecutorService executorService;
 
     @Override
     public boolean equals(Object o) {
@@ -144,13 +215,50 @@ public class Group {
 
         assert lease != null;
 
-        return lease.compareTo(at) <= 0 && at.compareTo(lease.adjust(Tracker.LEASE_DURATION)) < 0 ? true : false;
+        // The adjusted lease has zero counter, so comparing physical parts is enough.
+        return lease.compareTo(at) <= 0 && at.physical() < leaseEnd;
+    }
+
+    /**
+     * Packed version of {@link #validLease(Timestamp, NodeId)}.
+     */
+    public boolean validLease(long at, NodeId leaseHolder) {
+        if (!leaseHolder.equals(this.leader)) {
+            return false;
+        }
+
+        assert lease != null;
+
+        return Timestamp.compare(at, lease) >= 0 && Timestamp.physical(at) < leaseEnd;
+    }
+
+    public boolean isBroken() {
+        return broken;
+    }
+
+    /**
+     * Fences the group after a failed local update.
+     */
+    public void setBroken() {
+        this.broken = true;
     }
 
     public long nextCounter() {
         return ++repCntr;
     }
 
+    /**
+     * Reserves a range of counters.
+     *
+     * @param cnt Number of counters.
+     * @return The first counter in the range.
+     */
+    public long nextCounter(int cnt) {
+        long first = repCntr + 1;
+        repCntr += cnt;
+        return first;
+    }
+
     public void accept(Timestamp repTs, Replicate replicate, boolean local) {
         if (!local && this.repTs.compareTo(repTs) > 0)
             return; // Already replicated by catch up.
@@ -159,26 +267,98 @@ public class Group {
         Inflight inflight = new Inflight(repTs, replicate, null);
 
         if (local) {
-            setRepTs(repTs); // Counter is already updated in the caller.
-            deltaStore.put(repTs, replicate); // Apply
+            apply(repTs, replicate, replicate.getCntr() - 1); // Counter is already updated in the caller.
+            publish();
             return;
         }
 
         repInflights.put(replicate.getCntr(), inflight);
 
-        Set<Entry<Long, Inflight>> set = repInflights.entrySet();
+        fold();
+    }
+
+    /**
+     * Folds consecutive tail of out of order updates.
+     */
+    private void fold() {
+        Inflight inflight;
 
-        Iterator<Entry<Long, Inflight>> iter = set.iterator();
+        while ((inflight = repInflights.first()) != null) {
+            Replicate replicate0 = inflight.getReplicate();
 
-        // Fold consecutive tail.
-        while (iter.hasNext()) {
-            Entry<Long, Inflight> entry = iter.next();
+            if (replicate0.getLastCntr() <= repCntr) {
+                repInflights.removeFirst(); // Already applied by catch up.
+                continue;
+            }
 
-            if (repCntr + 1 == entry.getKey()) {
-                setRepTs(entry.getValue().ts());
-                deltaStore.put(this.repTs, entry.getValue().getReplicate()); // Apply
-                iter.remove();
-                repCntr++;
+            if (repInflights.firstKey() > repCntr + 1) {
+                break; // Has a gap.
+            }
+
+            apply(inflight.ts(), replicate0, repCntr);
+            repInflights.removeFirst();
+            repCntr = replicate0.getLastCntr();
+        }
+
+        publish();
+    }
+
+    /**
+     * Applies a single entry or a batch to the store and the state machine. Changes become visible on
+     * {@link #publish()}.
+     *
+     * @param repTs The timestamp of the last entry.
+     * @param replicate The command.
+     * @param applied The counter of the last applied entry. Batch entries up to this counter are skipped.
+     */
+    private void apply(Timestamp repTs, Replicate replicate, long applied) {
+        if (replicate.isBatch()) {
+            for (int i = 0; i < replicate.size(); i++) {
+                if (replicate.getCntr() + i > applied) {
+                    deltaStore.put(replicate.getTs(i), replicate.entry(i));
+                    stateMachine.apply(replicate.getCntr() + i, replicate.getTs(i), replicate.getData(i));
+                }
+            }
+        } else {
+            deltaStore.put(repTs, replicate);
+            stateMachine.apply(replicate.getCntr(), repTs, replicate.getData());
+        }
+
+        this.repTs = repTs;
+    }
+
+    /**
+     * Commits applied entries of the state machine and completes reads, which became safe.
+     */
+    private void publish() {
+        stateMachine.flush();
+        completeReads();
+    }
+
+    /**
+     * Reads a value. The caller must ensure the timestamp is not above {@link #getRepTs()}.
+     *
+     * @param key The key.
+     * @param ts Read timestamp.
+     * @return The value or null.
+     */
+    public @Nullable Integer get(int key, Timestamp ts) {
+        assert ts.compareTo(repTs) <= 0 : "Read above repTs: ts=" + ts + ", repTs=" + repTs;
+
+        return stateMachine.get(key, ts);
+    }
+
+    /**
+     * Completes reads, which became safe after repTs advance, in the timestamp order.
+     */
+    private void completeReads() {
+        Entry<Timestamp, List<Read>> entry;
+
+        while ((entry = pendingReads.firstEntry()) != null && entry.getKey().compareTo(repTs) <= 0) {
+            pendingReads.pollFirstEntry();
+
+            for (Read read : entry.getValue()) {
+                read.getFut().complete(stateMachine.get(read.getKey(), entry.getKey()));
             }
         }
     }
@@ -188,6 +368,7 @@ public class Group {
 
         if (ts.compareTo(this.repTs) > 0) {
             this.repTs = ts;
+            completeReads();
         }
     }
 
@@ -202,31 +383,59 @@ public class Group {
         if (maj == 1) {
             this.safeCntr = repCntr;
             this.safeTs = repTs;
-        } else {
-            // Retain only stable replicators. TODO optimize.
-            Set<Replicator> stableReps = new HashSet<>();
-            Iterator<Entry<NodeId, Replicator>> iter = replicators.entrySet().iterator();
 
-            while (iter.hasNext()) {
-                Entry<NodeId, Replicator> entry = iter.next();
-
-                if (getMembers().contains(entry.getKey()))
-                    stableReps.add(entry.getValue());
+            if (members.size() == 1) {
+                deltaStore.compact(safeTs);
+            }
+        } else {
+            if (stableChanged) {
+                rebuildStable();
             }
 
-            Replicator[] arr = stableReps.toArray(Replicator[]::new);
+            // Acks rarely reorder replicas, so the insertion sort of the already ordered array is linear.
+            for (int i = 1; i < stableCnt; i++) {
+                Replicator rep = stableReps[i];
+                long cntr = rep.getRepCntr();
+                int j = i - 1;
 
-            Arrays.sort(arr, new Comparator<Replicator>() {
-                @Override
-                public int compare(Replicator o1, Replicator o2) {
-                    return Long.compare(o2.getRepCntr(), o1.getRepCntr());
+                while (j >= 0 && stableReps[j].getRepCntr() < cntr) {
+                    stableReps[j + 1] = stableReps[j];
+                    j--;
                 }
-            });
+
+                stableReps[j + 1] = rep;
+            }
 
             // Ignore first element.
-            safeCntr = arr[maj - 2].getRepCntr();
-            safeTs = arr[maj - 2].getRepTs();
+            safeCntr = stableReps[maj - 2].getRepCntr();
+            safeTs = stableReps[maj - 2].getRepTs();
+
+            // Entries acknowledged by every stable replica are not needed for delta catch up.
+            if (stableCnt == members.size() - 1) {
+                deltaStore.compact(stableReps[stableCnt - 1].getRepTs());
+            }
+        }
+    }
+
+    /**
+     * Collects replicators of stable members.
+     */
+    private void rebuildStable() {
+        if (stableReps.length < replicators.size()) {
+            stableReps = new Replicator[replicators.size()];
+        }
+
+        stableCnt = 0;
+
+        for (Entry<NodeId, Replicator> entry : replicators.entrySet()) {
+            if (members.contains(entry.getKey())) {
+                stableReps[stableCnt++] = entry.getValue();
+            }
         }
+
+        Arrays.fill(stableReps, stableCnt, stableReps.length, null);
+
+        stableChanged = false;
     }
 
     public int majority() {
@@ -235,6 +444,7 @@ public class Group {
 
     public void setRepTs(Timestamp now) {
         this.repTs = now;
+        completeReads();
     }
 
     public Timestamp getSafeTs() {
@@ -262,23 +472,97 @@ public class Group {
     public void reset() {
         setState(Collections.emptySet());
         replicators.clear();
+        stableChanged = true;
         repCntr = safeCntr = 0;
         repTs = safeTs = Timestamp.min();
     }
 
-    public void setSnapshot(NavigableMap<Timestamp, Replicate> snapshot) {
-        for (Entry<Timestamp, Replicate> entry : snapshot.entrySet()) {
-            accept(entry.getKey(), entry.getValue(), false);
+    /**
+     * Applies a snapshot received on catch up. Entries are applied in place, because a compacted snapshot may
+     * contain gaps in counters.
+     *
+     * @param snapshot The snapshot.
+     */
+    public void setSnapshot(Iterable<Entry<Timestamp, Replicate>> snapshot) {
+        for (Entry<Timestamp, Replicate> entry : snapshot) {
+            Replicate replicate = entry.getValue();
+
+            if (replicate.getCntr() <= repCntr) {
+                continue; // Already applied.
+            }
+
+            deltaStore.put(entry.getKey(), replicate);
+            stateMachine.apply(replicate.getCntr(), entry.getKey(), replicate.getData());
+            this.repTs = entry.getKey();
+            repCntr = replicate.getCntr();
         }
+
+        fold(); // Publishes applied entries.
     }
 
     public void addMember(NodeId sender) {
         boolean added = members.add(sender);
+        stableChanged = true;
 
         assert added : "Must not be stable node";
     }
 
-    public NavigableMap<Timestamp, Replicate> snapshot(Timestamp low, Timestamp high) {
-        return deltaStore.snapshot(low, high);
+    /**
+     * Returns entries for catch up. If the log below {@code low} is compacted, the state of the state machine is
+     * used instead of replaying the log, then the snapshot is taken at the last applied entry.
+     *
+     * @param low Lower bound, exclusive.
+     * @param high Upper bound, inclusive.
+     * @return Entries.
+     */
+    public Iterable<Entry<Timestamp, Replicate>> snapshot(Timestamp low, Timestamp high) {
+        return snapshot(low, high, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Collects a page of entries for catch up. The next page starts after the last entry of the page, so a follower
+     * can resume from its applied position.
+     *
+     * @param low Lower bound, exclusive.
+     * @param high Upper bound, inclusive.
+     * @param maxEntries Max number of entries in the page.
+     * @param maxBytes Max estimated payload size of the page. The page contains at least one entry.
+     * @param page The page.
+     * @return {@code True} if no entries remain after the page.
+     */
+    public boolean snapshot(Timestamp low, Timestamp high, int maxEntries, long maxBytes, List<Entry<Timestamp, Replicate>> page) {
+        // One more entry detects the end of the range.
+        Iterator<Entry<Timestamp, Replicate>> iter = snapshot(low, high, maxEntries == Integer.MAX_VALUE ? maxEntries : maxEntries + 1).iterator();
+
+        long bytes = 0;
+
+        while (iter.hasNext()) {
+            if (page.size() == maxEntries || bytes >= maxBytes) {
+                return false;
+            }
+
+            Entry<Timestamp, Replicate> entry = iter.next();
+
+            page.add(entry);
+            bytes += ReplicationOptions.estimateSize(entry.getValue());
+        }
+
+        return true;
+    }
+
+    private Iterable<Entry<Timestamp, Replicate>> snapshot(Timestamp low, Timestamp high, int maxEntries) {
+        if (low.compareTo(deltaStore.compactTs()) < 0) {
+            Iterable<Entry<Timestamp, Replicate>> snap = stateMachine.snapshot(low, maxEntries);
+
+            if (snap != null) {
+                return snap;
+            }
+        }
+
+        if (low.compareTo(high) >= 0) {
+            return Collections.emptyList(); // The state snapshot can move a follower beyond the target.
+        }
+
+        return deltaStore.snapshot(low, high, maxEntries);
     }
 }
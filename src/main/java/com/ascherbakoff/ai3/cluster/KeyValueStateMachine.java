@@ -0,0 +1,110 @@
+package com.ascherbakoff.ai3.cluster;
+
+import com.ascherbakoff.ai3.clock.Timestamp;
+import com.ascherbakoff.ai3.replication.Put;
+import com.ascherbakoff.ai3.replication.Replicate;
+import com.ascherbakoff.ai3.table.MVKeyValueStore;
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.Set;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * A state machine, which materializes {@link Put} commands into a multi-versioned key-value store.
+ *
+ * <p>Applied puts are written as pending versions and committed together on flush. A key can have only one pending
+ * version, so a repeated write of a key in the same batch flushes the batch first. A removal is written as a version
+ * with a null value, so removed keys are kept for snapshots. Each version keeps the counter of its entry.
+ *
+ * <p>Safety node: updates must be bound to a single thread.
+ */
+public class KeyValueStateMachine implements StateMachine {
+    private final MVKeyValueStore<Integer, Version> store = new MVKeyValueStore<>();
+
+    // Timestamps and keys of pending versions.
+    private final Set<Timestamp> pendingTss = new HashSet<>();
+    private final Set<Integer> pendingKeys = new HashSet<>();
+
+    // Set if a payload, which can't be materialized, was applied.
+    private boolean opaque;
+
+    @Override
+    public void apply(long cntr, Timestamp ts, @Nullable Object data) {
+        if (!(data instanceof Put)) {
+            opaque = true;
+            return;
+        }
+
+        Put put = (Put) data;
+
+        if (!pendingKeys.add(put.getKey())) {
+            flush();
+            pendingKeys.add(put.getKey());
+        }
+
+        store.put(put.getKey(), new Version(cntr, put.getValue()), ts);
+
+        pendingTss.add(ts);
+    }
+
+    @Override
+    public void flush() {
+        if (pendingTss.isEmpty()) {
+            return;
+        }
+
+        store.finish(pendingTss, true);
+
+        pendingTss.clear();
+        pendingKeys.clear();
+    }
+
+    @Override
+    public @Nullable Integer get(int key, Timestamp ts) {
+        Version ver = store.get(key, ts);
+
+        return ver == null ? null : ver.val;
+    }
+
+    @Override
+    public @Nullable Iterable<Entry<Timestamp, Replicate>> snapshot(Timestamp low, int maxEntries) {
+        assert pendingTss.isEmpty();
+
+        if (opaque) {
+            return null;
+        }
+
+        // Each applied put is the latest version of its key or is superseded, so the last applied entry is included.
+        List<Entry<Timestamp, Replicate>> snap = new ArrayList<>();
+
+        for (Entry<Timestamp, Entry<Integer, Version>> entry : store.snapshot(low, Timestamp.max(), maxEntries)) {
+            Version ver = entry.getValue().getValue();
+            Put put = new Put(entry.getValue().getKey(), ver.val);
+
+            snap.add(new SimpleImmutableEntry<>(entry.getKey(), new Replicate(ver.cntr, put)));
+        }
+
+        return snap;
+    }
+
+    /**
+     * A value with the counter of its entry. Ordered by counters.
+     */
+    private static class Version implements Comparable<Version> {
+        final long cntr;
+        final @Nullable Integer val;
+
+        Version(long cntr, @Nullable Integer val) {
+            this.cntr = cntr;
+            this.val = val;
+        }
+
+        @Override
+        public int compareTo(Version o) {
+            return Long.compare(cntr, o.cntr);
+        }
+    }
+}
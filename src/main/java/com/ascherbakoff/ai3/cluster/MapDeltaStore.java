@@ -1,42 +1,132 @@
 package com.ascherbakoff.ai3.cluster;
 
 import com.ascherbakoff.ai3.clock.Timestamp;
+import com.ascherbakoff.ai3.replication.Put;
 import com.ascherbakoff.ai3.replication.Replicate;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
 import java.util.NavigableMap;
 import java.util.TreeMap;
 
+/**
+ * On-heap delta store.
+ *
+ * <p>If compaction is enabled, entries up to the compaction timestamp are collapsed to the latest value per key.
+ * A snapshot starting below the compaction timestamp contains the collapsed state followed by the log.
+ */
 public class MapDeltaStore implements DeltaStore {
-    public MapDeltaStore(boolean compaction) {
-        // TODO compaction
-        assert !compaction;
-    }
+    private final boolean compaction;
 
     // The log.
     private final TreeMap<Timestamp, Replicate> log = new TreeMap<Timestamp, Replicate>();
 
+    // Compacted state: the latest entry per key, ordered by timestamps, and timestamps of entries by keys.
+    private final TreeMap<Timestamp, Replicate> base = new TreeMap<>();
+    private final Map<Object, Timestamp> baseTss = new HashMap<>();
+
+    private Timestamp compactTs = Timestamp.min();
+
+    public MapDeltaStore(boolean compaction) {
+        this.compaction = compaction;
+    }
+
     @Override
     public void put(Timestamp repTs, Replicate replicate) {
         log.put(repTs, replicate);
     }
 
     @Override
-    public NavigableMap<Timestamp, Replicate> snapshot(Timestamp low, Timestamp high) {
-        return new TreeMap(log.subMap(low, false, high, true));
+    public Iterable<Entry<Timestamp, Replicate>> snapshot(Timestamp low, Timestamp high) {
+        return snapshot(low, high, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public Iterable<Entry<Timestamp, Replicate>> snapshot(Timestamp low, Timestamp high, int maxEntries) {
+        List<Entry<Timestamp, Replicate>> snap = new ArrayList<>();
+
+        if (low.compareTo(high) >= 0) {
+            return snap;
+        }
+
+        // Full state transfer: the collapsed state followed by the log tail.
+        if (low.compareTo(compactTs) < 0) {
+            Timestamp baseHigh = high.compareTo(compactTs) < 0 ? high : compactTs;
+
+            if (!collect(base.subMap(low, false, baseHigh, true), maxEntries, snap)) {
+                return snap;
+            }
+
+            low = compactTs;
+        }
+
+        if (low.compareTo(high) < 0) {
+            collect(log.subMap(low, false, high, true), maxEntries, snap);
+        }
+
+        return snap;
+    }
+
+    /**
+     * @return {@code False} if the limit is reached.
+     */
+    private static boolean collect(Map<Timestamp, Replicate> src, int maxEntries, List<Entry<Timestamp, Replicate>> snap) {
+        for (Entry<Timestamp, Replicate> entry : src.entrySet()) {
+            if (snap.size() == maxEntries) {
+                return false;
+            }
+
+            snap.add(Map.entry(entry.getKey(), entry.getValue()));
+        }
+
+        return true;
     }
 
     @Override
     public void compact(Timestamp compactTs) {
-        // TODO
+        if (!compaction || compactTs.compareTo(this.compactTs) <= 0) {
+            return;
+        }
+
+        NavigableMap<Timestamp, Replicate> head = log.headMap(compactTs, true);
+
+        Iterator<Entry<Timestamp, Replicate>> iter = head.entrySet().iterator();
+
+        while (iter.hasNext()) {
+            Entry<Timestamp, Replicate> entry = iter.next();
+
+            Timestamp prev = baseTss.put(key(entry), entry.getKey());
+
+            if (prev != null) {
+                base.remove(prev);
+            }
+
+            base.put(entry.getKey(), entry.getValue());
+
+            iter.remove();
+        }
+
+        this.compactTs = compactTs;
+    }
+
+    private static Object key(Entry<Timestamp, Replicate> entry) {
+        Object data = entry.getValue().getData();
+
+        // Only puts can be collapsed.
+        return data instanceof Put ? ((Put) data).getKey() : entry.getKey();
     }
 
     @Override
     public Timestamp compactTs() {
-        return Timestamp.min();
+        return compactTs;
     }
 
     @Override
     public int logSize() {
-        return log.size();
+        return log.size() + base.size();
     }
 
     @Override
@@ -54,6 +144,10 @@ public class MapDeltaStore implements DeltaStore {
             return false;
         }
 
+        if (!base.equals(snapStore.base)) {
+            return false;
+        }
+
         return true;
     }
 }
@@ -0,0 +1,589 @@
+package com.ascherbakoff.ai3.cluster;
+
+import com.ascherbakoff.ai3.clock.Timestamp;
+import com.ascherbakoff.ai3.replication.Put;
+import com.ascherbakoff.ai3.replication.Replicate;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.System.Logger.Level;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.NoSuchElementException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Durable delta store. Entries are appended to fixed-size segment files mapped into memory.
+ *
+ * <p>Each segment keeps a sparse timestamp index (every {@code indexInterval} entry), which is used to locate the
+ * beginning of a snapshot. Snapshots decode entries directly from the mapped segments.
+ *
+ * <p>Entry layout: {@code [len:int][physical:long][counter:long][cntr:long][type:byte][payload]}, where {@code len}
+ * is the size of the entry without the length field. Zero length marks the end of a segment (files are zero-filled).
+ *
+ * <p>If compaction is enabled, segments, which contain only entries up to the compaction timestamp, are deleted. The
+ * tail segment is kept. A snapshot starting below the compaction timestamp is served by the state machine, see
+ * {@link StateMachine#snapshot(Timestamp, int)}, so compaction must be disabled for a state machine, which can't
+ * represent its state as entries. Mappings of deleted segments stay valid until captured snapshots are collected.
+ *
+ * <p>Safety node: updates must be bound to a single thread. Snapshots can be iterated from any thread.
+ */
+public class MappedDeltaStore implements DeltaStore, AutoCloseable {
+    private static System.Logger LOGGER = System.getLogger(MappedDeltaStore.class.getName());
+
+    public static final int DFLT_SEGMENT_SIZE = 16 * 1024 * 1024;
+
+    public static final int DFLT_INDEX_INTERVAL = 64;
+
+    private static final String SEGMENT_SUFFIX = ".seg";
+
+    private static final int HEADER_SIZE = Long.BYTES * 3 + 1;
+
+    private static final byte TYPE_NULL = 0;
+
+    private static final byte TYPE_PUT = 1;
+
+    private final Path dir;
+
+    private final int segmentSize;
+
+    private final int indexInterval;
+
+    private final boolean sync;
+
+    private final boolean compaction;
+
+    // Replaced rarely, on a roll or a compaction.
+    private final List<Segment> segments = new CopyOnWriteArrayList<>();
+
+    private volatile int size;
+
+    private volatile Timestamp compactTs = Timestamp.min();
+
+    /**
+     * @param dir The directory for segment files. Existing segments are loaded.
+     */
+    public MappedDeltaStore(Path dir) {
+        this(dir, DFLT_SEGMENT_SIZE, DFLT_INDEX_INTERVAL, false, true);
+    }
+
+    /**
+     * @param dir The directory for segment files. Existing segments are loaded.
+     * @param segmentSize Segment size in bytes.
+     * @param indexInterval Number of entries between two sparse index records.
+     * @param sync {@code True} to force each update to the storage device.
+     */
+    public MappedDeltaStore(Path dir, int segmentSize, int indexInterval, boolean sync) {
+        this(dir, segmentSize, indexInterval, sync, true);
+    }
+
+    /**
+     * @param dir The directory for segment files. Existing segments are loaded.
+     * @param segmentSize Segment size in bytes.
+     * @param indexInterval Number of entries between two sparse index records.
+     * @param sync {@code True} to force each update to the storage device.
+     * @param compaction {@code True} to delete compacted segments.
+     */
+    public MappedDeltaStore(Path dir, int segmentSize, int indexInterval, boolean sync, boolean compaction) {
+        if (segmentSize <= HEADER_SIZE + 2 * Integer.BYTES)
+            throw new IllegalArgumentException("Segment size is too small: " + segmentSize);
+
+        if (indexInterval < 1)
+            throw new IllegalArgumentException("Index interval must be positive: " + indexInterval);
+
+        this.dir = dir;
+        this.segmentSize = segmentSize;
+        this.indexInterval = indexInterval;
+        this.sync = sync;
+        this.compaction = compaction;
+
+        try {
+            Files.createDirectories(dir);
+
+            load();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to open the delta store: " + dir, e);
+        }
+    }
+
+    private void load() throws IOException {
+        List<Path> files;
+
+        try (Stream<Path> list = Files.list(dir)) {
+            files = list.filter(p -> p.getFileName().toString().endsWith(SEGMENT_SUFFIX)).sorted().collect(Collectors.toList());
+        }
+
+        int total = 0;
+
+        for (Path file : files) {
+            String name = file.getFileName().toString();
+            long id = Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length()));
+
+            Segment segment = new Segment(id, file);
+            segment.recover();
+            segments.add(segment);
+
+            total += segment.count;
+        }
+
+        size = total;
+
+        // Entries before the first segment were compacted. The exact compaction timestamp is not stored.
+        if (!segments.isEmpty() && segments.get(0).id != 0 && segments.get(0).firstTs != null) {
+            compactTs = segments.get(0).firstTs;
+        }
+
+        if (!segments.isEmpty()) {
+            LOGGER.log(Level.INFO, "Loaded delta store [dir={0}, segments={1}, size={2}, last={3}]", dir, segments.size(), total,
+                    tail().lastTs);
+        }
+    }
+
+    private @Nullable Segment tail() {
+        return segments.isEmpty() ? null : segments.get(segments.size() - 1);
+    }
+
+    @Override
+    public void put(Timestamp repTs, Replicate replicate) {
+        assert !replicate.isBatch();
+
+        Segment tail = tail();
+
+        if (tail != null && tail.lastTs != null && repTs.compareTo(tail.lastTs) <= 0) {
+            throw new IllegalArgumentException("Out of order update: ts=" + repTs + ", last=" + tail.lastTs);
+        }
+
+        int len = HEADER_SIZE + payloadSize(replicate.getData());
+
+        if (Integer.BYTES + len + Integer.BYTES > segmentSize) {
+            throw new IllegalArgumentException("Entry is larger than the segment: len=" + len);
+        }
+
+        try {
+            if (tail == null || !tail.fits(len)) {
+                tail = roll();
+            }
+
+            tail.append(repTs, replicate, len);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to append to the delta store: " + dir, e);
+        }
+
+        size++;
+    }
+
+    private Segment roll() throws IOException {
+        Segment prev = tail();
+
+        if (prev != null && sync) {
+            prev.buf.force();
+        }
+
+        long id = prev == null ? 0 : prev.id + 1;
+
+        Segment segment = new Segment(id, dir.resolve(String.format("%020d", id) + SEGMENT_SUFFIX));
+        segments.add(segment);
+
+        return segment;
+    }
+
+    @Override
+    public Iterable<Entry<Timestamp, Replicate>> snapshot(Timestamp low, Timestamp high) {
+        Segment[] all = segments.toArray(new Segment[0]);
+        List<Segment> segs = new ArrayList<>();
+        int[] limits = new int[all.length];
+
+        for (Segment segment : all) {
+            if (segment.lastTs == null || segment.lastTs.compareTo(low) <= 0) {
+                continue; // Entirely below the range.
+            }
+
+            if (segment.firstTs.compareTo(high) > 0) {
+                break;
+            }
+
+            limits[segs.size()] = segment.pos;
+            segs.add(segment);
+        }
+
+        if (segs.isEmpty()) {
+            return List.of();
+        }
+
+        int start = segs.get(0).floorOffset(low);
+
+        return () -> new SnapshotIterator(segs, limits, start, low, high);
+    }
+
+    @Override
+    public void compact(Timestamp compactTs) {
+        if (!compaction || compactTs.compareTo(this.compactTs) <= 0) {
+            return;
+        }
+
+        this.compactTs = compactTs;
+
+        // The tail is kept for appends.
+        while (segments.size() > 1) {
+            Segment head = segments.get(0);
+
+            if (head.lastTs != null && head.lastTs.compareTo(compactTs) > 0) {
+                break;
+            }
+
+            segments.remove(0);
+            size -= head.count;
+
+            try {
+                head.close();
+                Files.deleteIfExists(head.file);
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "Failed to delete segment " + head.file, e);
+            }
+        }
+    }
+
+    @Override
+    public Timestamp compactTs() {
+        return compactTs;
+    }
+
+    @Override
+    public int logSize() {
+        return size;
+    }
+
+    /**
+     * Forces all segments to the storage device.
+     */
+    public void flush() {
+        for (Segment segment : segments) {
+            segment.buf.force();
+        }
+    }
+
+    @Override
+    public void close() {
+        for (Segment segment : segments) {
+            try {
+                segment.close();
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "Failed to close segment " + segment.file, e);
+            }
+        }
+
+        segments.clear();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+
+        MappedDeltaStore store = (MappedDeltaStore) o;
+
+        if (size != store.size) {
+            return false;
+        }
+
+        Iterator<Entry<Timestamp, Replicate>> it1 = snapshot(Timestamp.min(), Timestamp.max()).iterator();
+        Iterator<Entry<Timestamp, Replicate>> it2 = store.snapshot(Timestamp.min(), Timestamp.max()).iterator();
+
+        while (it1.hasNext() && it2.hasNext()) {
+            if (!it1.next().equals(it2.next())) {
+                return false;
+            }
+        }
+
+        return !it1.hasNext() && !it2.hasNext();
+    }
+
+    @Override
+    public int hashCode() {
+        return size;
+    }
+
+    private static int payloadSize(@Nullable Object data) {
+        if (data == null) {
+            return 0;
+        }
+
+        if (data instanceof Put) {
+            return 1 + 2 * Integer.BYTES;
+        }
+
+        throw new IllegalArgumentException("Unsupported payload: " + data.getClass().getName());
+    }
+
+    private static void writePayload(ByteBuffer buf, int off, @Nullable Object data) {
+        if (data == null) {
+            buf.put(off, TYPE_NULL);
+            return;
+        }
+
+        Put put = (Put) data;
+
+        buf.put(off, TYPE_PUT);
+        buf.put(off + 1, (byte) ((put.getKey() == null ? 1 : 0) | (put.getValue() == null ? 2 : 0)));
+        buf.putInt(off + 2, put.getKey() == null ? 0 : put.getKey());
+        buf.putInt(off + 2 + Integer.BYTES, put.getValue() == null ? 0 : put.getValue());
+    }
+
+    private static @Nullable Object readPayload(ByteBuffer buf, int off) {
+        byte type = buf.get(off);
+
+        switch (type) {
+            case TYPE_NULL:
+                return null;
+
+            case TYPE_PUT:
+                byte nulls = buf.get(off + 1);
+                int key = buf.getInt(off + 2);
+                int val = buf.getInt(off + 2 + Integer.BYTES);
+
+                return new Put((nulls & 1) != 0 ? null : key, (nulls & 2) != 0 ? null : val);
+
+            default:
+                throw new IllegalStateException("Corrupted entry: type=" + type);
+        }
+    }
+
+    private static Timestamp readTs(ByteBuffer buf, int off) {
+        return new Timestamp(buf.getLong(off + Integer.BYTES), buf.getLong(off + Integer.BYTES + Long.BYTES));
+    }
+
+    /**
+     * A log segment.
+     */
+    private class Segment {
+        final long id;
+
+        final Path file;
+
+        final FileChannel ch;
+
+        final MappedByteBuffer buf;
+
+        // Write position. Published after the entry is written.
+        volatile int pos;
+
+        int count;
+
+        @Nullable Timestamp firstTs;
+
+        volatile @Nullable Timestamp lastTs;
+
+        // Sparse index.
+        long[] idxPhysical = new long[16];
+        long[] idxCounter = new long[16];
+        int[] idxOffset = new int[16];
+        int idxSize;
+
+        Segment(long id, Path file) throws IOException {
+            this.id = id;
+            this.file = file;
+            this.ch = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            this.buf = ch.map(MapMode.READ_WRITE, 0, segmentSize);
+        }
+
+        /**
+         * Restores the write position and the index by scanning the segment.
+         */
+        void recover() {
+            int off = 0;
+
+            while (off + Integer.BYTES <= segmentSize) {
+                int len = buf.getInt(off);
+
+                if (len < HEADER_SIZE || off + Integer.BYTES + len + Integer.BYTES > segmentSize) {
+                    break; // End of segment or torn write.
+                }
+
+                onAppend(readTs(buf, off), off);
+
+                off += Integer.BYTES + len;
+            }
+
+            pos = off;
+        }
+
+        boolean fits(int len) {
+            // Reserve space for the end marker.
+            return pos + Integer.BYTES + len + Integer.BYTES <= segmentSize;
+        }
+
+        void append(Timestamp ts, Replicate replicate, int len) {
+            int off = pos;
+
+            buf.putLong(off + Integer.BYTES, ts.physical());
+            buf.putLong(off + Integer.BYTES + Long.BYTES, ts.counter());
+            buf.putLong(off + Integer.BYTES + 2 * Long.BYTES, replicate.getCntr());
+            writePayload(buf, off + Integer.BYTES + HEADER_SIZE - 1, replicate.getData());
+            buf.putInt(off, len); // Length is written last, marking the entry as complete.
+
+            if (sync) {
+                buf.force();
+            }
+
+            onAppend(ts, off);
+
+            pos = off + Integer.BYTES + len;
+        }
+
+        private void onAppend(Timestamp ts, int off) {
+            if (count % indexInterval == 0) {
+                if (idxSize == idxOffset.length) {
+                    idxPhysical = Arrays.copyOf(idxPhysical, idxSize * 2);
+                    idxCounter = Arrays.copyOf(idxCounter, idxSize * 2);
+                    idxOffset = Arrays.copyOf(idxOffset, idxSize * 2);
+                }
+
+                idxPhysical[idxSize] = ts.physical();
+                idxCounter[idxSize] = ts.counter();
+                idxOffset[idxSize] = off;
+                idxSize++;
+            }
+
+            if (firstTs == null) {
+                firstTs = ts;
+            }
+
+            lastTs = ts;
+            count++;
+        }
+
+        /**
+         * @param ts The timestamp.
+         * @return The offset of the closest indexed entry with a timestamp not greater than {@code ts}, or 0.
+         */
+        int floorOffset(Timestamp ts) {
+            int lo = 0;
+            int hi = idxSize - 1;
+            int res = 0;
+
+            while (lo <= hi) {
+                int mid = (lo + hi) >>> 1;
+
+                int cmp = idxPhysical[mid] == ts.physical() ? Long.compare(idxCounter[mid], ts.counter()) :
+                        Long.compare(idxPhysical[mid], ts.physical());
+
+                if (cmp <= 0) {
+                    res = idxOffset[mid];
+                    lo = mid + 1;
+                } else {
+                    hi = mid - 1;
+                }
+            }
+
+            return res;
+        }
+
+        void close() throws IOException {
+            if (sync) {
+                buf.force();
+            }
+
+            ch.close();
+        }
+    }
+
+    /**
+     * Decodes entries from a captured list of segments.
+     */
+    private static class SnapshotIterator implements Iterator<Entry<Timestamp, Replicate>> {
+        private final List<Segment> segs;
+        private final int[] limits;
+        private final Timestamp low;
+        private final Timestamp high;
+
+        private int segIdx;
+        private ByteBuffer buf;
+        private int off;
+
+        private @Nullable Entry<Timestamp, Replicate> next;
+
+        SnapshotIterator(List<Segment> segs, int[] limits, int start, Timestamp low, Timestamp high) {
+            this.segs = segs;
+            this.limits = limits;
+            this.low = low;
+            this.high = high;
+            this.buf = segs.get(0).buf.duplicate();
+            this.off = start;
+
+            advance();
+        }
+
+        private void advance() {
+            next = null;
+
+            while (true) {
+                if (off >= limits[segIdx]) {
+                    if (++segIdx == segs.size()) {
+                        return;
+                    }
+
+                    buf = segs.get(segIdx).buf.duplicate();
+                    off = 0;
+                    continue;
+                }
+
+                int len = buf.getInt(off);
+                Timestamp ts = readTs(buf, off);
+
+                if (ts.compareTo(high) > 0) {
+                    segIdx = segs.size() - 1;
+                    off = limits[segIdx];
+                    return;
+                }
+
+                if (ts.compareTo(low) > 0) {
+                    long cntr = buf.getLong(off + Integer.BYTES + 2 * Long.BYTES);
+                    Object data = readPayload(buf, off + Integer.BYTES + HEADER_SIZE - 1);
+
+                    next = new SimpleImmutableEntry<>(ts, new Replicate(cntr, data));
+                }
+
+                off += Integer.BYTES + len;
+
+                if (next != null) {
+                    return;
+                }
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next != null;
+        }
+
+        @Override
+        public Entry<Timestamp, Replicate> next() {
+            if (next == null) {
+                throw new NoSuchElementException();
+            }
+
+            Entry<Timestamp, Replicate> res = next;
+
+            advance();
+
+            return res;
+        }
+    }
+}
@@ -10,6 +10,8 @@ import com.ascherbakoff.ai3.replication.LeaseProposed;
 import com.ascherbakoff.ai3.replication.Put;
 import com.ascherbakoff.ai3.replication.Replicate;
 import com.ascherbakoff.ai3.replication.ReplicateResponse;
+import com.ascherbakoff.ai3.replication.ReplicationException;
+import com.ascherbakoff.ai3.replication.ReplicationOptions;
 import com.ascherbakoff.ai3.replication.Replicator;
 import com.ascherbakoff.ai3.replication.Request;
 import com.ascherbakoff.ai3.replication.Response;
@@ -18,16 +20,19 @@ import com.ascherbakoff.ai3.replication.Snapshot;
 import com.ascherbakoff.ai3.replication.SnapshotResponse;
 import com.ascherbakoff.ai3.replication.IdleSync;
 import java.lang.System.Logger.Level;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
-import java.util.NavigableMap;
 import java.util.Set;
 import java.util.concurrent.Callable;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
@@ -59,13 +64,24 @@ public class Node {
 
     private RpcClient client;
 
+    private final ReplicationOptions options;
+
+    private final Scheduler scheduler;
+
     public Node(NodeId nodeId, Topology top, Clock clock, String... grps) {
+        this(nodeId, top, clock, new ReplicationOptions(), grps);
+    }
+
+    public Node(NodeId nodeId, Topology top, Clock clock, ReplicationOptions options, String... grps) {
         this.nodeId = nodeId;
         this.top = top;
         this.clock = clock;
+        this.options = options;
         this.client = new RpcClient(top);
+        this.scheduler = new Scheduler(nodeId.getId(), options.getSchedulerLanes(), options.isVirtualLanes());
         for (String grp : grps) {
-            groups.put(grp, new Group(grp));
+            groups.put(grp, new Group(grp, options.getDeltaStoreFactory().apply(nodeId, grp),
+                    options.getStateMachineFactory().apply(nodeId, grp), scheduler.executor(grp)));
         }
     }
 
@@ -75,6 +91,12 @@ public class Node {
 
     public void stop() {
         this.state = State.STOPPED;
+
+        scheduler.close();
+    }
+
+    public Scheduler scheduler() {
+        return scheduler;
     }
 
     public NodeId id() {
@@ -94,7 +116,13 @@ public class Node {
             // Update logical clocks.
             clock.onRequest(request.getTs());
 
-            request.getPayload().accept(Node.this, request, resp); // Process request async.
+            try {
+                request.getPayload().accept(Node.this, request, resp); // Process request async.
+            } catch (RuntimeException e) {
+                LOGGER.log(Level.ERROR, "Failed to process request: grp=" + request.getGrp() + " payload=" + request.getPayload(), e);
+
+                resp.completeExceptionally(e); // Let the sender retry.
+            }
         });
 
         return resp;
@@ -104,28 +132,42 @@ public class Node {
         Group grp = groups.get(request.getGrp());
         assert grp != null; // Created on before request processing.
 
-        Timestamp now = clock.now();
+        long now = clock.nowLong(); // Only for the lease check, responses carry a full timestamp.
 
         // Validates if a request fits the lease window.
         if (!grp.validLease(now, request.getSender())) {
-            resp.complete(new Response(now, 1, "Illegal lease"));
+            resp.complete(new Response(clock.now(), 1, "Illegal lease"));
             return;
         }
 
         if (!grp.validLease(request.getTs(), request.getSender())) {
-            resp.complete(new Response(now, 1, "Illegal lease"));
+            resp.complete(new Response(clock.now(), 1, "Illegal lease"));
+            return;
+        }
+
+        if (replicate.isBatch() && !grp.validLease(replicate.getTs(0), request.getSender())) {
+            resp.complete(new Response(clock.now(), 1, "Illegal lease"));
             return;
         }
 
-        Object data = replicate.getData();
-        if (data instanceof Put) {
+        if (supported(replicate)) {
             grp.accept(request.getTs(), replicate, false);
-            resp.complete(new ReplicateResponse(now, grp.getRepCntr(), grp.getRepTs()));
+            resp.complete(new ReplicateResponse(clock.now(), grp.getRepCntr(), grp.getRepTs()));
         } else {
-            resp.complete(new Response(now, 1, "Unsupported command"));
+            resp.complete(new Response(clock.now(), 1, "Unsupported command"));
         }
     }
 
+    private static boolean supported(Replicate replicate) {
+        for (int i = 0; i < replicate.size(); i++) {
+            if (!(replicate.getData(i) instanceof Put)) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
     public void visit(LeaseGranted lease, Request request, CompletableFuture<Response> resp) {
         grant(request.getTs(), lease.name(), lease.from(), lease.candidate(), lease.members(), lease.getTs(), resp);
     }
@@ -151,13 +193,37 @@ public class Node {
     public void visit(Snapshot snapshot, Request request, CompletableFuture<Response> resp) {
         // TODO validate request from the same epoch. May NPE
         Group grp = groups.get(request.getGrp());
-        boolean catchedUp = grp.replicators.get(request.getSender()).onCatchup(snapshot.getCntr(), snapshot.getLow());
+
+        List<Entry<Timestamp, Replicate>> page = new ArrayList<>();
+        boolean last = grp.snapshot(snapshot.getLow(), snapshot.getHigh(), options.getMaxCatchUpPageEntries(),
+                options.getMaxCatchUpPageBytes(), page);
+
+        if (!last) {
+            // The follower continues to the same target from the applied position.
+            resp.complete(new SnapshotResponse(clock.now(), page, snapshot.getHigh()));
+            return;
+        }
+
+        long lastCntr = snapshot.getCntr();
+        Timestamp lastTs = snapshot.getLow();
+
+        if (!page.isEmpty()) {
+            Entry<Timestamp, Replicate> lastEntry = page.get(page.size() - 1);
+
+            if (lastEntry.getValue().getCntr() > lastCntr) {
+                lastCntr = lastEntry.getValue().getCntr(); // Same as the follower counter after the page is applied.
+                lastTs = lastEntry.getKey();
+            }
+        }
+
+        boolean catchedUp = grp.replicators.get(request.getSender()).onCatchup(snapshot.getCntr(), lastCntr, lastTs);
 
         if (catchedUp) {
             grp.addMember(request.getSender()); // Move to operational.
+            grp.updateSafe(); // The new member may complete a majority, don't wait for the next ack.
         }
 
-        resp.complete(new SnapshotResponse(clock.now(), grp.snapshot(snapshot.getLow(), snapshot.getHigh()), catchedUp ? null : grp.getSafeTs()));
+        resp.complete(new SnapshotResponse(clock.now(), page, catchedUp ? null : grp.getSafeTs()));
     }
 
     private void propose(String grp, Timestamp leaseStart, Set<NodeId> members, CompletableFuture<Response> resp) {
@@ -171,6 +237,11 @@ public class Node {
 
         Timestamp now = clock.now();
 
+        if (group.isBroken()) { // Let the lease expire, so another node can take over.
+            resp.complete(new Response(now, 1, "Lease request ignored (broken)")); // TODO error code
+            return;
+        }
+
         if (prev != null && leaseStart.compareTo(prev) < 0) { // Ignore stale updates.
             resp.complete(new Response(now, 1, "Lease request ignored (outdated)")); // TODO error code
             return;
@@ -179,7 +250,7 @@ public class Node {
         boolean leaseExtended = false;
 
         // Ignore stale updates, except refresh for current leaseholder. TODO test
-        if (prev != null && leaseStart.compareTo(prev.adjust(Tracker.LEASE_DURATION)) < 0) {
+        if (prev != null && leaseStart.physical() < group.getLeaseEnd()) {
             if (!candidate.equals(group.getLeader())) {
                 resp.complete(new Response(now, 1, "Lease request ignored (wrong candidate)")); // TODO error code
                 return;
@@ -201,7 +272,7 @@ public class Node {
 
             // Asynchronously notify alive members.
             for (NodeId nodeId0 : group.replicators.keySet()) {
-                if (top.getNode(nodeId0) == null) {
+                if (!top.isAlive(nodeId0)) {
                     continue;
                 }
 
@@ -227,7 +298,7 @@ public class Node {
             request.setTs(now);
             request.setPayload(new Collect());
 
-            if (top.getNodeMap().get(nodeId) == null) {
+            if (!top.isAlive(nodeId)) {
                 callback(now, cntrs, nodeId, Timestamp.invalid(), members, leaseStart, group, candidate, resp);
             } else {
                 client.send(nodeId, request).orTimeout(Replicator.TIMEOUT_SEC, TimeUnit.SECONDS).thenAccept(response -> {
@@ -258,7 +329,7 @@ public class Node {
             return;
         }
 
-        if (prev != null && from.compareTo(prev.adjust(Tracker.LEASE_DURATION)) < 0 && !leaseholder.equals(
+        if (prev != null && from.physical() < group.getLeaseEnd() && !leaseholder.equals(
                 group.getLeader())) {// Ignore stale updates, except refresh for current leaseholder. TODO test
             resp.complete(new Response(now, 1, "Lease request ignored (wrong candidate)")); // TODO error code
             return;
@@ -266,7 +337,7 @@ public class Node {
 
         boolean leaseExtended = false;
 
-        if (prev != null && from.compareTo(prev.adjust(Tracker.LEASE_DURATION)) < 0 && leaseholder.equals(group.getLeader())) {
+        if (prev != null && from.physical() < group.getLeaseEnd() && leaseholder.equals(group.getLeader())) {
             leaseExtended = true;
         }
 
@@ -298,7 +369,7 @@ public class Node {
                         continue;
                     }
 
-                    group.replicators.put(member, new Replicator(this, member, grp, top));
+                    group.addReplicator(member, new Replicator(this, member, grp, top));
                 }
             }
 
@@ -309,7 +380,7 @@ public class Node {
             while (it.hasNext()) {
                 NodeId member = it.next();
                 if (!members.contains(member)) {
-                    Replicator rep = group.replicators.remove(member);
+                    Replicator rep = group.removeReplicator(member);
                     rep.failInflights();
                     it.remove();
                 }
@@ -326,7 +397,7 @@ public class Node {
                 Replicator replicator = group.replicators.get(member);
                 if (replicator == null) {
                     replicator = new Replicator(this, member, grp, top);
-                    group.replicators.put(member, replicator);
+                    group.addReplicator(member, replicator);
                 }
             }
 
@@ -356,17 +427,19 @@ public class Node {
         return clock;
     }
 
+    public ReplicationOptions options() {
+        return options;
+    }
+
     public @Nullable NodeId getLeader(String grpName) {
         Group group = groups.get(grpName);
         if (group == null) {
             return null;
         }
 
-        Timestamp now = clock.now();
-
         Timestamp lease = group.getLease();
 
-        if (lease != null && now.compareTo(lease.adjust(Tracker.LEASE_DURATION)) < 0) {
+        if (lease != null && Timestamp.physical(clock.nowLong()) < group.getLeaseEnd()) {
             return group.getLeader();
         }
 
@@ -380,11 +453,9 @@ public class Node {
             return null;
         }
 
-        Timestamp now = clock.now();
-
         Timestamp lease = group.getLease();
 
-        if (lease != null && now.compareTo(lease.adjust(Tracker.LEASE_DURATION)) < 0) {
+        if (lease != null && Timestamp.physical(clock.nowLong()) < group.getLeaseEnd()) {
             return group.getLease();
         }
 
@@ -394,109 +465,229 @@ public class Node {
     /**
      * Replicates a Put.
      *
-     * Safety node: this methods must be bound to a single thread.
+     * <p>The payload is queued and packed into a batch together with other pending payloads of the group, according to
+     * {@link ReplicationOptions} limits.
      *
      * @param grp The group.
-     * @param put The command.
+     * @param payload The command.
      * @return The future which is completed successfully when a majority of nodes has finished the replication.
      */
     public CompletableFuture<Timestamp> replicate(String grp, Object payload) {
         Group group = groups.get(grp);
 
+        if (group.isBroken()) {
+            return CompletableFuture.failedFuture(new IllegalStateException("Group is broken: " + grp));
+        }
+
         CompletableFuture<Timestamp> resFut = new CompletableFuture<>();
 
-        // TODO implement batching by concatenating queue elements into single message.
-        group.executorService.submit(() -> {
+        group.pendingWrites.add(new PendingWrite(payload, resFut));
+
+        scheduleFlush(group);
+
+        return resFut;
+    }
+
+    private void scheduleFlush(Group group) {
+        if (!group.flushScheduled.compareAndSet(false, true)) {
+            return;
+        }
+
+        long linger = options.getBatchLingerMs();
+
+        Executor exec = linger == 0 ? group.executorService :
+                CompletableFuture.delayedExecutor(linger, TimeUnit.MILLISECONDS, group.executorService);
+
+        exec.execute(() -> flush(group));
+    }
+
+    /**
+     * Drains the group queue in batches.
+     *
+     * <p>Safety node: this methods must be bound to a single thread.
+     *
+     * @param group The group.
+     */
+    private void flush(Group group) {
+        group.flushScheduled.set(false); // Entries added after this point will schedule next flush.
+
+        int maxEntries = options.getMaxBatchEntries();
+        int maxBytes = options.getMaxBatchBytes();
+
+        List<PendingWrite> batch = new ArrayList<>(Math.min(maxEntries, 64));
+
+        while (!group.pendingWrites.isEmpty()) {
+            int bytes = 0;
+
+            while (batch.size() < maxEntries) {
+                PendingWrite next = group.pendingWrites.peek();
+
+                if (next == null) {
+                    break;
+                }
+
+                int size = ReplicationOptions.estimateSize(next.getPayload());
+
+                if (!batch.isEmpty() && bytes + size > maxBytes) {
+                    break;
+                }
+
+                group.pendingWrites.poll();
+                batch.add(next);
+                bytes += size;
+            }
+
+            replicateBatch(group, batch);
+
+            batch.clear();
+        }
+    }
+
+    private void replicateBatch(Group group, List<PendingWrite> batch) {
+        String grp = group.getName();
+
+        Timestamp[] tss = new Timestamp[batch.size()];
+        Object[] payloads = new Object[batch.size()];
+        List<CompletableFuture<Timestamp>> futs = new ArrayList<>(batch.size());
+
+        for (PendingWrite write : batch) {
+            // Writes queued before the group was fenced.
+            if (group.isBroken()) {
+                write.getFut().completeExceptionally(new IllegalStateException("Group is broken: " + grp));
+                continue;
+            }
+
             Timestamp now = clock.now(); // Used as tx id.
 
             // TODO maybe optimize.
             if (!group.validLease(now, nodeId)) {
-                resFut.completeExceptionally(new IllegalStateException("Illegal lease"));
-                return;
+                write.getFut().completeExceptionally(new IllegalStateException("Illegal lease"));
+                continue;
             }
 
-            Set<NodeId> stableIds = group.getMembers();
+            tss[futs.size()] = now;
+            payloads[futs.size()] = write.getPayload();
+            futs.add(write.getFut());
+        }
+
+        int cnt = futs.size();
 
-            AtomicInteger errs = new AtomicInteger();
-            AtomicInteger succ = new AtomicInteger();
+        if (cnt == 0) {
+            return;
+        }
 
-            final long cntr = group.nextCounter();
-            final int maj = group.majority();
-            final int size = group.getMembers().size();
+        Set<NodeId> stableIds = group.getMembers();
 
-            // Process local node.
-            AtomicBoolean localDone = new AtomicBoolean();
-            Replicate replicate = new Replicate(cntr, payload);
-            group.accept(now, replicate, true);
+        AtomicInteger errs = new AtomicInteger();
+        AtomicInteger succ = new AtomicInteger();
+
+        final long cntr = group.nextCounter(cnt);
+        final int maj = group.majority();
+        final int size = group.getMembers().size();
+        final Timestamp now = tss[cnt - 1];
 
-            if (maj == 1) {
-                group.updateSafe();
-                resFut.complete(now);
+        AtomicBoolean localDone = new AtomicBoolean();
+        Replicate replicate = cnt == 1 ? new Replicate(cntr, payloads[0]) :
+                new Replicate(cntr, Arrays.copyOf(tss, cnt), Arrays.copyOf(payloads, cnt));
+
+        AtomicBoolean done = new AtomicBoolean();
+
+        // Completes the batch when a quorum, including the local node, has acknowledged. Called from the group thread.
+        Runnable onAck = () -> {
+            if (succ.get() + errs.get() >= maj && !done.get()) {
+                if (errs.get() > size - maj) { // Can tolerate minority fails
+                    done.set(true);
+                    fail(futs, new Exception("Replication failure"));
+                } else if (localDone.get()) { // Needs local completion.
+                    done.set(true);
+                    group.updateSafe();
+                    complete(futs, tss);
+                }
             }
+        };
 
-            succ.incrementAndGet(); // TODO async local processing. Step down if a leader fails to apply update.
-            localDone.set(true);
-            LOGGER.log(Level.INFO, "Local ack cntr={0} ts={1} node={2} sucs={3} errs={4} maj={5} done={6} err={7}",
-                    cntr, now, nodeId, succ.get(), errs.get(), maj, resFut.isDone(), resFut.isCompletedExceptionally());
+        // Send to followers first, so the local write overlaps with network round trips.
+        for (NodeId id : group.replicators.keySet()) {  // Use all nodes in the group for replication, but track safe ts only for stable.
+            Replicator replicator = getReplicator(grp, id);
 
-            for (NodeId id : group.replicators.keySet()) {  // Use all nodes in the group for replication, but track safe ts only for stable.
-                Replicator replicator = getReplicator(grp, id);
+            assert replicator != null;
 
-                assert replicator != null;
+            Request request = new Request(); // Creating the request copy is essential TODO why ?
+            request.setTs(now);
+            request.setSender(nodeId);
+            request.setGrp(grp);
+            request.setPayload(replicate);
 
-                Request request = new Request(); // Creating the request copy is essential TODO why ?
-                request.setTs(now);
-                request.setSender(nodeId);
-                request.setGrp(grp);
-                request.setPayload(replicate);
+            Inflight inflight = replicator.send(request);
 
-                Inflight inflight = replicator.send(request);
+            // This future is completed from node's worker thread
+            Replicator finalReplicator = replicator;
+            inflight.ioFuture().whenCompleteAsync((resp, ex) -> {
+                if (resp != null) {
+                    clock().onResponse(resp.getTs());
+                }
 
-                // This future is completed from node's worker thread
-                Replicator finalReplicator = replicator;
-                inflight.ioFuture().whenCompleteAsync((resp, ex) -> {
-                    if (resp != null) {
-                        clock().onResponse(resp.getTs());
-                    }
+                // Don't count learners.
+                if (!stableIds.contains(id) && resp != null) {
+                    LOGGER.log(Level.INFO,
+                            "Received ack from learner: cntr={0} ts={1} node={2} sucs={3} errs={4} maj={5} done={6}",
+                            inflight.getReplicate().getCntr(), inflight.ts(), id, succ.get(), errs.get(), maj, done.get());
 
-                    // Don't count learners.
-                    if (!stableIds.contains(id) && resp != null) {
-                        LOGGER.log(Level.INFO,
-                                "Received ack from learner: cntr={0} ts={1} node={2} sucs={3} errs={4} maj={5} done={6} err={7}",
-                                inflight.getReplicate().getCntr(), inflight.ts(), id, succ.get(), errs.get(), maj, resFut.isDone(),
-                                resFut.isCompletedExceptionally());
+                    ReplicateResponse resp1 = (ReplicateResponse) resp;
+                    finalReplicator.onResponse(resp1.getRepCntr(), resp1.getRepTs());
+                    return;
+                }
 
-                        ReplicateResponse resp1 = (ReplicateResponse) resp;
-                        finalReplicator.onResponse(resp1.getRepCntr(), resp1.getRepTs());
-                        return;
-                    }
+                if (ex != null || resp.getReturn() != 0) {
+                    errs.incrementAndGet();
+                } else {
+                    succ.incrementAndGet();
 
-                    if (ex != null || resp.getReturn() != 0) {
-                        errs.incrementAndGet();
-                    } else {
-                        succ.incrementAndGet();
+                    ReplicateResponse resp1 = (ReplicateResponse) resp;
+                    finalReplicator.onResponse(resp1.getRepCntr(), resp1.getRepTs());
+                }
 
-                        ReplicateResponse resp1 = (ReplicateResponse) resp;
-                        finalReplicator.onResponse(resp1.getRepCntr(), resp1.getRepTs());
-                    }
+                onAck.run();
 
-                    if (succ.get() + errs.get() >= maj) {
-                        if (errs.get() > size - maj) { // Can tolerate minority fails
-                            resFut.completeExceptionally(new Exception("Replication failure"));
-                        } else if (localDone.get()) { // Needs local completion.
-                            group.updateSafe();
-                            resFut.complete(now);
-                        }
-                    }
+                LOGGER.log(Level.INFO, "Received ack: cntr={0} ts={1} node={2} sucs={3} errs={4} maj={5} done={6}",
+                        inflight.getReplicate().getCntr(), inflight.ts(), id, succ.get(), errs.get(), maj, done.get());
+            }, group.executorService);
+        }
 
-                    LOGGER.log(Level.INFO, "Received ack: cntr={0} ts={1} node={2} sucs={3} errs={4} maj={5} done={6} err={7}",
-                            inflight.getReplicate().getCntr(), inflight.ts(), id, succ.get(), errs.get(), maj, resFut.isDone(),
-                            resFut.isCompletedExceptionally());
-                }, group.executorService);
-            }
-        });
+        // Process local node. Acks are handled by the group thread, so they can't overtake the local write.
+        try {
+            group.accept(now, replicate, true);
+        } catch (RuntimeException e) {
+            // The update may be partially applied. Stop serving writes and lease refreshes, so the lease expires and
+            // another node takes over.
+            LOGGER.log(Level.ERROR, "Failed to apply locally, fencing the group: cntr=" + cntr + " ts=" + now, e);
 
-        return resFut;
+            group.setBroken();
+
+            done.set(true);
+            fail(futs, e);
+
+            return;
+        }
+
+        succ.incrementAndGet();
+        localDone.set(true);
+        LOGGER.log(Level.INFO, "Local ack cntr={0} ts={1} node={2} sucs={3} errs={4} maj={5} size={6}",
+                cntr, now, nodeId, succ.get(), errs.get(), maj, cnt);
+
+        onAck.run();
+    }
+
+    private static void complete(List<CompletableFuture<Timestamp>> futs, Timestamp[] tss) {
+        for (int i = 0; i < futs.size(); i++) {
+            futs.get(i).complete(tss[i]);
+        }
+    }
+
+    private static void fail(List<CompletableFuture<Timestamp>> futs, Throwable err) {
+        for (CompletableFuture<Timestamp> fut : futs) {
+            fut.completeExceptionally(err);
+        }
     }
 
     public Replicator getReplicator(String grp, NodeId id) {
@@ -505,7 +696,19 @@ public class Node {
         return group.replicators.get(id);
     }
 
+    /**
+     * Catches up with the leader by pages. The applied position is the cursor: each page is requested after the last
+     * applied entry, so a failed page is retried without reloading applied pages.
+     *
+     * @param grpName Group name.
+     * @param maxTs The target timestamp.
+     * @return The future, completed when the follower is caught up.
+     */
     public CompletableFuture<Void> catchUp(String grpName, Timestamp maxTs) {
+        return catchUp(grpName, maxTs, 0);
+    }
+
+    private CompletableFuture<Void> catchUp(String grpName, Timestamp maxTs, int attempt) {
         Group group = groups.get(grpName);
         assert group != null;
         //assert group.state == Tracker.State.CATCHINGUP;
@@ -523,21 +726,33 @@ public class Node {
         request.setTs(clock.now());
         request.setGrp(grpName);
         request.setPayload(new Snapshot(group.getRepCntr(), group.getRepTs(), maxTs));
-        return client.send(leaseHolder, request).thenAcceptAsync(resp -> {
-            SnapshotResponse snapResp = (SnapshotResponse) resp;
+        return client.send(leaseHolder, request).handleAsync((resp, err) -> {
+            if (err != null || !(resp instanceof SnapshotResponse)) {
+                String msg = err != null ? err.toString() : resp.getMessage();
+
+                if (attempt >= options.getCatchUpRetries()) {
+                    return CompletableFuture.<Void>failedFuture(new ReplicationException("Failed to catch up: " + msg));
+                }
 
-            NavigableMap<Timestamp, Replicate> snapshot = snapResp.getSnapshot();
+                LOGGER.log(Level.WARNING, "Retrying catch up [grp={0}, from={1}, attempt={2}, err={3}]", grpName,
+                        group.getRepTs(), attempt + 1, msg);
 
-            // TODO make async
-            group.setSnapshot(snapshot);
+                return catchUp(grpName, maxTs, attempt + 1);
+            }
+
+            SnapshotResponse snapResp = (SnapshotResponse) resp;
+
+            group.setSnapshot(snapResp.getSnapshot());
 
             LOGGER.log(Level.INFO, "Loaded delta snapshot [grp={0}, current={1}, next={2}, leader={3}, node={4}]", grpName, group.getRepTs(),
                     snapResp.getCurrent(), leaseHolder, nodeId);
 
             if (snapResp.getCurrent() != null) {
-                catchUp(grpName, snapResp.getCurrent());
+                return catchUp(grpName, snapResp.getCurrent(), 0);
             }
-        }, group.executorService);
+
+            return CompletableFuture.<Void>completedFuture(null);
+        }, group.executorService).thenCompose(f -> f);
     }
 
     public static class Result {
@@ -569,13 +784,11 @@ public class Node {
         CompletableFuture<Integer> fut = new CompletableFuture<>();
 
         group.executorService.submit(() -> {
-            // Put to wait queue.
+            // Put to wait queue, completed on repTs advance.
             if (group.getRepTs().compareTo(ts) < 0) {
-                group.pendingReads.put(ts, new Read(key, fut));
-                return;
+                group.pendingReads.computeIfAbsent(ts, k -> new ArrayList<>()).add(new Read(key, fut));
             } else {
-                Integer val = 0; // group.snapIdx.headMap(key, true);
-                fut.complete(val);
+                fut.complete(group.get(key, ts));
             }
         });
 
@@ -593,6 +806,10 @@ public class Node {
                     throw new IllegalStateException("Illegal lease");
                 }
 
+                if (group.isBroken()) {
+                    throw new IllegalStateException("Group is broken: " + grp);
+                }
+
                 Set<NodeId> nodeIds = new HashSet<>(group.getMembers());
 
                 for (NodeId id : nodeIds) {
@@ -716,7 +933,7 @@ public class Node {
 
                     // Asynchronously notify alive members.
                     for (NodeId nodeId0 : members) {
-                        if (top.getNode(nodeId0) == null) {
+                        if (!top.isAlive(nodeId0)) {
                             continue;
                         }
 
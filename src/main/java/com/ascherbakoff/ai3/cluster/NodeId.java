@@ -1,9 +1,12 @@
 package com.ascherbakoff.ai3.cluster;
 
+import java.io.Serializable;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
-public class NodeId {
+public class NodeId implements Serializable {
+    private static final long serialVersionUID = 1L;
+
     private final String id;
 
     public NodeId(@NotNull String id) {
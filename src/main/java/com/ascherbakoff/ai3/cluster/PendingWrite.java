@@ -0,0 +1,25 @@
+package com.ascherbakoff.ai3.cluster;
+
+import com.ascherbakoff.ai3.clock.Timestamp;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * A payload waiting in the group queue to be packed into a replication batch.
+ */
+public class PendingWrite {
+    final Object payload;
+    final CompletableFuture<Timestamp> fut;
+
+    public PendingWrite(Object payload, CompletableFuture<Timestamp> fut) {
+        this.payload = payload;
+        this.fut = fut;
+    }
+
+    public Object getPayload() {
+        return payload;
+    }
+
+    public CompletableFuture<Timestamp> getFut() {
+        return fut;
+    }
+}
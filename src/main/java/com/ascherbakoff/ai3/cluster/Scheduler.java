@@ -0,0 +1,251 @@
+package com.ascherbakoff.ai3.cluster;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Node level scheduler. Multiplexes replication groups onto a fixed number of lanes, each served by a single thread.
+ * A group is bound to a lane by its name, so tasks of a group are executed serially in the submission order.
+ */
+public class Scheduler implements AutoCloseable {
+    private final ThreadPoolExecutor[] lanes;
+
+    // Group executors, stopped on close.
+    private final List<GroupExecutor> executors = new CopyOnWriteArrayList<>();
+
+    /**
+     * @param name Name prefix of lane threads.
+     * @param lanes Number of lanes.
+     * @param virtual {@code True} to run lanes on virtual threads.
+     * @throws UnsupportedOperationException If virtual threads are not supported by the JDK.
+     */
+    public Scheduler(String name, int lanes, boolean virtual) {
+        if (lanes < 1)
+            throw new IllegalArgumentException("lanes must be positive: " + lanes);
+
+        ThreadFactory factory = virtual ? virtualThreadFactory(name + "-lane-") : platformThreadFactory(name + "-lane-");
+
+        this.lanes = new ThreadPoolExecutor[lanes];
+
+        for (int i = 0; i < lanes; i++) {
+            this.lanes[i] = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(), factory);
+        }
+    }
+
+    /**
+     * Creates an executor for a group. Shutting down the executor doesn't affect other groups of the lane.
+     *
+     * @param grp Group name.
+     * @return The executor.
+     */
+    public ExecutorService executor(String grp) {
+        GroupExecutor executor = new GroupExecutor(lanes[lane(grp)]);
+
+        executors.add(executor);
+
+        return executor;
+    }
+
+    /**
+     * @param grp Group name.
+     * @return Lane index of the group.
+     */
+    public int lane(String grp) {
+        return Math.floorMod(grp.hashCode(), lanes.length);
+    }
+
+    /**
+     * @return Number of lanes.
+     */
+    public int lanes() {
+        return lanes.length;
+    }
+
+    /**
+     * @param lane Lane index.
+     * @return Number of tasks waiting in the lane queue.
+     */
+    public int queueDepth(int lane) {
+        return lanes[lane].getQueue().size();
+    }
+
+    /**
+     * @param lane Lane index.
+     * @return Approximate number of completed tasks of the lane.
+     */
+    public long completedTasks(int lane) {
+        return lanes[lane].getCompletedTaskCount();
+    }
+
+    /**
+     * Stops group executors, dropping queued tasks, and then the lanes.
+     */
+    @Override
+    public void close() {
+        for (GroupExecutor executor : executors) {
+            executor.shutdownNow();
+        }
+
+        for (ThreadPoolExecutor lane : lanes) {
+            lane.shutdownNow();
+        }
+    }
+
+    private static ThreadFactory platformThreadFactory(String prefix) {
+        AtomicInteger idx = new AtomicInteger();
+
+        return r -> {
+            Thread thread = new Thread(r);
+            thread.setName(prefix + idx.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    private static ThreadFactory virtualThreadFactory(String prefix) {
+        try {
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            Class<?> builderCls = Class.forName("java.lang.Thread$Builder");
+            builder = builderCls.getMethod("name", String.class, long.class).invoke(builder, prefix, 0L);
+
+            return (ThreadFactory) builderCls.getMethod("factory").invoke(builder);
+        } catch (ReflectiveOperationException e) {
+            throw new UnsupportedOperationException("Virtual threads require JDK 21+", e);
+        }
+    }
+
+    /**
+     * A group view of a lane. Tracks queued and running tasks of the group, so shutdown and termination are reported
+     * per group. A running task is not interrupted by {@link #shutdownNow()}, since the lane thread is shared.
+     */
+    private static class GroupExecutor extends AbstractExecutorService {
+        private final ExecutorService lane;
+
+        // Tasks submitted to the lane and not started yet, in the submission order. Guarded by this.
+        private final Set<Task> queued = new LinkedHashSet<>();
+
+        // Set while a task of the group is running. Guarded by this.
+        private boolean running;
+
+        private volatile boolean shutdown;
+
+        GroupExecutor(ExecutorService lane) {
+            this.lane = lane;
+        }
+
+        @Override
+        public void execute(Runnable command) {
+            Task task = new Task(command);
+
+            synchronized (this) {
+                if (shutdown)
+                    throw new RejectedExecutionException("Group executor is shut down");
+
+                queued.add(task);
+            }
+
+            try {
+                lane.execute(task);
+            } catch (RejectedExecutionException e) {
+                synchronized (this) {
+                    queued.remove(task);
+                    notifyAll();
+                }
+
+                throw e;
+            }
+        }
+
+        @Override
+        public synchronized void shutdown() {
+            shutdown = true;
+            notifyAll();
+        }
+
+        @Override
+        public synchronized List<Runnable> shutdownNow() {
+            shutdown = true;
+
+            // Dropped tasks are left in the lane queue and skipped by the lane.
+            List<Runnable> dropped = new ArrayList<>(queued.size());
+
+            for (Task task : queued) {
+                dropped.add(task.command);
+            }
+
+            queued.clear();
+            notifyAll();
+
+            return dropped;
+        }
+
+        @Override
+        public boolean isShutdown() {
+            return shutdown;
+        }
+
+        @Override
+        public synchronized boolean isTerminated() {
+            return shutdown && queued.isEmpty() && !running;
+        }
+
+        @Override
+        public synchronized boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+            long deadline = System.nanoTime() + unit.toNanos(timeout);
+
+            while (!isTerminated()) {
+                long left = deadline - System.nanoTime();
+
+                if (left <= 0) {
+                    return false;
+                }
+
+                TimeUnit.NANOSECONDS.timedWait(this, left);
+            }
+
+            return true;
+        }
+
+        private class Task implements Runnable {
+            private final Runnable command;
+
+            Task(Runnable command) {
+                this.command = command;
+            }
+
+            @Override
+            public void run() {
+                synchronized (GroupExecutor.this) {
+                    if (!queued.remove(this)) {
+                        return; // Dropped by shutdownNow.
+                    }
+
+                    running = true;
+                }
+
+                try {
+                    command.run();
+                } finally {
+                    synchronized (GroupExecutor.this) {
+                        running = false;
+
+                        if (shutdown) {
+                            GroupExecutor.this.notifyAll();
+                        }
+                    }
+                }
+            }
+        }
+    }
+}
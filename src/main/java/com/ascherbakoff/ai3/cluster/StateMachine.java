@@ -0,0 +1,45 @@
+package com.ascherbakoff.ai3.cluster;
+
+import com.ascherbakoff.ai3.clock.Timestamp;
+import com.ascherbakoff.ai3.replication.Replicate;
+import java.util.Map.Entry;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Replicated state machine. Entries are applied on the group thread in the counter order.
+ */
+public interface StateMachine {
+    /**
+     * Applies an entry. The change may be not visible to reads until {@link #flush()}.
+     *
+     * @param cntr Entry counter.
+     * @param ts Entry timestamp.
+     * @param data The payload.
+     */
+    void apply(long cntr, Timestamp ts, @Nullable Object data);
+
+    /**
+     * Makes applied entries visible to reads. Called once per applied batch of entries.
+     */
+    void flush();
+
+    /**
+     * @param key The key.
+     * @param ts Read timestamp.
+     * @return The value or null.
+     */
+    @Nullable Integer get(int key, Timestamp ts);
+
+    /**
+     * Returns a page of the state changed after {@code low} as entries in the timestamp order. The state is taken at
+     * the last flushed entry, which is passed last, so applying all pages moves a follower to the same counter.
+     * The next page starts after the last entry of the previous one.
+     *
+     * <p>The result is not affected by subsequent updates and can be iterated from any thread.
+     *
+     * @param low Lower bound, exclusive.
+     * @param maxEntries Max number of entries.
+     * @return Entries or null if the state can't be represented as entries, then the delta log is used.
+     */
+    @Nullable Iterable<Entry<Timestamp, Replicate>> snapshot(Timestamp low, int maxEntries);
+}
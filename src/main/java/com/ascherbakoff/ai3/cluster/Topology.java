@@ -1,11 +1,16 @@
 package com.ascherbakoff.ai3.cluster;
 
+import com.ascherbakoff.ai3.replication.Transport;
 import java.util.HashMap;
 import java.util.Map;
+import org.jetbrains.annotations.Nullable;
 
 public class Topology {
     private Map<NodeId, Node> nodeMap = new HashMap<>();
 
+    // Transport to remote nodes, or null if all nodes are local.
+    private @Nullable Transport transport;
+
     public void addNode(Node node) {
         nodeMap.putIfAbsent(node.id(), node);
     }
@@ -21,4 +26,20 @@ public class Topology {
     public void regiser(Node node) {
         nodeMap.putIfAbsent(node.id(), node);
     }
+
+    public @Nullable Transport getTransport() {
+        return transport;
+    }
+
+    public void setTransport(@Nullable Transport transport) {
+        this.transport = transport;
+    }
+
+    /**
+     * @param nodeId Node id.
+     * @return True if the node is either local or reachable by the transport.
+     */
+    public boolean isAlive(NodeId nodeId) {
+        return nodeMap.containsKey(nodeId) || (transport != null && transport.isAlive(nodeId));
+    }
 }
@@ -0,0 +1,299 @@
+package com.ascherbakoff.ai3.lock;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * A lock with a lock-free fast path for IS, IX and S modes.
+ *
+ * <p>While only these modes are held and nobody waits, the lock is deflated: held mode counts are packed into a single
+ * state word and a compatible request is granted by a CAS. Any other request (X or SIX, reenter, upgrade, downgrade or
+ * a conflict) inflates the lock: fast path owners are moved to {@link Lock#owners} and the request is handled by the
+ * base implementation under the monitor. The lock is deflated again as soon as there are no waiters and all owners
+ * hold fast path modes.
+ *
+ * <p>A locker id must not be used concurrently from different threads.
+ */
+public class FastLock extends Lock {
+    // State word layout: [inflated:1][pending:15][S:16][IX:16][IS:16]
+    private static final int CNT_BITS = 16;
+    private static final long CNT_MASK = (1L << CNT_BITS) - 1;
+    private static final int PENDING_SHIFT = 3 * CNT_BITS;
+    private static final long PENDING_ONE = 1L << PENDING_SHIFT;
+    private static final long PENDING_MASK = (1L << 15) - 1;
+    private static final long INFLATED = 1L << 63;
+
+    /** Packed state. */
+    private final AtomicLong state = new AtomicLong();
+
+    /** Owners granted on the fast path. Empty while the lock is inflated. */
+    final ConcurrentHashMap<UUID, Locker> fastOwners = new ConcurrentHashMap<>();
+
+    /** Min locker id granted on the fast path, merged into {@link Lock#minVersion} on inflation. */
+    private final AtomicReference<UUID> fastMinVersion = new AtomicReference<>();
+
+    public FastLock(boolean fair, DeadlockPrevention prevention) {
+        super(fair, prevention);
+    }
+
+    private static int shift(LockMode mode) {
+        switch (mode) {
+            case IS:
+                return 0;
+            case IX:
+                return CNT_BITS;
+            case S:
+                return 2 * CNT_BITS;
+            default:
+                return -1;
+        }
+    }
+
+    private static long count(long s, LockMode mode) {
+        return (s >>> shift(mode)) & CNT_MASK;
+    }
+
+    private static long pending(long s) {
+        return (s >>> PENDING_SHIFT) & PENDING_MASK;
+    }
+
+    /**
+     * @return True if the mode can be granted on the fast path in a given state.
+     */
+    private static boolean grantable(long s, LockMode mode) {
+        if ((s & INFLATED) != 0 || count(s, mode) == CNT_MASK || pending(s) == PENDING_MASK) {
+            return false;
+        }
+
+        switch (mode) {
+            case IS:
+                return true;
+            case IX:
+                return count(s, LockMode.S) == 0;
+            case S:
+                return count(s, LockMode.IX) == 0;
+            default:
+                return false;
+        }
+    }
+
+    @Override
+    public Locker acquire(UUID lockerId, LockMode mode) throws LockException {
+        if (shift(mode) >= 0) {
+            long s = state.get();
+
+            while (grantable(s, mode)) {
+                if (state.compareAndSet(s, s + (1L << shift(mode)) + PENDING_ONE)) {
+                    Locker locker = new Locker(lockerId, mode);
+                    locker.complete(null);
+
+                    if (fastOwners.putIfAbsent(lockerId, locker) != null) {
+                        // Reenter or upgrade.
+                        state.getAndAdd(-(1L << shift(mode)) - PENDING_ONE);
+                        break;
+                    }
+
+                    UUID min;
+                    while (prevention.forceOrder && ((min = fastMinVersion.get()) == null || lockerId.compareTo(min) < 0)) {
+                        if (fastMinVersion.compareAndSet(min, lockerId)) {
+                            break;
+                        }
+                    }
+
+                    state.getAndAdd(-PENDING_ONE);
+
+                    return locker;
+                }
+
+                s = state.get();
+            }
+        }
+
+        return slowAcquire(lockerId, mode);
+    }
+
+    private synchronized Locker slowAcquire(UUID lockerId, LockMode mode) {
+        inflate();
+
+        try {
+            return super.acquire(lockerId, mode);
+        } finally {
+            deflate();
+        }
+    }
+
+    @Override
+    public synchronized LockMode downgrade(UUID lockerId, LockMode acqMode, LockMode mode) {
+        inflate();
+
+        try {
+            return super.downgrade(lockerId, acqMode, mode);
+        } finally {
+            deflate();
+        }
+    }
+
+    @Override
+    public synchronized LockMode downgrade(UUID lockerId, LockMode mode) {
+        inflate();
+
+        try {
+            return super.downgrade(lockerId, mode);
+        } finally {
+            deflate();
+        }
+    }
+
+    @Override
+    public void release(Locker locker) throws LockException {
+        release(locker.id);
+    }
+
+    @Override
+    public void release(UUID id) throws LockException {
+        if (!fastRelease(id)) {
+            slowRelease(id);
+        }
+    }
+
+    @Override
+    public int releaseAll(Collection<UUID> ids) {
+        List<UUID> slow = null;
+        int released = 0;
+
+        for (UUID id : ids) {
+            if (fastRelease(id)) {
+                released++;
+            } else {
+                if (slow == null) {
+                    slow = new ArrayList<>();
+                }
+
+                slow.add(id);
+            }
+        }
+
+        if (slow != null) {
+            released += slowReleaseAll(slow);
+        }
+
+        return released;
+    }
+
+    /**
+     * @return True if the locker is released on the fast path.
+     */
+    private boolean fastRelease(UUID id) {
+        Locker locker = fastOwners.get(id);
+
+        if (locker != null) {
+            long s = state.get();
+
+            while ((s & INFLATED) == 0) {
+                if (state.compareAndSet(s, s - (1L << shift(locker.mode)) + PENDING_ONE)) {
+                    fastOwners.remove(id);
+                    state.getAndAdd(-PENDING_ONE);
+
+                    return true;
+                }
+
+                s = state.get();
+            }
+        }
+
+        return false;
+    }
+
+    private synchronized void slowRelease(UUID id) {
+        inflate();
+
+        try {
+            super.release(id);
+        } finally {
+            deflate();
+        }
+    }
+
+    private synchronized int slowReleaseAll(Collection<UUID> ids) {
+        inflate();
+
+        try {
+            return super.releaseAll(ids);
+        } finally {
+            deflate();
+        }
+    }
+
+    /**
+     * Moves fast path owners under the monitor. Must be called under the monitor.
+     */
+    private void inflate() {
+        long s = state.get();
+
+        if ((s & INFLATED) != 0) {
+            return;
+        }
+
+        while (!state.compareAndSet(s, s | INFLATED)) {
+            s = state.get();
+        }
+
+        // Wait for fast path grants and releases, which are already counted, to update the owners map.
+        while (pending(state.get()) != 0) {
+            Thread.onSpinWait();
+        }
+
+        owners.putAll(fastOwners);
+        fastOwners.clear();
+
+        UUID min = fastMinVersion.get();
+
+        if (min != null && (minVersion == null || min.compareTo(minVersion) < 0)) {
+            minVersion = min;
+        }
+    }
+
+    /**
+     * Moves owners to the fast path, if possible. Must be called under the monitor.
+     */
+    private void deflate() {
+        if (!waiters.isEmpty()) {
+            return;
+        }
+
+        long s = 0;
+
+        for (Locker owner : owners.values()) {
+            int shift = shift(owner.mode);
+
+            if (shift < 0 || count(s, owner.mode) == CNT_MASK) {
+                return;
+            }
+
+            s += 1L << shift;
+        }
+
+        fastOwners.putAll(owners);
+        owners.clear();
+
+        state.set(s);
+    }
+
+    @Override
+    synchronized int ownersCount() {
+        return owners.size() + fastOwners.size();
+    }
+
+    @Override
+    synchronized @Nullable Locker owner(UUID lockerId) {
+        Locker locker = fastOwners.get(lockerId);
+
+        return locker != null ? locker : super.owner(lockerId);
+    }
+}
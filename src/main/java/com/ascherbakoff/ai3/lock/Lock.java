@@ -1,11 +1,13 @@
 package com.ascherbakoff.ai3.lock;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.UUID;
+import org.jetbrains.annotations.Nullable;
 
 public class Lock {
     /** Owners. */
@@ -19,7 +21,16 @@ public class Lock {
 
     private boolean fair;
 
-    private DeadlockPrevention prevention;
+    final DeadlockPrevention prevention;
+
+    /** The table owning this lock or null for a standalone lock. */
+    @Nullable LockTable table;
+
+    /** The table key. */
+    @Nullable Object key;
+
+    /** Number of table entry references, or -1 if the lock is removed from the table. */
+    volatile int pins;
 
     public Lock(boolean fair, DeadlockPrevention prevention) {
         this.fair = false;
@@ -177,17 +188,83 @@ public class Lock {
         return tmp;
     }
 
+    /**
+     * Releases a reference taken by {@link LockTable#getOrAddEntry(Object)}. The lock must not be used after the call.
+     */
+    public void releaseEntry() {
+        if (table != null) {
+            table.releaseEntryOptimistically(key, this);
+        }
+    }
+
+    /**
+     * @return True if the lock has no owners and no waiters.
+     */
+    synchronized boolean idle() {
+        return ownersCount() == 0 && waitersCount() == 0;
+    }
+
+    /**
+     * @return Number of owners.
+     */
+    synchronized int ownersCount() {
+        return owners.size();
+    }
+
+    /**
+     * @return Number of waiters.
+     */
+    synchronized int waitersCount() {
+        return waiters.size();
+    }
+
+    /**
+     * @param lockerId Locker id.
+     * @return The owner or null if a locker doesn't hold the lock.
+     */
+    synchronized @Nullable Locker owner(UUID lockerId) {
+        return owners.get(lockerId);
+    }
+
     public synchronized void release(Locker locker) throws LockException {
         release(locker.id);
     }
 
     public synchronized void release(UUID id) throws LockException {
+        removeOwner(id);
+        grantWaiters();
+    }
+
+    /**
+     * Releases the lock for a batch of lockers, waiters are granted once after all lockers are removed. Lockers, which
+     * don't hold the lock, are skipped.
+     *
+     * @param ids Locker ids.
+     * @return Number of released lockers.
+     */
+    public synchronized int releaseAll(Collection<UUID> ids) {
+        int released = 0;
+
+        for (UUID id : ids) {
+            if (owners.remove(id) != null) {
+                released++;
+            }
+        }
+
+        grantWaiters();
+
+        return released;
+    }
+
+    private void removeOwner(UUID id) throws LockException {
         Locker removed = owners.remove(id);
 
         if (removed == null) {
             throw new LockException("Bad locker");
         }
+    }
 
+    private void grantWaiters() {
         // Handle delayed upgrade/reenter
         if (owners.size() == 1 && !waiters.isEmpty()) {
             Locker w = waiters.get(0);
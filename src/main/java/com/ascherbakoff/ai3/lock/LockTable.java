@@ -1,8 +1,18 @@
 package com.ascherbakoff.ai3.lock;
 
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
 
+/**
+ * Lock table.
+ *
+ * <p>Each {@link #getOrAddEntry(Object)} call takes a reference to the entry, which must be released by
+ * {@link #releaseEntryOptimistically(Object, Lock)} after the lock is released. An entry without references, owners
+ * and waiters is removed from the table.
+ */
 public class LockTable {
+    private static final AtomicIntegerFieldUpdater<Lock> PINS = AtomicIntegerFieldUpdater.newUpdater(Lock.class, "pins");
+
     protected static final boolean[][] COMPAT_MATRIX = {
             {true, true, true, true, false},
             {true, true, false, false, false},
@@ -22,25 +32,96 @@ public class LockTable {
     protected final ConcurrentHashMap<Object, Lock> table;
     private final boolean fair;
     private final DeadlockPrevention prevention;
+    private final boolean fast;
 
     protected static LockMode supremum(LockMode l1, LockMode l2) {
         return UPGRADE_MATRIX[l1.ordinal()][l2.ordinal()];
     }
 
     public LockTable(int size, boolean fair, DeadlockPrevention prevention) {
+        this(size, fair, prevention, false);
+    }
+
+    /**
+     * @param size Initial size.
+     * @param fair Fairness.
+     * @param prevention Deadlock prevention policy.
+     * @param fast {@code True} to use {@link FastLock}.
+     */
+    public LockTable(int size, boolean fair, DeadlockPrevention prevention, boolean fast) {
         this.table = new ConcurrentHashMap<>(size);
 
         assert fair == true : "Non-fair is not supported";
 
         this.fair = fair;
         this.prevention = prevention;
+        this.fast = fast;
     }
 
+    /**
+     * Gets or creates a lock and takes a reference to it.
+     *
+     * @param key The key.
+     * @return The lock.
+     */
     public Lock getOrAddEntry(Object key) {
-        return table.computeIfAbsent(key, k -> new Lock(fair, prevention));
+        while (true) {
+            Lock lock = table.get(key);
+
+            if (lock == null) {
+                lock = table.computeIfAbsent(key, k -> {
+                    Lock lock0 = fast ? new FastLock(fair, prevention) : new Lock(fair, prevention);
+                    lock0.table = this;
+                    lock0.key = k;
+                    return lock0;
+                });
+            }
+
+            if (pin(lock)) {
+                return lock;
+            }
+
+            // Removed concurrently, help to clean up.
+            table.remove(key, lock);
+        }
+    }
+
+    private static boolean pin(Lock lock) {
+        while (true) {
+            int pins = lock.pins;
+
+            if (pins < 0) {
+                return false;
+            }
+
+            if (PINS.compareAndSet(lock, pins, pins + 1)) {
+                return true;
+            }
+        }
     }
 
+    /**
+     * Releases a reference to the entry. Removes the entry if it's the last reference and the lock is idle.
+     * A concurrent {@link #getOrAddEntry(Object)} either pins the entry first and prevents the removal, or observes
+     * the entry as removed and creates a new one.
+     *
+     * @param key The key.
+     * @param lock The lock.
+     */
     public void releaseEntryOptimistically(Object key, Lock lock) {
-        // TODO
+        int pins = PINS.decrementAndGet(lock);
+
+        assert pins >= 0 : "Unbalanced release: " + key;
+
+        if (pins == 0 && lock.idle() && PINS.compareAndSet(lock, 0, -1)) {
+            table.remove(key, lock);
+        }
+    }
+
+    /**
+     * @return Number of live locks.
+     */
+    public int size() {
+        return table.size();
     }
 }
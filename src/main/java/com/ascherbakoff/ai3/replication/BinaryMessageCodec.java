@@ -0,0 +1,608 @@
+package com.ascherbakoff.ai3.replication;
+
+import com.ascherbakoff.ai3.clock.Timestamp;
+import com.ascherbakoff.ai3.cluster.NodeId;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.UUID;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Compact binary codec.
+ *
+ * <p>Counters and lengths are varints, timestamps are packed into a fixed long (non-packable timestamps are escaped by
+ * a negative marker), node ids known to the cluster are written as dictionary indexes. Unknown replication payloads
+ * fall back to Java serialization.
+ *
+ * <p>Decoded node ids are shared dictionary instances, well known timestamps are shared constants. The codec is
+ * thread safe.
+ */
+public class BinaryMessageCodec implements MessageCodec {
+    // Message tags.
+    private static final byte REQUEST = 1;
+    private static final byte RESPONSE = 2;
+    private static final byte COLLECT_RESPONSE = 3;
+    private static final byte REPLICATE_RESPONSE = 4;
+    private static final byte SNAPSHOT_RESPONSE = 5;
+
+    // Command tags.
+    private static final byte NONE = 0;
+    private static final byte REPLICATE = 1;
+    private static final byte COLLECT = 2;
+    private static final byte IDLE_SYNC = 3;
+    private static final byte LEASE_GRANTED = 4;
+    private static final byte LEASE_PROPOSED = 5;
+    private static final byte SNAPSHOT = 6;
+
+    // Payload tags.
+    private static final byte PUT = 1;
+    private static final byte SERIALIZED = 2;
+
+    // Timestamp markers, packed timestamps are never negative.
+    private static final long TS_NULL = -1;
+    private static final long TS_MAX = -2;
+    private static final long TS_INVALID = -3;
+    private static final long TS_UNPACKED = -4;
+
+    // Node id markers, dictionary indexes are shifted by the number of markers.
+    private static final int NODE_NULL = 0;
+    private static final int NODE_INLINE = 1;
+    private static final int NODE_DICT = 2;
+
+    private static final Collect COLLECT_INSTANCE = new Collect();
+
+    private final NodeId[] dict;
+
+    private final Map<NodeId, Integer> dictIdx = new HashMap<>();
+
+    public BinaryMessageCodec() {
+        this(List.of());
+    }
+
+    /**
+     * @param nodes Known nodes. Must be the same in the same order on all nodes.
+     */
+    public BinaryMessageCodec(Collection<NodeId> nodes) {
+        this.dict = nodes.toArray(new NodeId[0]);
+
+        for (int i = 0; i < dict.length; i++) {
+            dictIdx.put(dict[i], i);
+        }
+    }
+
+    @Override
+    public void encode(Object msg, ByteBuffer buf) {
+        if (msg instanceof Request) {
+            Request request = (Request) msg;
+
+            buf.put(REQUEST);
+            writeNode(buf, request.getSender());
+            writeString(buf, request.getGrp());
+            writeTs(buf, request.getTs());
+            writeUuid(buf, request.getId());
+            writeCommand(buf, request.getPayload());
+        } else if (msg instanceof CollectResponse) {
+            CollectResponse resp = (CollectResponse) msg;
+
+            buf.put(COLLECT_RESPONSE);
+            writeTs(buf, resp.getTs());
+            writeTs(buf, resp.getRepTs());
+        } else if (msg instanceof ReplicateResponse) {
+            ReplicateResponse resp = (ReplicateResponse) msg;
+
+            buf.put(REPLICATE_RESPONSE);
+            writeTs(buf, resp.getTs());
+            writeVarLong(buf, resp.getRepCntr());
+            writeTs(buf, resp.getRepTs());
+        } else if (msg instanceof SnapshotResponse) {
+            SnapshotResponse resp = (SnapshotResponse) msg;
+
+            buf.put(SNAPSHOT_RESPONSE);
+            writeTs(buf, resp.getTs());
+            writeTs(buf, resp.getCurrent());
+
+            // The snapshot can be lazy, so the size is unknown.
+            for (Entry<Timestamp, Replicate> entry : resp.getSnapshot()) {
+                buf.put((byte) 1);
+                writeTs(buf, entry.getKey());
+                writeReplicate(buf, entry.getValue());
+            }
+
+            buf.put((byte) 0);
+        } else if (msg != null && msg.getClass() == Response.class) {
+            Response resp = (Response) msg;
+
+            buf.put(RESPONSE);
+            writeTs(buf, resp.getTs());
+            writeVarLong(buf, zigzag(resp.getReturn()));
+            writeString(buf, resp.getMessage());
+        } else {
+            throw new IllegalArgumentException("Unsupported message: " + msg);
+        }
+    }
+
+    @Override
+    public Object decode(ByteBuffer buf) {
+        byte tag = buf.get();
+
+        switch (tag) {
+            case REQUEST: {
+                Request request = new Request();
+                request.setSender(readNode(buf));
+                request.setGrp(readString(buf));
+                request.setTs(readTs(buf));
+                request.setId(readUuid(buf));
+                request.setPayload(readCommand(buf));
+
+                return request;
+            }
+
+            case RESPONSE: {
+                Timestamp ts = readTs(buf);
+                int ret = unzigzag(readVarLong(buf));
+
+                return new Response(ts, ret, readString(buf));
+            }
+
+            case COLLECT_RESPONSE: {
+                Timestamp ts = readTs(buf);
+
+                return new CollectResponse(readTs(buf), ts);
+            }
+
+            case REPLICATE_RESPONSE: {
+                Timestamp ts = readTs(buf);
+                long repCntr = readVarLong(buf);
+
+                return new ReplicateResponse(ts, repCntr, readTs(buf));
+            }
+
+            case SNAPSHOT_RESPONSE: {
+                Timestamp ts = readTs(buf);
+                Timestamp current = readTs(buf);
+
+                List<Entry<Timestamp, Replicate>> entries = new ArrayList<>();
+
+                while (buf.get() != 0) {
+                    Timestamp key = readTs(buf);
+                    entries.add(new SimpleImmutableEntry<>(key, readReplicate(buf)));
+                }
+
+                return new SnapshotResponse(ts, entries, current);
+            }
+
+            default:
+                throw new IllegalStateException("Unknown message tag: " + tag);
+        }
+    }
+
+    private void writeCommand(ByteBuffer buf, @Nullable Command cmd) {
+        if (cmd == null) {
+            buf.put(NONE);
+        } else if (cmd instanceof Replicate) {
+            buf.put(REPLICATE);
+            writeReplicate(buf, (Replicate) cmd);
+        } else if (cmd instanceof Collect) {
+            buf.put(COLLECT);
+        } else if (cmd instanceof IdleSync) {
+            buf.put(IDLE_SYNC);
+            writeTs(buf, ((IdleSync) cmd).getTimestamp());
+        } else if (cmd instanceof LeaseGranted) {
+            LeaseGranted granted = (LeaseGranted) cmd;
+
+            buf.put(LEASE_GRANTED);
+            writeString(buf, granted.name());
+            writeTs(buf, granted.from());
+            writeNode(buf, granted.candidate());
+            writeNodes(buf, granted.members());
+            writeTs(buf, granted.getTs());
+        } else if (cmd instanceof LeaseProposed) {
+            LeaseProposed proposed = (LeaseProposed) cmd;
+
+            buf.put(LEASE_PROPOSED);
+            writeString(buf, proposed.name());
+            writeTs(buf, proposed.from());
+            writeNodes(buf, proposed.members());
+        } else if (cmd instanceof Snapshot) {
+            Snapshot snapshot = (Snapshot) cmd;
+
+            buf.put(SNAPSHOT);
+            writeVarLong(buf, snapshot.getCntr());
+            writeTs(buf, snapshot.getLow());
+            writeTs(buf, snapshot.getHigh());
+        } else {
+            throw new IllegalArgumentException("Unsupported command: " + cmd);
+        }
+    }
+
+    private @Nullable Command readCommand(ByteBuffer buf) {
+        byte tag = buf.get();
+
+        switch (tag) {
+            case NONE:
+                return null;
+
+            case REPLICATE:
+                return readReplicate(buf);
+
+            case COLLECT:
+                return COLLECT_INSTANCE; // Stateless.
+
+            case IDLE_SYNC:
+                return new IdleSync(readTs(buf));
+
+            case LEASE_GRANTED: {
+                String name = readString(buf);
+                Timestamp from = readTs(buf);
+                NodeId candidate = readNode(buf);
+                Set<NodeId> members = readNodes(buf);
+
+                return new LeaseGranted(name, from, candidate, members, readTs(buf));
+            }
+
+            case LEASE_PROPOSED: {
+                String name = readString(buf);
+                Timestamp from = readTs(buf);
+
+                return new LeaseProposed(name, from, readNodes(buf));
+            }
+
+            case SNAPSHOT: {
+                long cntr = readVarLong(buf);
+                Timestamp low = readTs(buf);
+
+                return new Snapshot(cntr, low, readTs(buf));
+            }
+
+            default:
+                throw new IllegalStateException("Unknown command tag: " + tag);
+        }
+    }
+
+    static void writeReplicate(ByteBuffer buf, Replicate replicate) {
+        writeVarLong(buf, replicate.getCntr());
+
+        if (!replicate.isBatch()) {
+            writeVarLong(buf, 0);
+            writePayload(buf, replicate.getData());
+
+            return;
+        }
+
+        writeVarLong(buf, replicate.size());
+
+        for (int i = 0; i < replicate.size(); i++) {
+            writeTs(buf, replicate.getTs(i));
+            writePayload(buf, replicate.getData(i));
+        }
+    }
+
+    /**
+     * Returns the encoded size of a replication command, as written by this codec.
+     *
+     * @param replicate The command.
+     * @return Size in bytes.
+     */
+    static int replicateSize(Replicate replicate) {
+        int size = varLongSize(replicate.getCntr());
+
+        if (!replicate.isBatch()) {
+            return size + varLongSize(0) + payloadSize(replicate.getData());
+        }
+
+        size += varLongSize(replicate.size());
+
+        for (int i = 0; i < replicate.size(); i++) {
+            size += tsSize(replicate.getTs(i)) + payloadSize(replicate.getData(i));
+        }
+
+        return size;
+    }
+
+    private static Replicate readReplicate(ByteBuffer buf) {
+        long cntr = readVarLong(buf);
+        int size = (int) readVarLong(buf);
+
+        if (size == 0) {
+            return new Replicate(cntr, readPayload(buf));
+        }
+
+        Timestamp[] tss = new Timestamp[size];
+        Object[] batch = new Object[size];
+
+        for (int i = 0; i < size; i++) {
+            tss[i] = readTs(buf);
+            batch[i] = readPayload(buf);
+        }
+
+        return new Replicate(cntr, tss, batch);
+    }
+
+    private static void writePayload(ByteBuffer buf, @Nullable Object payload) {
+        if (payload == null) {
+            buf.put(NONE);
+        } else if (payload instanceof Put) {
+            Put put = (Put) payload;
+
+            buf.put(PUT);
+            buf.put((byte) ((put.getKey() == null ? 0 : 1) | (put.getValue() == null ? 0 : 2)));
+
+            if (put.getKey() != null) {
+                writeVarLong(buf, zigzag(put.getKey()));
+            }
+
+            if (put.getValue() != null) {
+                writeVarLong(buf, zigzag(put.getValue()));
+            }
+        } else {
+            byte[] bytes = JdkMessageCodec.toBytes(payload);
+
+            buf.put(SERIALIZED);
+            writeVarLong(buf, bytes.length);
+            buf.put(bytes);
+        }
+    }
+
+    /**
+     * Returns the encoded size of a replication payload, as written by this codec.
+     *
+     * @param payload The payload.
+     * @return Size in bytes.
+     */
+    static int payloadSize(@Nullable Object payload) {
+        if (payload == null) {
+            return 1;
+        } else if (payload instanceof Put) {
+            Put put = (Put) payload;
+
+            return 2 + (put.getKey() == null ? 0 : varLongSize(zigzag(put.getKey())))
+                    + (put.getValue() == null ? 0 : varLongSize(zigzag(put.getValue())));
+        } else {
+            int len = JdkMessageCodec.toBytes(payload).length;
+
+            return 1 + varLongSize(len) + len;
+        }
+    }
+
+    private static @Nullable Object readPayload(ByteBuffer buf) {
+        byte tag = buf.get();
+
+        switch (tag) {
+            case NONE:
+                return null;
+
+            case PUT: {
+                byte flags = buf.get();
+                Integer key = (flags & 1) == 0 ? null : unzigzag(readVarLong(buf));
+                Integer value = (flags & 2) == 0 ? null : unzigzag(readVarLong(buf));
+
+                return new Put(key, value);
+            }
+
+            case SERIALIZED: {
+                byte[] bytes = new byte[(int) readVarLong(buf)];
+                buf.get(bytes);
+
+                return JdkMessageCodec.fromBytes(bytes);
+            }
+
+            default:
+                throw new IllegalStateException("Unknown payload tag: " + tag);
+        }
+    }
+
+    private void writeNode(ByteBuffer buf, @Nullable NodeId nodeId) {
+        if (nodeId == null) {
+            writeVarLong(buf, NODE_NULL);
+            return;
+        }
+
+        Integer idx = dictIdx.get(nodeId);
+
+        if (idx == null) {
+            writeVarLong(buf, NODE_INLINE);
+            writeString(buf, nodeId.getId());
+        } else {
+            writeVarLong(buf, NODE_DICT + idx);
+        }
+    }
+
+    private @Nullable NodeId readNode(ByteBuffer buf) {
+        int idx = (int) readVarLong(buf);
+
+        switch (idx) {
+            case NODE_NULL:
+                return null;
+
+            case NODE_INLINE:
+                return new NodeId(readString(buf));
+
+            default:
+                return dict[idx - NODE_DICT];
+        }
+    }
+
+    private void writeNodes(ByteBuffer buf, Set<NodeId> nodes) {
+        writeVarLong(buf, nodes.size());
+
+        for (NodeId node : nodes) {
+            writeNode(buf, node);
+        }
+    }
+
+    private Set<NodeId> readNodes(ByteBuffer buf) {
+        int size = (int) readVarLong(buf);
+
+        Set<NodeId> nodes = new HashSet<>();
+
+        for (int i = 0; i < size; i++) {
+            nodes.add(readNode(buf));
+        }
+
+        return nodes;
+    }
+
+    private static void writeTs(ByteBuffer buf, @Nullable Timestamp ts) {
+        if (ts == null) {
+            buf.putLong(TS_NULL);
+        } else if (ts.physical() >= 0 && ts.physical() <= Timestamp.MAX_PHYSICAL && ts.counter() >= 0
+                && ts.counter() <= Timestamp.COUNTER_MASK) {
+            buf.putLong(ts.toLong());
+        } else if (ts.equals(Timestamp.max())) {
+            buf.putLong(TS_MAX);
+        } else if (ts.equals(Timestamp.invalid())) {
+            buf.putLong(TS_INVALID);
+        } else {
+            buf.putLong(TS_UNPACKED);
+            buf.putLong(ts.physical());
+            buf.putLong(ts.counter());
+        }
+    }
+
+    private static int tsSize(@Nullable Timestamp ts) {
+        if (ts != null && (ts.physical() < 0 || ts.physical() > Timestamp.MAX_PHYSICAL || ts.counter() < 0
+                || ts.counter() > Timestamp.COUNTER_MASK) && !ts.equals(Timestamp.max()) && !ts.equals(Timestamp.invalid())) {
+            return 3 * Long.BYTES;
+        }
+
+        return Long.BYTES;
+    }
+
+    private static @Nullable Timestamp readTs(ByteBuffer buf) {
+        long packed = buf.getLong();
+
+        if (packed == 0) {
+            return Timestamp.min();
+        } else if (packed > 0) {
+            return Timestamp.unpack(packed);
+        } else if (packed == TS_NULL) {
+            return null;
+        } else if (packed == TS_MAX) {
+            return Timestamp.max();
+        } else if (packed == TS_INVALID) {
+            return Timestamp.invalid();
+        } else if (packed == TS_UNPACKED) {
+            long physical = buf.getLong();
+
+            return new Timestamp(physical, buf.getLong());
+        }
+
+        throw new IllegalStateException("Bad timestamp: " + packed);
+    }
+
+    private static void writeUuid(ByteBuffer buf, @Nullable UUID id) {
+        if (id == null) {
+            buf.put((byte) 0);
+            return;
+        }
+
+        buf.put((byte) 1);
+        buf.putLong(id.getMostSignificantBits());
+        buf.putLong(id.getLeastSignificantBits());
+    }
+
+    private static @Nullable UUID readUuid(ByteBuffer buf) {
+        if (buf.get() == 0) {
+            return null;
+        }
+
+        long msb = buf.getLong();
+
+        return new UUID(msb, buf.getLong());
+    }
+
+    private static void writeString(ByteBuffer buf, @Nullable String str) {
+        if (str == null) {
+            writeVarLong(buf, 0);
+            return;
+        }
+
+        byte[] bytes = str.getBytes(StandardCharsets.UTF_8);
+
+        writeVarLong(buf, bytes.length + 1L);
+        buf.put(bytes);
+    }
+
+    private static @Nullable String readString(ByteBuffer buf) {
+        int len = (int) readVarLong(buf) - 1;
+
+        if (len < 0) {
+            return null;
+        }
+
+        if (buf.hasArray()) {
+            String str = new String(buf.array(), buf.arrayOffset() + buf.position(), len, StandardCharsets.UTF_8);
+            buf.position(buf.position() + len);
+
+            return str;
+        }
+
+        byte[] bytes = new byte[len];
+        buf.get(bytes);
+
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Writes a non negative value as an unsigned LEB128 varint.
+     */
+    static void writeVarLong(ByteBuffer buf, long val) {
+        assert val >= 0 : val;
+
+        while ((val & ~0x7FL) != 0) {
+            buf.put((byte) ((val & 0x7F) | 0x80));
+            val >>>= 7;
+        }
+
+        buf.put((byte) val);
+    }
+
+    /**
+     * Returns the size of a non negative value written by {@link #writeVarLong}.
+     */
+    static int varLongSize(long val) {
+        assert val >= 0 : val;
+
+        int size = 1;
+
+        while ((val & ~0x7FL) != 0) {
+            size++;
+            val >>>= 7;
+        }
+
+        return size;
+    }
+
+    static long readVarLong(ByteBuffer buf) {
+        long val = 0;
+
+        for (int shift = 0; ; shift += 7) {
+            byte b = buf.get();
+
+            val |= (long) (b & 0x7F) << shift;
+
+            if (b >= 0) {
+                return val;
+            }
+        }
+    }
+
+    private static long zigzag(int val) {
+        return ((val << 1) ^ (val >> 31)) & 0xFFFFFFFFL;
+    }
+
+    private static int unzigzag(long val) {
+        int v = (int) val;
+
+        return (v >>> 1) ^ -(v & 1);
+    }
+}
@@ -0,0 +1,77 @@
+package com.ascherbakoff.ai3.replication;
+
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Pool of direct buffers of a fixed size. Bigger buffers are allocated on demand and not pooled.
+ */
+public class BufferPool {
+    private final int bufferSize;
+
+    private final int maxPooled;
+
+    private final Queue<ByteBuffer> pool = new ConcurrentLinkedQueue<>();
+
+    private final AtomicInteger pooled = new AtomicInteger();
+
+    /**
+     * @param bufferSize Size of a pooled buffer.
+     * @param maxPooled Max number of idle buffers retained by the pool.
+     */
+    public BufferPool(int bufferSize, int maxPooled) {
+        this.bufferSize = bufferSize;
+        this.maxPooled = maxPooled;
+    }
+
+    public int bufferSize() {
+        return bufferSize;
+    }
+
+    /**
+     * @param size Required capacity.
+     * @return A cleared buffer of at least the required capacity.
+     */
+    public ByteBuffer acquire(int size) {
+        if (size > bufferSize) {
+            return ByteBuffer.allocate(size);
+        }
+
+        ByteBuffer buf = pool.poll();
+
+        if (buf == null) {
+            return ByteBuffer.allocateDirect(bufferSize);
+        }
+
+        pooled.decrementAndGet();
+
+        return buf;
+    }
+
+    /**
+     * Returns a buffer to the pool. The buffer must not be used after the call.
+     *
+     * @param buf The buffer.
+     */
+    public void release(ByteBuffer buf) {
+        if (!buf.isDirect() || buf.capacity() != bufferSize) {
+            return;
+        }
+
+        if (pooled.incrementAndGet() > maxPooled) {
+            pooled.decrementAndGet();
+            return;
+        }
+
+        pool.add(buf.clear());
+    }
+
+    /**
+     * @return Number of idle buffers.
+     */
+    public int pooled() {
+        return pooled.get();
+    }
+}
@@ -4,6 +4,8 @@ import com.ascherbakoff.ai3.cluster.Node;
 import java.util.concurrent.CompletableFuture;
 
 public class Collect implements Command {
+    private static final long serialVersionUID = 1L;
+
     @Override
     public void accept(Node node, Request request, CompletableFuture<Response> resp) {
         node.visit(this, request, resp);
@@ -3,6 +3,8 @@ package com.ascherbakoff.ai3.replication;
 import com.ascherbakoff.ai3.clock.Timestamp;
 
 public class CollectResponse extends Response {
+    private static final long serialVersionUID = 1L;
+
     private final Timestamp repTs;
 
     public CollectResponse(Timestamp repTs, Timestamp ts) {
@@ -1,8 +1,9 @@
 package com.ascherbakoff.ai3.replication;
 
 import com.ascherbakoff.ai3.cluster.Node;
+import java.io.Serializable;
 import java.util.concurrent.CompletableFuture;
 
-public interface Command {
+public interface Command extends Serializable {
     void accept(Node node, Request request, CompletableFuture<Response> resp);
 }
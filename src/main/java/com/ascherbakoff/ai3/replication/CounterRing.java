@@ -0,0 +1,250 @@
+package com.ascherbakoff.ai3.replication;
+
+import java.util.Arrays;
+import java.util.function.Consumer;
+import org.jetbrains.annotations.Nullable;
+import org.jetbrains.annotations.TestOnly;
+
+/**
+ * A map from replication counters to values, backed by a power of two ring buffer indexed by {@code cntr & mask}.
+ *
+ * <p>Keys are expected to be close to each other: the buffer grows to cover the range between the min and the max
+ * key. Keys can be added out of order, but removal is supported only from the head (the min key), which fits
+ * folding of acknowledged or applied counters. The buffer shrinks back, down to the initial capacity, when the key
+ * range drops to a quarter of it, so a caught up follower does not pin a buffer sized for its lag.
+ *
+ * <p>Not thread safe.
+ *
+ * @param <T> Value type.
+ */
+public class CounterRing<T> {
+    private static final int INITIAL_CAPACITY = 16;
+
+    private long[] keys;
+
+    private Object[] vals;
+
+    private int mask;
+
+    private final int minCapacity;
+
+    // Min and max keys, valid if not empty.
+    private long lo;
+    private long hi;
+
+    private int size;
+
+    public CounterRing() {
+        this(INITIAL_CAPACITY);
+    }
+
+    /**
+     * @param capacity Initial capacity, rounded up to a power of two.
+     */
+    public CounterRing(int capacity) {
+        int cap = Integer.highestOneBit(Math.max(2, capacity) - 1) << 1;
+
+        keys = new long[cap];
+        vals = new Object[cap];
+        mask = cap - 1;
+        minCapacity = cap;
+    }
+
+    /**
+     * Puts a value, replacing an existing one.
+     *
+     * @param key The key.
+     * @param val The value.
+     */
+    public void put(long key, T val) {
+        assert val != null;
+
+        if (size == 0) {
+            lo = hi = key;
+        } else {
+            long newLo = Math.min(lo, key);
+            long newHi = Math.max(hi, key);
+
+            if (newHi - newLo > mask) {
+                grow(newHi - newLo + 1);
+            }
+
+            lo = newLo;
+            hi = newHi;
+        }
+
+        int idx = (int) key & mask;
+
+        if (vals[idx] == null) {
+            size++;
+        }
+
+        keys[idx] = key;
+        vals[idx] = val;
+    }
+
+    /**
+     * @param key The key.
+     * @return The value or null.
+     */
+    public @Nullable T get(long key) {
+        if (size == 0 || key < lo || key > hi) {
+            return null;
+        }
+
+        int idx = (int) key & mask;
+
+        return vals[idx] != null && keys[idx] == key ? val(idx) : null;
+    }
+
+    /**
+     * @return The min key. Must not be called on an empty ring.
+     */
+    public long firstKey() {
+        assert size > 0;
+
+        return lo;
+    }
+
+    /**
+     * @return The value of the min key or null if empty.
+     */
+    public @Nullable T first() {
+        return size == 0 ? null : val((int) lo & mask);
+    }
+
+    /**
+     * Removes the min key.
+     *
+     * @return The removed value or null if empty.
+     */
+    public @Nullable T removeFirst() {
+        if (size == 0) {
+            return null;
+        }
+
+        int idx = (int) lo & mask;
+        T val = val(idx);
+        vals[idx] = null;
+
+        if (--size > 0) {
+            do {
+                lo++;
+            } while (vals[(int) lo & mask] == null);
+        }
+
+        shrink();
+
+        return val;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Visits values in the key order.
+     *
+     * @param consumer The consumer.
+     */
+    public void forEach(Consumer<T> consumer) {
+        if (size == 0) {
+            return;
+        }
+
+        for (long key = lo; key <= hi; key++) {
+            int idx = (int) key & mask;
+
+            if (vals[idx] != null) {
+                consumer.accept(val(idx));
+            }
+        }
+    }
+
+    /**
+     * Removes all values.
+     */
+    public void clear() {
+        if (vals.length > minCapacity) {
+            keys = new long[minCapacity];
+            vals = new Object[minCapacity];
+            mask = minCapacity - 1;
+        } else {
+            Arrays.fill(vals, null);
+        }
+
+        size = 0;
+    }
+
+    /**
+     * @return Current capacity.
+     */
+    @TestOnly
+    int capacity() {
+        return vals.length;
+    }
+
+    @SuppressWarnings("unchecked")
+    private T val(int idx) {
+        return (T) vals[idx];
+    }
+
+    private void grow(long required) {
+        if (required > (1 << 30)) {
+            throw new IllegalStateException("Counter range is too wide: " + required);
+        }
+
+        int cap = vals.length;
+
+        while (cap < required) {
+            cap <<= 1;
+        }
+
+        resize(cap);
+    }
+
+    /**
+     * Halves the buffer while the key range takes no more than a quarter of it. Leaves at least twice the range, so
+     * the ring does not flip between growing and shrinking.
+     */
+    private void shrink() {
+        int cap = vals.length;
+
+        if (cap == minCapacity) {
+            return;
+        }
+
+        long range = size == 0 ? 0 : hi - lo + 1;
+
+        while (cap > minCapacity && range * 4 <= cap) {
+            cap >>= 1;
+        }
+
+        if (cap < vals.length) {
+            resize(cap);
+        }
+    }
+
+    private void resize(int cap) {
+        long[] keys0 = new long[cap];
+        Object[] vals0 = new Object[cap];
+        int mask0 = cap - 1;
+
+        for (long key = lo; size > 0 && key <= hi; key++) {
+            int idx = (int) key & mask;
+
+            if (vals[idx] != null) {
+                keys0[(int) key & mask0] = key;
+                vals0[(int) key & mask0] = vals[idx];
+            }
+        }
+
+        keys = keys0;
+        vals = vals0;
+        mask = mask0;
+    }
+}
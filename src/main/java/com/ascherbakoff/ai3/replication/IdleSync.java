@@ -5,6 +5,8 @@ import com.ascherbakoff.ai3.cluster.Node;
 import java.util.concurrent.CompletableFuture;
 
 public class IdleSync implements Command {
+    private static final long serialVersionUID = 1L;
+
     private Timestamp timestamp;
 
     public IdleSync(Timestamp timestamp) {
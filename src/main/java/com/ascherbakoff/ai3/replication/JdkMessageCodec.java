@@ -0,0 +1,54 @@
+package com.ascherbakoff.ai3.replication;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Java serialization codec.
+ */
+public class JdkMessageCodec implements MessageCodec {
+    @Override
+    public void encode(Object msg, ByteBuffer buf) {
+        buf.put(toBytes(msg));
+    }
+
+    @Override
+    public ByteBuffer encode(Object msg) {
+        return ByteBuffer.wrap(toBytes(msg));
+    }
+
+    @Override
+    public Object decode(ByteBuffer buf) {
+        byte[] arr = new byte[buf.remaining()];
+        buf.get(arr);
+
+        return fromBytes(arr);
+    }
+
+    static byte[] toBytes(Object obj) {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream(256);
+
+        try (ObjectOutputStream out = new ObjectOutputStream(bos)) {
+            out.writeObject(obj);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        return bos.toByteArray();
+    }
+
+    static Object fromBytes(byte[] arr) {
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(arr))) {
+            return in.readObject();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } catch (ClassNotFoundException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
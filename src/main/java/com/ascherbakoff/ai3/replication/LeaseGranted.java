@@ -9,6 +9,8 @@ import java.util.concurrent.CompletableFuture;
 import org.jetbrains.annotations.Nullable;
 
 public class LeaseGranted implements Command {
+    private static final long serialVersionUID = 1L;
+
     private final String name;
     private final Timestamp from;
     private final NodeId candidate;
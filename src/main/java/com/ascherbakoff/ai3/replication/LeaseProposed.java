@@ -7,6 +7,8 @@ import java.util.Set;
 import java.util.concurrent.CompletableFuture;
 
 public class LeaseProposed implements Command {
+    private static final long serialVersionUID = 1L;
+
     private final String name;
     private final Timestamp from;
     private final Set<NodeId> members;
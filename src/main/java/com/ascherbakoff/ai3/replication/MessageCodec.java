@@ -0,0 +1,46 @@
+package com.ascherbakoff.ai3.replication;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+
+/**
+ * Serialized form of requests and responses.
+ */
+public interface MessageCodec {
+    /**
+     * Encodes a message into a buffer, starting at the buffer position.
+     *
+     * @param msg The message.
+     * @param buf The buffer.
+     * @throws BufferOverflowException If the buffer is too small. The buffer content is undefined in this case.
+     */
+    void encode(Object msg, ByteBuffer buf);
+
+    /**
+     * Decodes a message. Consumes the buffer up to the limit.
+     *
+     * @param buf The buffer.
+     * @return The message.
+     */
+    Object decode(ByteBuffer buf);
+
+    /**
+     * Encodes a message into a new buffer.
+     *
+     * @param msg The message.
+     * @return A buffer ready for reading.
+     */
+    default ByteBuffer encode(Object msg) {
+        for (int size = 256; ; size *= 2) {
+            ByteBuffer buf = ByteBuffer.allocate(size);
+
+            try {
+                encode(msg, buf);
+
+                return buf.flip();
+            } catch (BufferOverflowException e) {
+                // Retry with a bigger buffer.
+            }
+        }
+    }
+}
@@ -0,0 +1,642 @@
+package com.ascherbakoff.ai3.replication;
+
+import com.ascherbakoff.ai3.clock.Timestamp;
+import com.ascherbakoff.ai3.cluster.Node;
+import com.ascherbakoff.ai3.cluster.NodeId;
+import com.ascherbakoff.ai3.cluster.Topology;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.System.Logger.Level;
+import java.lang.reflect.InvocationTargetException;
+import java.net.InetSocketAddress;
+import java.net.ProtocolFamily;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.StandardSocketOptions;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import org.jetbrains.annotations.Nullable;
+import org.jetbrains.annotations.TestOnly;
+
+/**
+ * Socket transport on top of NIO. A single selector thread serves all connections of the transport.
+ *
+ * <p>Frame layout: {@code [len:int][type:byte][id:long][body]}, where {@code len} is the length of the frame without
+ * the length field itself. A request body is the target node id followed by the encoded request, a response body is
+ * the encoded response, an error body is the error message. Received requests are dispatched to the nodes of the
+ * local topology, responses are matched to requests by id.
+ *
+ * <p>A request, which is not answered within the request timeout, is failed with a {@link TimeoutException}.
+ *
+ * <p>Connections to peers are opened lazily on the first send. Both TCP and Unix domain socket addresses are
+ * supported, the latter requires JDK 16+.
+ */
+public class NioTransport implements Transport, AutoCloseable {
+    private static System.Logger LOGGER = System.getLogger(NioTransport.class.getName());
+
+    private static final byte REQUEST = 0;
+    private static final byte RESPONSE = 1;
+    private static final byte ERROR = 2;
+
+    private static final int HEADER_SIZE = Integer.BYTES + Byte.BYTES + Long.BYTES;
+
+    private static final int READ_BUF_SIZE = 64 * 1024;
+
+    private static final int FRAME_BUF_SIZE = 4 * 1024;
+
+    private static final int MAX_POOLED = 1024;
+
+    public static final long DFLT_REQUEST_TIMEOUT = 30_000;
+
+    private final Topology topology;
+
+    private final MessageCodec codec;
+
+    private final Selector selector;
+
+    // Frame buffers, returned to the pool after writing.
+    private final BufferPool pool = new BufferPool(FRAME_BUF_SIZE, MAX_POOLED);
+
+    private final @Nullable ServerSocketChannel server;
+
+    private final Map<NodeId, SocketAddress> peers = new ConcurrentHashMap<>();
+
+    // Outgoing connections.
+    private final Map<NodeId, Connection> conns = new ConcurrentHashMap<>();
+
+    // Requests waiting for a response.
+    private final Map<Long, CompletableFuture<Response>> pending = new ConcurrentHashMap<>();
+
+    private final AtomicLong ids = new AtomicLong();
+
+    // Actions to run on the selector thread.
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+
+    private final Thread thread;
+
+    private final long requestTimeout;
+
+    private volatile boolean closed;
+
+    /**
+     * @param topology Local topology. Receives requests to the local nodes.
+     * @param codec The codec.
+     * @param bind Address to accept connections on, or null for a client-only transport.
+     * @throws IOException If failed to bind.
+     */
+    public NioTransport(Topology topology, MessageCodec codec, @Nullable SocketAddress bind) throws IOException {
+        this(topology, codec, bind, DFLT_REQUEST_TIMEOUT);
+    }
+
+    /**
+     * @param topology Local topology. Receives requests to the local nodes.
+     * @param codec The codec.
+     * @param bind Address to accept connections on, or null for a client-only transport.
+     * @param requestTimeout Request timeout in milliseconds.
+     * @throws IOException If failed to bind.
+     */
+    public NioTransport(Topology topology, MessageCodec codec, @Nullable SocketAddress bind, long requestTimeout) throws IOException {
+        if (requestTimeout <= 0) {
+            throw new IllegalArgumentException("requestTimeout must be positive: " + requestTimeout);
+        }
+
+        this.topology = topology;
+        this.requestTimeout = requestTimeout;
+        this.codec = codec;
+        this.selector = Selector.open();
+
+        if (bind != null) {
+            server = bind instanceof InetSocketAddress ? ServerSocketChannel.open() : openUnix(ServerSocketChannel.class);
+            server.configureBlocking(false);
+            server.bind(bind);
+            server.register(selector, SelectionKey.OP_ACCEPT);
+        } else {
+            server = null;
+        }
+
+        thread = new Thread(this::run);
+        thread.setName("nio-transport-" + bind);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * @return Bound address, useful for ephemeral ports.
+     * @throws IOException If failed.
+     */
+    public SocketAddress localAddress() throws IOException {
+        if (server == null) {
+            throw new IllegalStateException("Client only transport");
+        }
+
+        return server.getLocalAddress();
+    }
+
+    /**
+     * Adds a remote node.
+     *
+     * @param nodeId Node id.
+     * @param addr Node transport address.
+     */
+    public void addPeer(NodeId nodeId, SocketAddress addr) {
+        peers.put(nodeId, addr);
+    }
+
+    @Override
+    public boolean isAlive(NodeId nodeId) {
+        return !closed && peers.containsKey(nodeId);
+    }
+
+    @Override
+    public CompletableFuture<Response> send(NodeId nodeId, Request request) {
+        CompletableFuture<Response> fut = new CompletableFuture<>();
+
+        SocketAddress addr = peers.get(nodeId);
+
+        if (addr == null || closed) {
+            fut.complete(new Response(Timestamp.min(), 1, "Node is dead: " + nodeId));
+            return fut;
+        }
+
+        long id = ids.incrementAndGet();
+
+        Connection conn;
+        ByteBuffer frame;
+
+        try {
+            frame = frame(REQUEST, id, nodeId, request);
+            conn = conns.computeIfAbsent(nodeId, k -> connect(k, addr));
+        } catch (RuntimeException e) {
+            fut.completeExceptionally(e);
+            return fut;
+        }
+
+        pending.put(id, fut);
+        conn.inflights.add(id);
+
+        // Forgets the request on timeout.
+        fut.orTimeout(requestTimeout, TimeUnit.MILLISECONDS).whenComplete((resp, err) -> {
+            if (err instanceof TimeoutException) {
+                pending.remove(id);
+                conn.inflights.remove(id);
+            }
+        });
+
+        write(conn, frame);
+
+        if (conn.closed) {
+            // Raced with a connection failure, the request may be never sent.
+            fail(id, new ReplicationException("Connection closed: " + nodeId));
+        }
+
+        return fut;
+    }
+
+    /**
+     * Closes the transport. Pending requests are failed.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        selector.wakeup();
+
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * @return Number of requests waiting for a response.
+     */
+    @TestOnly
+    public int pendingRequests() {
+        return pending.size();
+    }
+
+    /**
+     * @param path Socket file path.
+     * @return Unix domain socket address.
+     * @throws UnsupportedOperationException If not supported by the JDK.
+     */
+    public static SocketAddress unixAddress(Path path) {
+        try {
+            return (SocketAddress) Class.forName("java.net.UnixDomainSocketAddress").getMethod("of", Path.class).invoke(null, path);
+        } catch (ReflectiveOperationException e) {
+            throw new UnsupportedOperationException("Unix domain sockets require JDK 16+", e);
+        }
+    }
+
+    private static <T> T openUnix(Class<T> cls) throws IOException {
+        try {
+            ProtocolFamily unix = StandardProtocolFamily.valueOf("UNIX");
+
+            return cls.cast(cls.getMethod("open", ProtocolFamily.class).invoke(null, unix));
+        } catch (InvocationTargetException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+
+            throw new IOException(e.getCause());
+        } catch (ReflectiveOperationException | IllegalArgumentException e) {
+            throw new UnsupportedOperationException("Unix domain sockets require JDK 16+", e);
+        }
+    }
+
+    private Connection connect(NodeId nodeId, SocketAddress addr) {
+        try {
+            SocketChannel ch;
+
+            if (addr instanceof InetSocketAddress) {
+                ch = SocketChannel.open();
+                ch.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            } else {
+                ch = openUnix(SocketChannel.class);
+            }
+
+            ch.configureBlocking(false);
+
+            Connection conn = new Connection(ch, nodeId);
+
+            boolean connected = ch.connect(addr);
+
+            schedule(() -> register(conn, connected ? SelectionKey.OP_READ : SelectionKey.OP_CONNECT));
+
+            return conn;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Encodes a frame into a pooled buffer.
+     *
+     * @param type Frame type.
+     * @param id Request id.
+     * @param target Target node, only for requests.
+     * @param msg The message, or an error message for an error frame.
+     * @return The frame ready for writing.
+     */
+    private ByteBuffer frame(byte type, long id, @Nullable NodeId target, Object msg) {
+        for (int size = pool.bufferSize(); ; size *= 2) {
+            ByteBuffer frame = pool.acquire(size);
+
+            try {
+                frame.position(Integer.BYTES);
+                frame.put(type);
+                frame.putLong(id);
+
+                if (target != null) {
+                    byte[] targetBytes = target.getId().getBytes(StandardCharsets.UTF_8);
+
+                    frame.putShort((short) targetBytes.length);
+                    frame.put(targetBytes);
+                }
+
+                if (type == ERROR) {
+                    frame.put(String.valueOf(msg).getBytes(StandardCharsets.UTF_8));
+                } else {
+                    codec.encode(msg, frame);
+                }
+
+                frame.putInt(0, frame.position() - Integer.BYTES);
+
+                return frame.flip();
+            } catch (BufferOverflowException e) {
+                pool.release(frame); // Retry with a bigger buffer.
+            }
+        }
+    }
+
+    private void write(Connection conn, ByteBuffer frame) {
+        conn.writeQueue.add(frame);
+
+        schedule(() -> {
+            SelectionKey key = conn.key;
+
+            // Not yet connected connection is flushed on connect.
+            if (key != null && key.isValid() && (key.interestOps() & SelectionKey.OP_CONNECT) == 0) {
+                key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+            }
+        });
+    }
+
+    private void schedule(Runnable task) {
+        tasks.add(task);
+        selector.wakeup();
+    }
+
+    private void fail(long id, Throwable err) {
+        CompletableFuture<Response> fut = pending.remove(id);
+
+        if (fut != null) {
+            fut.completeExceptionally(err);
+        }
+    }
+
+    private void run() {
+        while (!closed) {
+            try {
+                selector.select();
+
+                Runnable task;
+
+                while ((task = tasks.poll()) != null) {
+                    task.run();
+                }
+
+                Iterator<SelectionKey> iter = selector.selectedKeys().iterator();
+
+                while (iter.hasNext()) {
+                    SelectionKey key = iter.next();
+                    iter.remove();
+
+                    if (!key.isValid()) {
+                        continue;
+                    }
+
+                    if (key.isAcceptable()) {
+                        accept();
+                        continue;
+                    }
+
+                    Connection conn = (Connection) key.attachment();
+
+                    try {
+                        if (key.isConnectable()) {
+                            finishConnect(conn);
+                        }
+
+                        if (key.isValid() && key.isReadable()) {
+                            read(conn);
+                        }
+
+                        if (key.isValid() && key.isWritable()) {
+                            flush(conn);
+                        }
+                    } catch (IOException | RuntimeException e) {
+                        close(conn, e);
+                    }
+                }
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "Selector failure", e);
+            }
+        }
+
+        List<Connection> all = new ArrayList<>();
+
+        for (SelectionKey key : selector.keys()) {
+            if (key.attachment() instanceof Connection) {
+                all.add((Connection) key.attachment());
+            }
+        }
+
+        all.addAll(conns.values());
+
+        ReplicationException err = new ReplicationException("Transport is closed");
+
+        for (Connection conn : all) {
+            close(conn, err);
+        }
+
+        for (Long id : pending.keySet()) {
+            fail(id, err);
+        }
+
+        try {
+            if (server != null) {
+                server.close();
+            }
+
+            selector.close();
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Failed to close the transport", e);
+        }
+    }
+
+    private void register(Connection conn, int ops) {
+        try {
+            conn.key = conn.ch.register(selector, ops, conn);
+
+            if (ops == SelectionKey.OP_READ && !conn.writeQueue.isEmpty()) {
+                conn.key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+            }
+        } catch (IOException e) {
+            close(conn, e);
+        }
+    }
+
+    private void accept() throws IOException {
+        SocketChannel ch = server.accept();
+
+        if (ch == null) {
+            return;
+        }
+
+        ch.configureBlocking(false);
+
+        if (ch.getRemoteAddress() instanceof InetSocketAddress) {
+            ch.setOption(StandardSocketOptions.TCP_NODELAY, true);
+        }
+
+        Connection conn = new Connection(ch, null);
+        conn.key = ch.register(selector, SelectionKey.OP_READ, conn);
+    }
+
+    private void finishConnect(Connection conn) throws IOException {
+        if (conn.ch.finishConnect()) {
+            conn.key.interestOps(SelectionKey.OP_READ | (conn.writeQueue.isEmpty() ? 0 : SelectionKey.OP_WRITE));
+        }
+    }
+
+    private void flush(Connection conn) throws IOException {
+        ByteBuffer buf;
+
+        while ((buf = conn.writeQueue.peek()) != null) {
+            conn.ch.write(buf);
+
+            if (buf.hasRemaining()) {
+                return; // Socket buffer is full, wait for the next OP_WRITE.
+            }
+
+            pool.release(conn.writeQueue.poll());
+        }
+
+        // A concurrent write re-enables OP_WRITE by a task, which runs after this.
+        conn.key.interestOps(SelectionKey.OP_READ);
+    }
+
+    private void read(Connection conn) throws IOException {
+        ByteBuffer buf = conn.readBuf;
+
+        if (conn.ch.read(buf) < 0) {
+            throw new IOException("Connection closed by peer");
+        }
+
+        buf.flip();
+
+        int required = 0;
+
+        while (buf.remaining() >= Integer.BYTES) {
+            int len = buf.getInt(buf.position());
+
+            if (buf.remaining() < Integer.BYTES + len) {
+                required = Integer.BYTES + len;
+                break;
+            }
+
+            int end = buf.position() + Integer.BYTES + len;
+
+            buf.position(buf.position() + Integer.BYTES);
+            byte type = buf.get();
+            long id = buf.getLong();
+
+            ByteBuffer body = buf.slice();
+            body.limit(end - buf.position());
+
+            buf.position(end);
+
+            onFrame(conn, type, id, body);
+        }
+
+        buf.compact();
+
+        if (required > buf.capacity()) {
+            ByteBuffer bigger = ByteBuffer.allocate(required);
+            buf.flip();
+            bigger.put(buf);
+            conn.readBuf = bigger;
+        }
+    }
+
+    private void onFrame(Connection conn, byte type, long id, ByteBuffer body) {
+        switch (type) {
+            case REQUEST: {
+                byte[] targetBytes = new byte[body.getShort()];
+                body.get(targetBytes);
+                NodeId target = new NodeId(new String(targetBytes, StandardCharsets.UTF_8));
+
+                Request request = (Request) codec.decode(body);
+
+                Node node = topology.getNode(target);
+
+                CompletableFuture<Response> fut = node == null ?
+                        CompletableFuture.completedFuture(new Response(Timestamp.min(), 1, "Node is dead: " + target)) :
+                        node.accept(request);
+
+                fut.whenComplete((resp, err) -> {
+                    ByteBuffer frame;
+
+                    try {
+                        frame = err == null ? frame(RESPONSE, id, null, resp) : frame(ERROR, id, null, err);
+                    } catch (RuntimeException e) {
+                        frame = frame(ERROR, id, null, e);
+                    }
+
+                    write(conn, frame);
+                });
+
+                break;
+            }
+
+            case RESPONSE: {
+                conn.inflights.remove(id);
+                CompletableFuture<Response> fut = pending.remove(id);
+
+                if (fut != null) {
+                    fut.complete((Response) codec.decode(body));
+                }
+
+                break;
+            }
+
+            case ERROR: {
+                conn.inflights.remove(id);
+                fail(id, new ReplicationException(StandardCharsets.UTF_8.decode(body).toString()));
+
+                break;
+            }
+
+            default:
+                throw new IllegalStateException("Unknown frame type: " + type);
+        }
+    }
+
+    private void close(Connection conn, Throwable err) {
+        if (conn.closed) {
+            return;
+        }
+
+        conn.closed = true;
+
+        if (!(err instanceof ReplicationException)) {
+            LOGGER.log(Level.DEBUG, "Connection closed: peer={0}, err={1}", conn.peer, err);
+        }
+
+        if (conn.peer != null) {
+            conns.remove(conn.peer, conn);
+        }
+
+        try {
+            conn.ch.close();
+        } catch (IOException e) {
+            // Ignored.
+        }
+
+        for (Long id : conn.inflights) {
+            fail(id, err);
+        }
+
+        ByteBuffer buf;
+
+        while ((buf = conn.writeQueue.poll()) != null) {
+            pool.release(buf);
+        }
+    }
+
+    /**
+     * A connection.
+     */
+    private static class Connection {
+        final SocketChannel ch;
+
+        // Remote node for an outgoing connection, null for an incoming one.
+        final @Nullable NodeId peer;
+
+        final Queue<ByteBuffer> writeQueue = new ConcurrentLinkedQueue<>();
+
+        // Ids of requests sent over this connection.
+        final Set<Long> inflights = ConcurrentHashMap.newKeySet();
+
+        // Accessed only by the selector thread.
+        ByteBuffer readBuf = ByteBuffer.allocateDirect(READ_BUF_SIZE);
+
+        volatile @Nullable SelectionKey key;
+
+        volatile boolean closed;
+
+        Connection(SocketChannel ch, @Nullable NodeId peer) {
+            this.ch = ch;
+            this.peer = peer;
+        }
+    }
+}
@@ -1,6 +1,11 @@
 package com.ascherbakoff.ai3.replication;
 
-public class Put {
+import java.io.Serializable;
+import java.util.Objects;
+
+public class Put implements Serializable {
+    private static final long serialVersionUID = 1L;
+
     private final Integer key;
     private final Integer value;
 
@@ -16,4 +21,37 @@ public class Put {
     public Integer getValue() {
         return value;
     }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+
+        Put put = (Put) o;
+
+        if (!Objects.equals(key, put.key)) {
+            return false;
+        }
+
+        return Objects.equals(value, put.value);
+    }
+
+    @Override
+    public int hashCode() {
+        int result = Objects.hashCode(key);
+        result = 31 * result + Objects.hashCode(value);
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return "Put{" +
+                "key=" + key +
+                ", value=" + value +
+                '}';
+    }
 }
@@ -1,17 +1,44 @@
 package com.ascherbakoff.ai3.replication;
 
+import com.ascherbakoff.ai3.clock.Timestamp;
 import com.ascherbakoff.ai3.cluster.Node;
+import java.util.Arrays;
+import java.util.Objects;
 import java.util.concurrent.CompletableFuture;
+import org.jetbrains.annotations.Nullable;
 
+/**
+ * Replication command. Carries either a single entry or a batch of consecutive entries.
+ * For a batch, the counter belongs to the first entry, the rest are numbered sequentially.
+ */
 public class Replicate implements Command {
+    private static final long serialVersionUID = 1L;
+
     private long cntr;
     private Object data;
 
+    // Batched entries. Null for a single entry command.
+    private @Nullable Timestamp[] tss;
+    private @Nullable Object[] batch;
+
     public Replicate(long cntr, Object data) {
         this.cntr = cntr;
         this.data = data;
     }
 
+    /**
+     * @param cntr The counter of the first entry.
+     * @param tss Entry timestamps in ascending order.
+     * @param batch Entry payloads.
+     */
+    public Replicate(long cntr, Timestamp[] tss, Object[] batch) {
+        assert tss.length == batch.length && tss.length > 0;
+
+        this.cntr = cntr;
+        this.tss = tss;
+        this.batch = batch;
+    }
+
     public long getCntr() {
         return cntr;
     }
@@ -20,12 +47,88 @@ public class Replicate implements Command {
         this.cntr = cntr;
     }
 
+    /**
+     * @return The counter of the last entry.
+     */
+    public long getLastCntr() {
+        return cntr + size() - 1;
+    }
+
     public Object getData() {
         return data;
     }
 
+    public boolean isBatch() {
+        return batch != null;
+    }
+
+    /**
+     * @return Number of entries.
+     */
+    public int size() {
+        return batch == null ? 1 : batch.length;
+    }
+
+    /**
+     * @param i Entry index.
+     * @return The entry payload.
+     */
+    public Object getData(int i) {
+        return batch == null ? data : batch[i];
+    }
+
+    /**
+     * @param i Entry index.
+     * @return The entry timestamp or null for a single entry command (the request timestamp is used).
+     */
+    public @Nullable Timestamp getTs(int i) {
+        return tss == null ? null : tss[i];
+    }
+
+    /**
+     * Unpacks a batch entry as a single entry command.
+     *
+     * @param i Entry index.
+     * @return The command.
+     */
+    public Replicate entry(int i) {
+        return batch == null ? this : new Replicate(cntr + i, batch[i]);
+    }
+
     @Override
     public void accept(Node node, Request request, CompletableFuture<Response> resp) {
         node.visit(this, request, resp);
     }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+
+        Replicate replicate = (Replicate) o;
+
+        if (cntr != replicate.cntr) {
+            return false;
+        }
+        if (!Objects.equals(data, replicate.data)) {
+            return false;
+        }
+        if (!Arrays.equals(tss, replicate.tss)) {
+            return false;
+        }
+
+        return Arrays.equals(batch, replicate.batch);
+    }
+
+    @Override
+    public int hashCode() {
+        int result = (int) (cntr ^ (cntr >>> 32));
+        result = 31 * result + Objects.hashCode(data);
+        result = 31 * result + Arrays.hashCode(batch);
+        return result;
+    }
 }
@@ -0,0 +1,208 @@
+package com.ascherbakoff.ai3.replication;
+
+import com.ascherbakoff.ai3.cluster.DeltaStore;
+import com.ascherbakoff.ai3.cluster.KeyValueStateMachine;
+import com.ascherbakoff.ai3.cluster.MapDeltaStore;
+import com.ascherbakoff.ai3.cluster.NodeId;
+import com.ascherbakoff.ai3.cluster.StateMachine;
+import java.util.function.BiFunction;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Tunables of the replication pipeline.
+ */
+public class ReplicationOptions {
+    // Max number of entries packed into a single Replicate message. 1 disables batching.
+    private int maxBatchEntries = 1;
+
+    // Max estimated payload size of a batch in bytes. A single entry is always accepted.
+    private int maxBatchBytes = 64 * 1024;
+
+    // How long to wait for more entries before sending a batch.
+    private long batchLingerMs = 0;
+
+    // Max number of requests sent to a follower and not yet responded.
+    private int maxInflightEntries = 1024;
+
+    // Max estimated payload size of requests sent to a follower and not yet responded.
+    private long maxInflightBytes = 16 * 1024 * 1024;
+
+    // Max number of requests waiting for the window. On overflow the follower is cut off until it catches up.
+    private int maxQueuedEntries = 16 * 1024;
+
+    // Max number of entries in a catch up page.
+    private int maxCatchUpPageEntries = 1024;
+
+    // Max estimated payload size of a catch up page. A single entry is always accepted.
+    private long maxCatchUpPageBytes = 1024 * 1024;
+
+    // Number of attempts to retry a failed catch up page from the applied position.
+    private int catchUpRetries = 3;
+
+    // Number of node scheduler lanes, each served by a single thread.
+    private int schedulerLanes = Runtime.getRuntime().availableProcessors();
+
+    // Run scheduler lanes on virtual threads (JDK 21+).
+    private boolean virtualLanes;
+
+    // Creates a delta store for a group by a node id and a group name.
+    private BiFunction<NodeId, String, DeltaStore> deltaStoreFactory = (nodeId, grp) -> new MapDeltaStore(false);
+
+    // Creates a state machine for a group by a node id and a group name.
+    private BiFunction<NodeId, String, StateMachine> stateMachineFactory = (nodeId, grp) -> new KeyValueStateMachine();
+
+    public int getMaxBatchEntries() {
+        return maxBatchEntries;
+    }
+
+    public void setMaxBatchEntries(int maxBatchEntries) {
+        if (maxBatchEntries < 1)
+            throw new IllegalArgumentException("maxBatchEntries must be positive: " + maxBatchEntries);
+
+        this.maxBatchEntries = maxBatchEntries;
+    }
+
+    public int getMaxBatchBytes() {
+        return maxBatchBytes;
+    }
+
+    public void setMaxBatchBytes(int maxBatchBytes) {
+        if (maxBatchBytes < 1)
+            throw new IllegalArgumentException("maxBatchBytes must be positive: " + maxBatchBytes);
+
+        this.maxBatchBytes = maxBatchBytes;
+    }
+
+    public long getBatchLingerMs() {
+        return batchLingerMs;
+    }
+
+    public void setBatchLingerMs(long batchLingerMs) {
+        if (batchLingerMs < 0)
+            throw new IllegalArgumentException("batchLingerMs must not be negative: " + batchLingerMs);
+
+        this.batchLingerMs = batchLingerMs;
+    }
+
+    public int getMaxInflightEntries() {
+        return maxInflightEntries;
+    }
+
+    public void setMaxInflightEntries(int maxInflightEntries) {
+        if (maxInflightEntries < 1)
+            throw new IllegalArgumentException("maxInflightEntries must be positive: " + maxInflightEntries);
+
+        this.maxInflightEntries = maxInflightEntries;
+    }
+
+    public long getMaxInflightBytes() {
+        return maxInflightBytes;
+    }
+
+    public void setMaxInflightBytes(long maxInflightBytes) {
+        if (maxInflightBytes < 1)
+            throw new IllegalArgumentException("maxInflightBytes must be positive: " + maxInflightBytes);
+
+        this.maxInflightBytes = maxInflightBytes;
+    }
+
+    public int getMaxQueuedEntries() {
+        return maxQueuedEntries;
+    }
+
+    public void setMaxQueuedEntries(int maxQueuedEntries) {
+        if (maxQueuedEntries < 0)
+            throw new IllegalArgumentException("maxQueuedEntries must not be negative: " + maxQueuedEntries);
+
+        this.maxQueuedEntries = maxQueuedEntries;
+    }
+
+    public int getMaxCatchUpPageEntries() {
+        return maxCatchUpPageEntries;
+    }
+
+    public void setMaxCatchUpPageEntries(int maxCatchUpPageEntries) {
+        if (maxCatchUpPageEntries < 1)
+            throw new IllegalArgumentException("maxCatchUpPageEntries must be positive: " + maxCatchUpPageEntries);
+
+        this.maxCatchUpPageEntries = maxCatchUpPageEntries;
+    }
+
+    public long getMaxCatchUpPageBytes() {
+        return maxCatchUpPageBytes;
+    }
+
+    public void setMaxCatchUpPageBytes(long maxCatchUpPageBytes) {
+        if (maxCatchUpPageBytes < 1)
+            throw new IllegalArgumentException("maxCatchUpPageBytes must be positive: " + maxCatchUpPageBytes);
+
+        this.maxCatchUpPageBytes = maxCatchUpPageBytes;
+    }
+
+    public int getCatchUpRetries() {
+        return catchUpRetries;
+    }
+
+    public void setCatchUpRetries(int catchUpRetries) {
+        if (catchUpRetries < 0)
+            throw new IllegalArgumentException("catchUpRetries must not be negative: " + catchUpRetries);
+
+        this.catchUpRetries = catchUpRetries;
+    }
+
+    public int getSchedulerLanes() {
+        return schedulerLanes;
+    }
+
+    public void setSchedulerLanes(int schedulerLanes) {
+        if (schedulerLanes < 1)
+            throw new IllegalArgumentException("schedulerLanes must be positive: " + schedulerLanes);
+
+        this.schedulerLanes = schedulerLanes;
+    }
+
+    public boolean isVirtualLanes() {
+        return virtualLanes;
+    }
+
+    public void setVirtualLanes(boolean virtualLanes) {
+        this.virtualLanes = virtualLanes;
+    }
+
+    public BiFunction<NodeId, String, DeltaStore> getDeltaStoreFactory() {
+        return deltaStoreFactory;
+    }
+
+    public void setDeltaStoreFactory(BiFunction<NodeId, String, DeltaStore> deltaStoreFactory) {
+        this.deltaStoreFactory = deltaStoreFactory;
+    }
+
+    public BiFunction<NodeId, String, StateMachine> getStateMachineFactory() {
+        return stateMachineFactory;
+    }
+
+    public void setStateMachineFactory(BiFunction<NodeId, String, StateMachine> stateMachineFactory) {
+        this.stateMachineFactory = stateMachineFactory;
+    }
+
+    /**
+     * Estimates the payload size for batch limits as the size encoded by {@link BinaryMessageCodec}. Payloads other
+     * than {@link Put} are serialized to be measured.
+     *
+     * @param payload The payload.
+     * @return Size in bytes.
+     */
+    public static int estimateSize(@Nullable Object payload) {
+        return BinaryMessageCodec.payloadSize(payload);
+    }
+
+    /**
+     * Estimates the payload size of a replication command as the size encoded by {@link BinaryMessageCodec}.
+     *
+     * @param replicate The command.
+     * @return Size in bytes.
+     */
+    public static int estimateSize(Replicate replicate) {
+        return BinaryMessageCodec.replicateSize(replicate);
+    }
+}
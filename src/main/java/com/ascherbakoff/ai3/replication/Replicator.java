@@ -5,15 +5,19 @@ import com.ascherbakoff.ai3.cluster.Node;
 import com.ascherbakoff.ai3.cluster.NodeId;
 import com.ascherbakoff.ai3.cluster.Topology;
 import java.lang.System.Logger.Level;
-import java.util.Iterator;
-import java.util.Map.Entry;
-import java.util.Set;
-import java.util.TreeMap;
+import java.util.ArrayDeque;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
 import java.util.concurrent.TimeUnit;
 
 /**
+ * Replicates entries to a single follower.
  *
+ * <p>The number and the estimated size of requests sent to the follower and not yet responded are limited by a window
+ * (see {@link ReplicationOptions}). Requests exceeding the window are queued and sent as the window frees. If the queue
+ * overflows, the follower is too far behind: the replicator is marked broken and the follower has to catch up.
+ *
+ * <p>Safety note: must be used only by the group thread.
  */
 public class Replicator {
     public static int TIMEOUT_SEC = 1;
@@ -32,18 +36,36 @@ public class Replicator {
 
     private Timestamp repTs = Timestamp.min();
 
-    private TreeMap<Long, Inflight> inflights = new TreeMap<>(); // TODO treeset ? TODO store only lwm for catching up replicator.
+    // Keyed by the last counter to release a batch when fully acked. TODO store only lwm for catching up replicator.
+    private final CounterRing<Inflight> inflights = new CounterRing<>();
 
     private RpcClient client;
 
     private boolean broken;
 
+    private final ReplicationOptions options;
+
+    // Group thread, completes the window accounting.
+    private final Executor executor;
+
+    // Window: requests sent and not yet responded.
+    private int windowEntries;
+    private long windowBytes;
+
+    // Requests waiting for the window.
+    private final ArrayDeque<Queued> queue = new ArrayDeque<>();
+
+    // Number of requests which didn't fit the window.
+    private long windowFullCnt;
+
     public Replicator(Node node, NodeId nodeId, String grp, Topology topology) {
         this.node = node;
         this.grp = grp;
         this.nodeId = nodeId;
         this.topology = topology;
         this.client = new RpcClient(topology);
+        this.options = node.options();
+        this.executor = node.group(grp).executorService;
     }
 
     public Inflight send(Request request) {
@@ -55,37 +77,113 @@ public class Replicator {
             return inflight;
         }
 
-        CompletableFuture<Response> ioFut = client.send(nodeId, request).orTimeout(TIMEOUT_SEC, TimeUnit.SECONDS);
+        int bytes = ReplicationOptions.estimateSize(payload);
 
-        Inflight inflight = new Inflight(request.getTs(), payload, ioFut);
-        inflights.put(inflight.getReplicate().getCntr(), inflight);
+        Inflight inflight;
 
-        LOGGER.log(Level.DEBUG, "Send id={0}, cntr={1}, ts={2}", request.getId(), payload.getCntr(), request.getTs());
+        if (queue.isEmpty() && fits(bytes)) {
+            inflight = new Inflight(request.getTs(), payload, doSend(request, bytes));
+        } else {
+            windowFullCnt++;
+
+            if (queue.size() >= options.getMaxQueuedEntries()) {
+                LOGGER.log(Level.WARNING, "Replication window overflow, the follower is cut off: grp={0}, node={1}, queued={2}",
+                        grp, nodeId, queue.size());
+
+                broken = true;
+                failQueued(new ReplicationException("Replication window overflow"));
+
+                return send(request);
+            }
+
+            inflight = new Inflight(request.getTs(), payload, new CompletableFuture<>());
+            queue.add(new Queued(request, inflight, bytes));
+        }
+
+        inflights.put(inflight.getReplicate().getLastCntr(), inflight);
 
         return inflight;
     }
 
-    private void fold() {
-        Set<Entry<Long, Inflight>> set = inflights.entrySet();
+    /**
+     * @return True if a request fits the window. An empty window accepts any request.
+     */
+    private boolean fits(int bytes) {
+        return windowEntries == 0 ||
+                (windowEntries < options.getMaxInflightEntries() && windowBytes + bytes <= options.getMaxInflightBytes());
+    }
 
-        Iterator<Entry<Long, Inflight>> iter = set.iterator();
+    private CompletableFuture<Response> doSend(Request request, int bytes) {
+        windowEntries++;
+        windowBytes += bytes;
 
-        // Fold consecutive tail.
-        while (iter.hasNext()) {
-            Entry<Long, Inflight> entry = iter.next();
+        LOGGER.log(Level.DEBUG, "Send id={0}, cntr={1}, ts={2}", request.getId(), ((Replicate) request.getPayload()).getCntr(),
+                request.getTs());
+
+        CompletableFuture<Response> ioFut = client.send(nodeId, request).orTimeout(TIMEOUT_SEC, TimeUnit.SECONDS);
+
+        ioFut.whenCompleteAsync((resp, err) -> {
+            windowEntries--;
+            windowBytes -= bytes;
+
+            drain();
+        }, executor);
+
+        return ioFut;
+    }
+
+    /**
+     * Sends queued requests while they fit the window.
+     */
+    private void drain() {
+        while (!broken && !queue.isEmpty() && fits(queue.peek().bytes)) {
+            Queued queued = queue.poll();
+            CompletableFuture<Response> fut = queued.inflight.ioFuture();
+
+            doSend(queued.request, queued.bytes).whenComplete((resp, err) -> {
+                if (err != null) {
+                    fut.completeExceptionally(err);
+                } else {
+                    fut.complete(resp);
+                }
+            });
+        }
+    }
 
-            if (!entry.getValue().ioFuture().isDone())
+    private void failQueued(Throwable err) {
+        Queued queued;
+
+        while ((queued = queue.poll()) != null) {
+            queued.inflight.ioFuture().completeExceptionally(err);
+        }
+    }
+
+    private void fold() {
+        Inflight inflight;
+
+        // Fold consecutive tail.
+        while ((inflight = inflights.first()) != null) {
+            if (!inflight.ioFuture().isDone())
                 return;
 
-            if (entry.getValue().ioFuture().isCompletedExceptionally()) {
+            if (inflight.ioFuture().isCompletedExceptionally()) {
                 broken = true;
+                failQueued(new ReplicationException("Broken pipe"));
                 return; // TODO replicator is broken.
             }
 
-            if (entry.getKey() > repCntr) {
-                return;
+            if (inflights.firstKey() > repCntr) {
+                // The follower has received the entry. It is applied after the preceding ones, which the follower
+                // already has, for example, from the last catch up page. The ack could not report it.
+                if (inflight.getReplicate().getCntr() > repCntr + 1) {
+                    return;
+                }
+
+                repCntr = inflights.firstKey();
+                repTs = inflight.ts();
             }
-            iter.remove();
+
+            inflights.removeFirst();
         }
     }
 
@@ -117,7 +215,7 @@ public class Replicator {
         assert request.getPayload() instanceof Replicate;
         Replicate r = (Replicate) request.getPayload();
 
-        return inflights.get(r.getCntr());
+        return inflights.get(r.getLastCntr());
     }
 
     public boolean broken() {
@@ -128,26 +226,79 @@ public class Replicator {
         if (cntr > repCntr) {
             this.repCntr = cntr;
             this.repTs = ts;
-            fold();
         }
+
+        fold();
     }
 
     public void failInflights() {
-        for (Inflight value : inflights.values()) {
-            value.ioFuture().completeExceptionally(new ReplicationException("Replicator removed"));
-        }
+        queue.clear(); // Failed below.
+
+        inflights.forEach(value -> value.ioFuture().completeExceptionally(new ReplicationException("Replicator removed")));
+    }
+
+    /**
+     * @return Number of requests sent and not yet responded.
+     */
+    public int windowEntries() {
+        return windowEntries;
+    }
+
+    /**
+     * @return Estimated payload size of requests sent and not yet responded.
+     */
+    public long windowBytes() {
+        return windowBytes;
+    }
+
+    /**
+     * @return Number of requests waiting for the window.
+     */
+    public int queued() {
+        return queue.size();
     }
 
-    public boolean onCatchup(long cntr, Timestamp low) {
+    /**
+     * @return Number of requests which didn't fit the window since the replicator creation.
+     */
+    public long windowFullCount() {
+        return windowFullCnt;
+    }
+
+    /**
+     * Handles the last catch up page.
+     *
+     * @param cntr The follower counter before the page.
+     * @param lastCntr The counter of the last page entry, or {@code cntr} for an empty page.
+     * @param lastTs The timestamp of the last page entry, or the follower timestamp for an empty page.
+     * @return True if the follower has consumed the gap and becomes stable.
+     */
+    public boolean onCatchup(long cntr, long lastCntr, Timestamp lastTs) {
         long threshold = Math.max(repCntr, inflights.isEmpty() ? 0 : inflights.firstKey());
 
         if (cntr >= threshold) { // Consumed the gap.
-            this.repCntr = cntr;
-            this.repTs = low;
+            // The follower applies the page, an ack received before could not report it.
+            this.repCntr = lastCntr;
+            this.repTs = lastTs;
             fold();
             return true;
         }
 
         return false;
     }
+
+    /**
+     * A request waiting for the window.
+     */
+    private static class Queued {
+        final Request request;
+        final Inflight inflight;
+        final int bytes;
+
+        Queued(Request request, Inflight inflight, int bytes) {
+            this.request = request;
+            this.inflight = inflight;
+            this.bytes = bytes;
+        }
+    }
 }
@@ -2,9 +2,12 @@ package com.ascherbakoff.ai3.replication;
 
 import com.ascherbakoff.ai3.clock.Timestamp;
 import com.ascherbakoff.ai3.cluster.NodeId;
+import java.io.Serializable;
 import java.util.UUID;
 
-public class Request {
+public class Request implements Serializable {
+    private static final long serialVersionUID = 1L;
+
     private NodeId sender;
     private String grp;
     private Timestamp ts;
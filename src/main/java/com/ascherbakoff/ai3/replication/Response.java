@@ -1,8 +1,11 @@
 package com.ascherbakoff.ai3.replication;
 
 import com.ascherbakoff.ai3.clock.Timestamp;
+import java.io.Serializable;
+
+public class Response implements Serializable {
+    private static final long serialVersionUID = 1L;
 
-public class Response {
     private Timestamp ts;
     private int ret;
     private String message;
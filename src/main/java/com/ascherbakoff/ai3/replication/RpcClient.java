@@ -31,8 +31,9 @@ public class RpcClient {
         CompletableFuture<Response> fut = new CompletableFuture<>();
 
         Node node = topology.getNodeMap().get(nodeId);
+        Transport transport = topology.getTransport();
 
-        if (node == null) {
+        if (node == null && (transport == null || !transport.isAlive(nodeId))) {
             fut.complete(new Response(Timestamp.min(), 1, "Node is dead: " + nodeId));
             return fut;
         }
@@ -42,7 +43,8 @@ public class RpcClient {
                 Object[] msgData = {
                         request,
                         System.currentTimeMillis(),
-                        (Runnable) () -> node.accept(request).thenAccept(resp -> fut.complete(resp))
+                        (Runnable) () -> (node != null ? node.accept(request) : transport.send(nodeId, request))
+                                .thenAccept(resp -> fut.complete(resp))
                 };
 
                 blockedMsgs.add(msgData);
@@ -53,7 +55,8 @@ public class RpcClient {
             }
         }
 
-        return node.accept(request);
+        // Local nodes are called directly, bypassing serialization.
+        return node != null ? node.accept(request) : transport.send(nodeId, request);
     }
 
     public void unblock(Predicate<Request> pred) {
@@ -5,6 +5,8 @@ import com.ascherbakoff.ai3.cluster.Node;
 import java.util.concurrent.CompletableFuture;
 
 public class Snapshot implements Command {
+    private static final long serialVersionUID = 1L;
+
     private final Timestamp low;
     private final Timestamp high;
     private final long cntr;
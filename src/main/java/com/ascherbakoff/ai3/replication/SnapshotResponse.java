@@ -1,27 +1,60 @@
 package com.ascherbakoff.ai3.replication;
 
 import com.ascherbakoff.ai3.clock.Timestamp;
-import java.util.NavigableMap;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map.Entry;
 import org.jetbrains.annotations.Nullable;
 
 public class SnapshotResponse extends Response {
-    private final NavigableMap<Timestamp, Replicate> snapshot;
+    private static final long serialVersionUID = 1L;
+
+    // The snapshot can be a lazy view of the store, so it's written element by element.
+    private transient Iterable<Entry<Timestamp, Replicate>> snapshot;
     private final Timestamp current;
 
     /**
      * Null "current" means a stable replication.
      */
-    public SnapshotResponse(Timestamp hlc, NavigableMap<Timestamp, Replicate> snapshot, @Nullable Timestamp current) {
+    public SnapshotResponse(Timestamp hlc, Iterable<Entry<Timestamp, Replicate>> snapshot, @Nullable Timestamp current) {
         super(hlc);
         this.snapshot = snapshot;
         this.current = current;
     }
 
-    public NavigableMap<Timestamp, Replicate> getSnapshot() {
+    public Iterable<Entry<Timestamp, Replicate>> getSnapshot() {
         return snapshot;
     }
 
     public @Nullable Timestamp getCurrent() {
         return current;
     }
+
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        out.defaultWriteObject();
+
+        for (Entry<Timestamp, Replicate> entry : snapshot) {
+            out.writeBoolean(true);
+            out.writeObject(entry.getKey());
+            out.writeObject(entry.getValue());
+        }
+
+        out.writeBoolean(false);
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+
+        List<Entry<Timestamp, Replicate>> entries = new ArrayList<>();
+
+        while (in.readBoolean()) {
+            entries.add(new SimpleImmutableEntry<>((Timestamp) in.readObject(), (Replicate) in.readObject()));
+        }
+
+        snapshot = entries;
+    }
 }
@@ -0,0 +1,24 @@
+package com.ascherbakoff.ai3.replication;
+
+import com.ascherbakoff.ai3.cluster.NodeId;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Transport to nodes outside of the local topology.
+ */
+public interface Transport {
+    /**
+     * Sends a request to a remote node.
+     *
+     * @param nodeId Target node.
+     * @param request The request.
+     * @return Response future.
+     */
+    CompletableFuture<Response> send(NodeId nodeId, Request request);
+
+    /**
+     * @param nodeId Node id.
+     * @return True if the node is reachable by this transport.
+     */
+    boolean isAlive(NodeId nodeId);
+}
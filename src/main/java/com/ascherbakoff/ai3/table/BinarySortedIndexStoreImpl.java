@@ -0,0 +1,106 @@
+package com.ascherbakoff.ai3.table;
+
+import java.util.AbstractMap.SimpleEntry;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Map.Entry;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Sorted index store over binary keys, see {@link KeyEncoder}. A lookup encodes the key once, then every comparison is
+ * an unsigned byte array comparison. Original tuples are kept along with rows, so scans don't decode keys.
+ *
+ * @param <T> Row id type.
+ */
+public class BinarySortedIndexStoreImpl<T> implements SortedIndexStore<T> {
+    final ConcurrentSkipListMap<byte[], KeyRows<T>> data = new ConcurrentSkipListMap<>(Arrays::compareUnsigned);
+
+    @Override
+    public Cursor<Entry<Tuple, Cursor<T>>> scan(@Nullable Tuple lower, boolean lowerInclusive, @Nullable Tuple upper, boolean upperInclusve) {
+        NavigableMap<byte[], KeyRows<T>> subMap;
+
+        if (lower == null && upper == null) {
+            subMap = data;
+        } else if (lower == null) {
+            subMap = data.headMap(KeyEncoder.encode(upper), upperInclusve);
+        } else if (upper == null) {
+            subMap = data.tailMap(KeyEncoder.encode(lower), lowerInclusive);
+        } else {
+            subMap = data.subMap(KeyEncoder.encode(lower), lowerInclusive, KeyEncoder.encode(upper), upperInclusve);
+        }
+
+        Iterator<KeyRows<T>> iter = subMap.values().iterator();
+
+        return new Cursor<Entry<Tuple, Cursor<T>>>() {
+            @Nullable
+            @Override
+            public Entry<Tuple, Cursor<T>> next() {
+                if (!iter.hasNext())
+                    return null;
+
+                KeyRows<T> next = iter.next();
+                return new SimpleEntry<>(next.key, Cursor.<T>wrap(next.rows.iterator()));
+            }
+        };
+    }
+
+    @Override
+    public boolean insert(Tuple key, T rowId) {
+        final boolean[] inserted = new boolean[1];
+
+        data.compute(KeyEncoder.encode(key), (k, v) -> {
+            if (v == null) {
+                v = new KeyRows<>(key);
+            }
+
+            inserted[0] = v.rows.add(rowId);
+
+            return v;
+        });
+
+        return inserted[0];
+    }
+
+    @Override
+    public boolean remove(Tuple key, T rowId) {
+        final boolean[] removed = new boolean[1];
+
+        data.compute(KeyEncoder.encode(key), (k, v) -> {
+            boolean st = v != null && v.rows.remove(rowId);
+
+            removed[0] = st;
+
+            return st && v.rows.isEmpty() ? null : v;
+        });
+
+        return removed[0];
+    }
+
+    @Override
+    public @Nullable Tuple nextKey(Tuple key) {
+        Entry<byte[], KeyRows<T>> nextE = data.higherEntry(KeyEncoder.encode(key));
+        return nextE == null ? null : nextE.getValue().key;
+    }
+
+    @Override
+    public boolean contains(Tuple key) {
+        return data.containsKey(KeyEncoder.encode(key));
+    }
+
+    /**
+     * Rows of a key.
+     */
+    private static class KeyRows<T> {
+        final Tuple key;
+        final Set<T> rows = Collections.newSetFromMap(new ConcurrentHashMap<>());
+
+        KeyRows(Tuple key) {
+            this.key = key;
+        }
+    }
+}
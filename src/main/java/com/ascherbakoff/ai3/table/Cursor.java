@@ -14,6 +14,16 @@ public interface Cursor<T> {
         }
     };
 
+    /**
+     * Returns a typed empty cursor.
+     *
+     * @return Empty cursor.
+     */
+    @SuppressWarnings("unchecked")
+    static <T> Cursor<T> empty() {
+        return (Cursor<T>) EMPTY;
+    }
+
     @Nullable T next();
 
     default List<T> getAll() {
@@ -17,7 +17,7 @@ class HashIndexStoreImpl<T> implements HashIndexStore<T> {
         Set<T> vals = data.get(key);
 
         if (vals == null) {
-            return Cursor.EMPTY;
+            return Cursor.empty();
         }
 
         Iterator<T> iter = vals.iterator();
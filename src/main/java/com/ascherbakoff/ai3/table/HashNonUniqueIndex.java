@@ -1,5 +1,6 @@
 package com.ascherbakoff.ai3.table;
 
+import com.ascherbakoff.ai3.clock.Timestamp;
 import com.ascherbakoff.ai3.lock.Lock;
 import com.ascherbakoff.ai3.lock.LockMode;
 import com.ascherbakoff.ai3.lock.LockTable;
@@ -52,7 +53,7 @@ public class HashNonUniqueIndex implements Index {
 
                 futs.add(lock0.acquire(txId, LockMode.IX).thenAccept(ignored0 -> {
                     if (index.insert(newVal, rowId)) {
-                        txState.addUndo(() -> index.remove(newVal, rowId));
+                        txState.addUndo(this, newVal, rowId);
                     }
                 }));
             }
@@ -89,11 +90,39 @@ public class HashNonUniqueIndex implements Index {
 
     @Override
     public AsyncCursor<VersionChain<Tuple>> range(UUID txId, TxState txState, RangeQuery query0) {
-        throw new UnsupportedOperationException();
+        throw new UnsupportedOperationException("Not implemented");
     }
 
     @Override
     public Cursor<VersionChain<Tuple>> eq(EqQuery query0) {
         return index.scan(query0.queryKey);
     }
+
+    @Override
+    public void undoInsert(Tuple key, VersionChain<Tuple> rowId) {
+        index.remove(key, rowId);
+    }
+
+    @Override
+    public void vacuum(Tuple row, VersionChain<Tuple> rowId) {
+        Tuple key = row.select(col);
+
+        // Writes of the row are ordered with the check by the chain monitor. A write of the key after the removal
+        // inserts the entry again.
+        synchronized (rowId) {
+            if (!rowId.hasVersion(tup -> tup != Tuple.TOMBSTONE && tup.select(col).equals(key))) {
+                index.remove(key, rowId);
+            }
+        }
+    }
+
+    @Override
+    public Cursor<Tuple> eq(EqQuery query0, Timestamp readTs) {
+        return Index.resolve(col, query0.queryKey, index.scan(query0.queryKey), readTs);
+    }
+
+    @Override
+    public Cursor<Tuple> range(RangeQuery query0, Timestamp readTs) {
+        throw new UnsupportedOperationException("Not implemented");
+    }
 }
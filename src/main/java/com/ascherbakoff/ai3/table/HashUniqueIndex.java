@@ -59,7 +59,7 @@ public class HashUniqueIndex extends HashNonUniqueIndex {
                     }
 
                     if (index.insert(newVal, rowId)) { // Add undo action only if the entry was inserted by this transaction.
-                        txState.addUndo(() -> index.remove(newVal, rowId));
+                        txState.addUndo(this, newVal, rowId);
                     }
                 }));
             }
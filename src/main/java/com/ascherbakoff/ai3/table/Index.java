@@ -1,5 +1,6 @@
 package com.ascherbakoff.ai3.table;
 
+import com.ascherbakoff.ai3.clock.Timestamp;
 import com.ascherbakoff.ai3.table.MVStoreImpl.TxState;
 import java.util.UUID;
 import java.util.concurrent.CompletableFuture;
@@ -12,4 +13,70 @@ public interface Index {
     AsyncCursor<VersionChain<Tuple>> range(UUID txId, TxState txState, RangeQuery query0);
 
     Cursor<VersionChain<Tuple>> eq(EqQuery query0);
+
+    /**
+     * Removes an entry inserted by an aborted transaction.
+     *
+     * @param key The key.
+     * @param rowId Row id.
+     */
+    void undoInsert(Tuple key, VersionChain<Tuple> rowId);
+
+    /**
+     * Removes the entry of a row version removed by garbage collection, unless another version of the row has the same
+     * key.
+     *
+     * @param row Removed version.
+     * @param rowId Row id.
+     */
+    void vacuum(Tuple row, VersionChain<Tuple> rowId);
+
+    /**
+     * Read-only lookup at a timestamp. Doesn't acquire locks.
+     *
+     * @param query0 The query.
+     * @param readTs Read timestamp.
+     * @return Rows visible at the timestamp.
+     */
+    Cursor<Tuple> eq(EqQuery query0, Timestamp readTs);
+
+    /**
+     * Read-only range scan at a timestamp. Doesn't acquire locks.
+     *
+     * @param query0 The query.
+     * @param readTs Read timestamp.
+     * @return Rows visible at the timestamp in index order.
+     */
+    Cursor<Tuple> range(RangeQuery query0, Timestamp readTs);
+
+    /**
+     * Resolves rows referenced by an index key at a timestamp. An index keeps entries for old versions, so a row is
+     * returned only if its version visible at the timestamp has the key.
+     *
+     * @param col Indexed column.
+     * @param key The key.
+     * @param rowIds Rows referenced by the key.
+     * @param readTs Read timestamp.
+     * @return Rows cursor.
+     */
+    static Cursor<Tuple> resolve(int col, Tuple key, Cursor<VersionChain<Tuple>> rowIds, Timestamp readTs) {
+        return new Cursor<Tuple>() {
+            @Override
+            public Tuple next() {
+                while (true) {
+                    VersionChain<Tuple> rowId = rowIds.next();
+
+                    if (rowId == null) {
+                        return null;
+                    }
+
+                    Tuple row = rowId.resolve(null, readTs, tup -> tup != Tuple.TOMBSTONE && tup.select(col).equals(key));
+
+                    if (row != null) {
+                        return row;
+                    }
+                }
+            }
+        };
+    }
 }
@@ -0,0 +1,199 @@
+package com.ascherbakoff.ai3.table;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Order-preserving binary encoding of index keys: encoded keys compare as unsigned bytes in the same order as tuples.
+ *
+ * <p>Each column starts with a type tag, so nulls are first. Ints and longs are written big-endian with a flipped
+ * sign bit. Doubles are written as bits with the sign bit flipped for positive values and all bits flipped for negative
+ * ones. Strings are written char by char with the UTF-8 rules (1 byte for ASCII), a zero char is escaped as
+ * {@code 0x00 0xFF}, and terminated by {@code 0x00 0x01}. Surrogates are encoded as separate chars (as in CESU-8), so
+ * the bytes follow {@link String#compareTo} order, rather than the code point order of standard UTF-8. A key, which is
+ * a prefix of another key, is first.
+ */
+final class KeyEncoder {
+    // Column tags.
+    private static final byte NULL = 0x00;
+    private static final byte INT = 0x10;
+    private static final byte LONG = 0x20;
+    private static final byte DOUBLE = 0x30;
+    private static final byte STRING = 0x40;
+
+    private KeyEncoder() {
+    }
+
+    /**
+     * @param key The key.
+     * @return Encoded key.
+     * @throws IllegalArgumentException If a column type is not supported.
+     */
+    static byte[] encode(Tuple key) {
+        byte[] buf = new byte[size(key)];
+        int pos = 0;
+
+        for (int i = 0; i < key.length(); i++) {
+            Object val = key.get(i);
+
+            if (val == null) {
+                buf[pos++] = NULL;
+            } else if (val instanceof Integer) {
+                buf[pos++] = INT;
+                pos = putInt(buf, pos, (Integer) val ^ Integer.MIN_VALUE);
+            } else if (val instanceof Long) {
+                buf[pos++] = LONG;
+                pos = putLong(buf, pos, (Long) val ^ Long.MIN_VALUE);
+            } else if (val instanceof Double) {
+                long bits = Double.doubleToLongBits((Double) val);
+
+                buf[pos++] = DOUBLE;
+                pos = putLong(buf, pos, bits ^ ((bits >> 63) | Long.MIN_VALUE));
+            } else {
+                String str = (String) val;
+
+                buf[pos++] = STRING;
+
+                for (int j = 0; j < str.length(); j++) {
+                    pos = putChar(buf, pos, str.charAt(j));
+                }
+
+                buf[pos++] = 0x00;
+                buf[pos++] = 0x01;
+            }
+        }
+
+        assert pos == buf.length;
+
+        return buf;
+    }
+
+    /**
+     * @param buf Encoded key.
+     * @return The key.
+     */
+    static Tuple decode(byte[] buf) {
+        List<Comparable<?>> vals = new ArrayList<>();
+        int pos = 0;
+
+        while (pos < buf.length) {
+            byte tag = buf[pos++];
+
+            switch (tag) {
+                case NULL:
+                    vals.add(null);
+                    break;
+                case INT:
+                    vals.add(getInt(buf, pos) ^ Integer.MIN_VALUE);
+                    pos += Integer.BYTES;
+                    break;
+                case LONG:
+                    vals.add(getLong(buf, pos) ^ Long.MIN_VALUE);
+                    pos += Long.BYTES;
+                    break;
+                case DOUBLE:
+                    long bits = getLong(buf, pos);
+                    vals.add(Double.longBitsToDouble(bits ^ ((~bits >> 63) | Long.MIN_VALUE)));
+                    pos += Long.BYTES;
+                    break;
+                case STRING:
+                    StringBuilder sb = new StringBuilder();
+
+                    while (buf[pos] != 0x00 || buf[pos + 1] != 0x01) {
+                        int b = buf[pos++] & 0xFF;
+
+                        if (b == 0) {
+                            pos++; // Skip the escape.
+                            sb.append('\0');
+                        } else if (b < 0x80) {
+                            sb.append((char) b);
+                        } else if (b < 0xE0) {
+                            sb.append((char) ((b & 0x1F) << 6 | buf[pos++] & 0x3F));
+                        } else {
+                            sb.append((char) ((b & 0x0F) << 12 | (buf[pos] & 0x3F) << 6 | buf[pos + 1] & 0x3F));
+                            pos += 2;
+                        }
+                    }
+
+                    vals.add(sb.toString());
+                    pos += 2;
+                    break;
+                default:
+                    throw new IllegalArgumentException("Bad key column tag: " + tag);
+            }
+        }
+
+        return Tuple.create(vals.toArray(new Comparable<?>[0]));
+    }
+
+    private static int size(Tuple key) {
+        int size = 0;
+
+        for (int i = 0; i < key.length(); i++) {
+            Object val = key.get(i);
+
+            if (val == null) {
+                size += 1;
+            } else if (val instanceof Integer) {
+                size += 1 + Integer.BYTES;
+            } else if (val instanceof Long || val instanceof Double) {
+                size += 1 + Long.BYTES;
+            } else if (val instanceof String) {
+                String str = (String) val;
+
+                size += 1 + 2;
+
+                for (int j = 0; j < str.length(); j++) {
+                    char c = str.charAt(j);
+
+                    size += c == 0 || c >= 0x80 && c < 0x800 ? 2 : c < 0x80 ? 1 : 3;
+                }
+            } else {
+                throw new IllegalArgumentException("Unsupported key column type: " + val.getClass().getName());
+            }
+        }
+
+        return size;
+    }
+
+    private static int putInt(byte[] buf, int pos, int val) {
+        buf[pos] = (byte) (val >>> 24);
+        buf[pos + 1] = (byte) (val >>> 16);
+        buf[pos + 2] = (byte) (val >>> 8);
+        buf[pos + 3] = (byte) val;
+
+        return pos + Integer.BYTES;
+    }
+
+    private static int getInt(byte[] buf, int pos) {
+        return (buf[pos] & 0xFF) << 24 | (buf[pos + 1] & 0xFF) << 16 | (buf[pos + 2] & 0xFF) << 8 | buf[pos + 3] & 0xFF;
+    }
+
+    private static long getLong(byte[] buf, int pos) {
+        return (long) getInt(buf, pos) << 32 | getInt(buf, pos + Integer.BYTES) & 0xFFFFFFFFL;
+    }
+
+    private static int putLong(byte[] buf, int pos, long val) {
+        pos = putInt(buf, pos, (int) (val >>> 32));
+
+        return putInt(buf, pos, (int) val);
+    }
+
+    private static int putChar(byte[] buf, int pos, char c) {
+        if (c == 0) {
+            buf[pos++] = 0x00;
+            buf[pos++] = (byte) 0xFF;
+        } else if (c < 0x80) {
+            buf[pos++] = (byte) c;
+        } else if (c < 0x800) {
+            buf[pos++] = (byte) (0xC0 | c >>> 6);
+            buf[pos++] = (byte) (0x80 | c & 0x3F);
+        } else {
+            buf[pos++] = (byte) (0xE0 | c >>> 12);
+            buf[pos++] = (byte) (0x80 | c >>> 6 & 0x3F);
+            buf[pos++] = (byte) (0x80 | c & 0x3F);
+        }
+
+        return pos;
+    }
+}
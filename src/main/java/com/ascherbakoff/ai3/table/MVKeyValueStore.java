@@ -2,10 +2,13 @@ package com.ascherbakoff.ai3.table;
 
 import com.ascherbakoff.ai3.clock.Timestamp;
 import java.lang.System.Logger.Level;
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.PriorityQueue;
 import java.util.Set;
 import java.util.UUID;
 import org.jetbrains.annotations.Nullable;
@@ -69,7 +72,7 @@ public class MVKeyValueStore<K extends Comparable<K>, V extends Comparable<V>> {
             rowStore.update(head, null, ts.toUUID());
             pending.put(ts, key);
 
-            return head1.getValue();
+            return head1 == null ? null : head1.getValue(); // Can be already removed.
         }
 
         return null;
@@ -79,7 +82,7 @@ public class MVKeyValueStore<K extends Comparable<K>, V extends Comparable<V>> {
         return rowStore.scan(ts);
     }
 
-    public void finish(Set<Timestamp> tss, boolean finish) {
+    public synchronized void finish(Set<Timestamp> tss, boolean finish) {
         for (Timestamp ts: tss) {
             K k = pending.remove(ts);
 
@@ -123,6 +126,41 @@ public class MVKeyValueStore<K extends Comparable<K>, V extends Comparable<V>> {
         return store;
     }
 
+    /**
+     * Returns a page of the latest versions of keys, which are visible at {@code high} and committed after {@code low},
+     * in the commit order. Removed keys are returned with null values.
+     *
+     * @param low Lower bound, exclusive.
+     * @param high Read timestamp.
+     * @param maxEntries Max number of entries.
+     * @return Commit timestamps and versions.
+     */
+    public synchronized List<Entry<Timestamp, Entry<K, V>>> snapshot(Timestamp low, Timestamp high, int maxEntries) {
+        // Keeps the first entries of the page, the latest one on top.
+        PriorityQueue<Entry<Timestamp, Entry<K, V>>> page = new PriorityQueue<>(
+                Entry.<Timestamp, Entry<K, V>>comparingByKey().reversed());
+
+        for (Entry<K, VersionChain<Entry<K, V>>> entry : pk.entrySet()) {
+            VersionChain<Entry<K, V>> ver = entry.getValue().version(high);
+
+            if (ver == null || ver.begin.compareTo(low) <= 0) {
+                continue;
+            }
+
+            page.add(new SimpleImmutableEntry<>(ver.begin,
+                    new SimpleImmutableEntry<>(entry.getKey(), ver.value == null ? null : ver.value.getValue())));
+
+            if (page.size() > maxEntries) {
+                page.poll();
+            }
+        }
+
+        List<Entry<Timestamp, Entry<K, V>>> res = new ArrayList<>(page);
+        res.sort(Entry.comparingByKey());
+
+        return res;
+    }
+
     /**
      * Merges the snapshot with the current state.
      * TODO handle concurrent load.
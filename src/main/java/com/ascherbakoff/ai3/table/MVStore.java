@@ -1,6 +1,7 @@
 package com.ascherbakoff.ai3.table;
 
 import com.ascherbakoff.ai3.clock.Timestamp;
+import java.util.Collection;
 import java.util.UUID;
 import java.util.concurrent.CompletableFuture;
 import java.util.function.Predicate;
@@ -20,12 +21,15 @@ public interface MVStore {
     // Fetches a tuple by rowId.
     CompletableFuture<Tuple> get(VersionChain<Tuple> rowId, UUID txId, Predicate<Tuple> filter);
 
-    // Run query in RO mode.
-    Cursor<Tuple> query(Query query, Timestamp readTs);
+    // Run query in RO mode. The cursor must be read to the end or closed.
+    SnapshotCursor<Tuple> query(Query query, Timestamp readTs);
 
     // Commits a transaction with a timestamp.
     void commit(UUID txId, Timestamp commitTs);
 
+    // Commits a batch of transactions with a single timestamp.
+    void commit(Collection<UUID> txIds, Timestamp commitTs);
+
     // Aborts a transaction
     void abort(UUID txId);
 
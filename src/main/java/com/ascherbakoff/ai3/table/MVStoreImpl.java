@@ -2,9 +2,14 @@ package com.ascherbakoff.ai3.table;
 
 import com.ascherbakoff.ai3.clock.Timestamp;
 import com.ascherbakoff.ai3.lock.Lock;
+import com.ascherbakoff.ai3.lock.LockException;
 import com.ascherbakoff.ai3.lock.LockMode;
 import com.ascherbakoff.ai3.lock.LockTable;
+import java.lang.System.Logger.Level;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
@@ -13,13 +18,30 @@ import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.Predicate;
 import org.jetbrains.annotations.Nullable;
 
 /**
- * TODO reduce copypaste, compact tx state
+ * TODO reduce copypaste
+ *
+ * <p>Old row versions are garbage collected by the low watermark, see {@link #lowWatermark()}. A vacuum is scheduled
+ * on the vacuum executor once the number of committed versions since the previous vacuum exceeds the number of rows,
+ * so its cost is amortized over commits and is not paid by a committing thread. A snapshot read is rejected if its
+ * timestamp is below the low watermark of a vacuum, which has already started.
  */
 public class MVStoreImpl implements MVStore {
+    private static System.Logger LOGGER = System.getLogger(MVStoreImpl.class.getName());
+
+    // Min number of committed versions between two vacuums.
+    static final int VACUUM_MIN_VERSIONS = 1024;
+
     final VersionChainRowStore<Tuple> rowStore;
     final LockTable lockTable;
     Map<Integer, Index> indexes;
@@ -28,11 +50,43 @@ public class MVStoreImpl implements MVStore {
 
     final int idxCnt;
 
+    // Read timestamps of open snapshot cursors with the number of cursors per timestamp.
+    private final ConcurrentSkipListMap<Timestamp, Integer> activeReads = new ConcurrentSkipListMap<>();
+
+    // The max low watermark used by a vacuum. Guarded by activeReads for updates, so a read is either seen by a vacuum
+    // or checked against its watermark.
+    private volatile Timestamp vacuumTs = Timestamp.min();
+
+    private final AtomicReference<Timestamp> lastCommitTs = new AtomicReference<>(Timestamp.min());
+
+    // Committed versions since the last vacuum.
+    private final AtomicLong versionsSinceVacuum = new AtomicLong();
+
+    private final AtomicBoolean vacuuming = new AtomicBoolean();
+
+    private final Executor vacuumExecutor;
+
     public MVStoreImpl(VersionChainRowStore<Tuple> rowStore, LockTable lockTable, Map<Integer, Index> indexes) {
+        this(rowStore, lockTable, indexes, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * @param rowStore Row store.
+     * @param lockTable Row lock table.
+     * @param indexes Indexes by columns.
+     * @param vacuumExecutor Runs vacuums in the background.
+     */
+    public MVStoreImpl(
+            VersionChainRowStore<Tuple> rowStore,
+            LockTable lockTable,
+            Map<Integer, Index> indexes,
+            Executor vacuumExecutor
+    ) {
         this.indexes = indexes;
         this.lockTable = lockTable;
         this.rowStore = rowStore;
         this.idxCnt = indexes.size();
+        this.vacuumExecutor = vacuumExecutor;
     }
 
     @Override
@@ -62,9 +116,13 @@ public class MVStoreImpl implements MVStore {
         txState.addLock(lock);
 
         return lock.acquire(txId, LockMode.X).thenCompose(ignored -> {
+            boolean rewrite = rowId.writtenBy(txId);
+
             Tuple oldRow = rowStore.update(rowId, newRow, txId);
 
-            txState.addWrite(rowId);
+            if (!rewrite) {
+                txState.addWrite(rowId);
+            }
 
             List<CompletableFuture> futs = new ArrayList<>(idxCnt);
 
@@ -126,15 +184,121 @@ public class MVStoreImpl implements MVStore {
                 throw new IllegalArgumentException("Index not found for col=" + query0.col);
             }
 
+            if (idx instanceof HashNonUniqueIndex) {
+                throw new IllegalArgumentException("Range query is not supported by a hash index: col=" + query0.col);
+            }
+
             return idx.range(txId, txState, query0);
         }
 
         return null;
     }
 
+    /**
+     * {@inheritDoc}
+     *
+     * @throws IllegalArgumentException If the read timestamp is below the low watermark of a started vacuum.
+     */
     @Override
-    public Cursor<Tuple> query(Query query, Timestamp readTs) {
-        return null;
+    public SnapshotCursor<Tuple> query(Query query, Timestamp readTs) {
+        // Registered before the cursor is built, so versions visible to the read are not collected.
+        synchronized (activeReads) {
+            Timestamp vacuumTs0 = vacuumTs;
+
+            if (readTs.compareTo(vacuumTs0) < 0) {
+                throw new IllegalArgumentException("Read timestamp is below the low watermark: readTs=" + readTs
+                        + ", lowWatermark=" + vacuumTs0);
+            }
+
+            activeReads.merge(readTs, 1, Integer::sum);
+        }
+
+        Cursor<Tuple> cur;
+
+        try {
+            cur = query0(query, readTs);
+        } catch (RuntimeException e) {
+            releaseRead(readTs);
+
+            throw e;
+        }
+
+        // The read is active until the cursor is exhausted or closed.
+        return new SnapshotCursor<Tuple>() {
+            private final AtomicBoolean done = new AtomicBoolean();
+
+            @Override
+            public Tuple next() {
+                if (done.get()) {
+                    return null;
+                }
+
+                Tuple row = cur.next();
+
+                if (row == null) {
+                    close();
+                }
+
+                return row;
+            }
+
+            @Override
+            public void close() {
+                if (done.compareAndSet(false, true)) {
+                    releaseRead(readTs);
+                }
+            }
+        };
+    }
+
+    private void releaseRead(Timestamp readTs) {
+        activeReads.computeIfPresent(readTs, (ts, cnt) -> cnt == 1 ? null : cnt - 1);
+    }
+
+    private Cursor<Tuple> query0(Query query, Timestamp readTs) {
+        // TODO FIXME remove instanceof
+        if (query instanceof ScanQuery) {
+            Cursor<Tuple> cur = rowStore.scan(readTs);
+
+            return new Cursor<Tuple>() {
+                @Override
+                public Tuple next() {
+                    Tuple row;
+
+                    do {
+                        row = cur.next();
+                    } while (row == Tuple.TOMBSTONE);
+
+                    return row;
+                }
+            };
+        } else if (query instanceof EqQuery) {
+            EqQuery query0 = (EqQuery) query;
+
+            Index idx = indexes.get(query0.col);
+
+            if (idx == null) {
+                throw new IllegalArgumentException("Index not found for col=" + query0.col);
+            }
+
+            return idx.eq(query0, readTs);
+        } else if (query instanceof RangeQuery) {
+            RangeQuery query0 = (RangeQuery) query;
+
+            Index idx = indexes.get(query0.col);
+
+            if (idx == null) {
+                throw new IllegalArgumentException("Index not found for col=" + query0.col);
+            }
+
+            if (idx instanceof HashNonUniqueIndex) {
+                throw new IllegalArgumentException("Range query is not supported by a hash index: col=" + query0.col);
+            }
+
+            return idx.range(query0, readTs);
+        }
+
+        throw new UnsupportedOperationException("Unsupported query: " + query);
     }
 
     @Override
@@ -145,12 +309,68 @@ public class MVStoreImpl implements MVStore {
             return; // Already finished.
         }
 
-        for (VersionChain<Tuple> write : state.writes) {
-            rowStore.commitWrite(write, commitTs, txId);
+        for (int i = 0; i < state.writeCnt; i++) {
+            rowStore.commitWrite(state.writes[i], commitTs, txId);
         }
 
-        for (Lock lock : state.locks) {
-            lock.release(txId);
+        try {
+            releaseLocks(state, txId);
+        } finally {
+            onCommitted(state.writeCnt, commitTs); // Writes are committed anyway.
+        }
+    }
+
+    /**
+     * Commits a batch of transactions with a single timestamp. Writes of all transactions are committed before locks are
+     * released. A lock held by several transactions of the batch is released for all of them at once, so waiters are
+     * granted once per lock.
+     *
+     * @param txIds Transaction ids.
+     * @param commitTs Commit timestamp.
+     * @throws LockException If a transaction doesn't hold a lock it has acquired. Other locks are released anyway.
+     */
+    @Override
+    public void commit(Collection<UUID> txIds, Timestamp commitTs) {
+        Map<Lock, List<UUID>> released = new HashMap<>();
+        int versions = 0;
+
+        for (UUID txId : txIds) {
+            TxState state = txnLocalMap.remove(txId);
+
+            if (state == null) {
+                continue; // Already finished.
+            }
+
+            for (int i = 0; i < state.writeCnt; i++) {
+                rowStore.commitWrite(state.writes[i], commitTs, txId);
+            }
+
+            versions += state.writeCnt;
+
+            for (int i = 0; i < state.lockCnt; i++) {
+                released.computeIfAbsent(state.locks[i], k -> new ArrayList<>(1)).add(txId);
+            }
+        }
+
+        boolean failed = false;
+
+        for (Entry<Lock, List<UUID>> entry : released.entrySet()) {
+            Lock lock = entry.getKey();
+
+            int cnt = lock.releaseAll(entry.getValue());
+
+            // A reference per released transaction.
+            for (int i = 0; i < cnt; i++) {
+                lock.releaseEntry();
+            }
+
+            failed |= cnt < entry.getValue().size();
+        }
+
+        onCommitted(versions, commitTs);
+
+        if (failed) {
+            throw new LockException("Bad locker");
         }
     }
 
@@ -162,17 +382,147 @@ public class MVStoreImpl implements MVStore {
             return; // Already finished.
         }
 
-        for (VersionChain<Tuple> write : state.writes) {
-            rowStore.abortWrite(write, txId);
+        for (int i = 0; i < state.writeCnt; i++) {
+            rowStore.abortWrite(state.writes[i], txId);
+        }
+
+        state.undo();
+
+        releaseLocks(state, txId);
+    }
+
+    /**
+     * Releases all locks of a transaction and their lock table entries. A failure to release a lock doesn't stop the
+     * release of others.
+     *
+     * @param state Transaction state.
+     * @param txId Transaction id.
+     * @throws RuntimeException The first failure, if any.
+     */
+    private static void releaseLocks(TxState state, UUID txId) {
+        RuntimeException err = null;
+
+        for (int i = 0; i < state.lockCnt; i++) {
+            Lock lock = state.locks[i];
+
+            try {
+                lock.release(txId);
+            } catch (RuntimeException e) {
+                if (err == null) {
+                    err = e;
+                }
+            } finally {
+                lock.releaseEntry();
+            }
+        }
+
+        if (err != null) {
+            throw err;
+        }
+    }
+
+    /**
+     * Garbage collects row versions invisible to reads at or above the low watermark, and removes index entries of
+     * removed versions. Removed rows reject updates.
+     *
+     * @param lowWatermark The low watermark.
+     * @return Number of removed versions.
+     */
+    public int vacuum(Timestamp lowWatermark) {
+        advanceVacuumTs(lowWatermark);
+
+        return rowStore.vacuum(lowWatermark, row -> row == Tuple.TOMBSTONE, this::onVacuum);
+    }
+
+    private void advanceVacuumTs(Timestamp lowWatermark) {
+        synchronized (activeReads) {
+            if (lowWatermark.compareTo(vacuumTs) > 0) {
+                vacuumTs = lowWatermark;
+            }
+        }
+    }
+
+    private void onVacuum(VersionChain<Tuple> rowId, Tuple row) {
+        if (row == Tuple.TOMBSTONE) {
+            return;
+        }
+
+        for (Index index : indexes.values()) {
+            index.vacuum(row, rowId);
+        }
+    }
+
+    /**
+     * Returns the low watermark: the read timestamp of the oldest open snapshot cursor, or the latest commit timestamp
+     * if there are no open cursors.
+     *
+     * @return The low watermark.
+     */
+    public Timestamp lowWatermark() {
+        Timestamp committed = lastCommitTs.get();
+        Entry<Timestamp, Integer> oldest = activeReads.firstEntry();
+
+        return oldest != null && oldest.getKey().compareTo(committed) < 0 ? oldest.getKey() : committed;
+    }
+
+    /**
+     * Tracks the latest commit timestamp and the number of committed versions.
+     *
+     * @param versions Number of committed versions.
+     * @param commitTs Commit timestamp.
+     */
+    private void onCommitted(int versions, Timestamp commitTs) {
+        lastCommitTs.accumulateAndGet(commitTs, (ts1, ts2) -> ts1.compareTo(ts2) >= 0 ? ts1 : ts2);
+
+        versionsSinceVacuum.addAndGet(versions);
+
+        scheduleVacuum();
+    }
+
+    /**
+     * Schedules a vacuum if enough versions were committed since the previous one and no vacuum is running.
+     */
+    private void scheduleVacuum() {
+        long total = versionsSinceVacuum.get();
+
+        if (total < VACUUM_MIN_VERSIONS || total < rowStore.getHeads().size() || !vacuuming.compareAndSet(false, true)) {
+            return;
         }
 
-        for (Runnable undo : state.undos) {
-            undo.run();
+        versionsSinceVacuum.addAndGet(-total);
+
+        try {
+            vacuumExecutor.execute(this::vacuumByWatermark);
+        } catch (RejectedExecutionException e) {
+            versionsSinceVacuum.addAndGet(total);
+            vacuuming.set(false);
+
+            LOGGER.log(Level.WARNING, "Failed to schedule a vacuum", e);
         }
+    }
+
+    /**
+     * Runs a vacuum by the current low watermark.
+     */
+    private void vacuumByWatermark() {
+        try {
+            Timestamp lowWatermark;
+
+            // Reads, which start after the watermark is computed, are checked against it.
+            synchronized (activeReads) {
+                lowWatermark = lowWatermark();
+                advanceVacuumTs(lowWatermark);
+            }
 
-        for (Lock lock : state.locks) {
-            lock.release(txId);
+            vacuum(lowWatermark);
+        } catch (RuntimeException e) {
+            LOGGER.log(Level.ERROR, "Vacuum failed", e);
+        } finally {
+            vacuuming.set(false);
         }
+
+        // Versions committed while the vacuum was running.
+        scheduleVacuum();
     }
 
     @Override
@@ -196,21 +546,134 @@ public class MVStoreImpl implements MVStore {
         return txnLocalMap.computeIfAbsent(txId, k -> new TxState());
     }
 
+    /**
+     * Transaction context. Locks, writes and undo records are kept in append-only arrays, which are allocated lazily
+     * and grown on demand.
+     */
     static class TxState {
-        Set<Lock> locks = new HashSet<>();
-        Set<VersionChain<Tuple>> writes = new HashSet<>();
-        Set<Runnable> undos = new HashSet<>();
+        // Lock count, after which duplicates are found by a hash lookup instead of a linear scan.
+        private static final int LOCK_SCAN_THRESHOLD = 8;
+
+        private static final Lock[] NO_LOCKS = new Lock[0];
+        private static final VersionChain<Tuple>[] NO_WRITES = newWrites(0);
+        private static final UndoRecord[] NO_UNDOS = new UndoRecord[0];
+
+        Lock[] locks = NO_LOCKS;
+        int lockCnt;
+        private @Nullable Set<Lock> lockSet;
+
+        VersionChain<Tuple>[] writes = NO_WRITES;
+        int writeCnt;
+
+        // Undo records, one per an index entry inserted by this transaction.
+        UndoRecord[] undos = NO_UNDOS;
+        int undoCnt;
 
         synchronized void addLock(Lock lock) {
-            locks.add(lock);
+            if (lockSet != null ? lockSet.contains(lock) : indexOf(lock) >= 0) {
+                lock.releaseEntry(); // Already referenced by this transaction.
+                return;
+            }
+
+            if (lockCnt == locks.length) {
+                locks = Arrays.copyOf(locks, Math.max(4, lockCnt * 2));
+            }
+
+            locks[lockCnt++] = lock;
+
+            if (lockSet != null) {
+                lockSet.add(lock);
+            } else if (lockCnt > LOCK_SCAN_THRESHOLD) {
+                lockSet = new HashSet<>(Arrays.asList(locks).subList(0, lockCnt));
+            }
+        }
+
+        synchronized void removeLock(Lock lock) {
+            int idx = indexOf(lock);
+
+            if (idx < 0) {
+                return;
+            }
+
+            assert lockSet == null || lockSet.contains(lock);
+
+            // Order doesn't matter, move the last lock to the freed slot.
+            locks[idx] = locks[--lockCnt];
+            locks[lockCnt] = null;
+
+            if (lockSet != null) {
+                lockSet.remove(lock);
+            }
+
+            lock.releaseEntry();
+        }
+
+        private int indexOf(Lock lock) {
+            for (int i = 0; i < lockCnt; i++) {
+                if (locks[i] == lock) {
+                    return i;
+                }
+            }
+
+            return -1;
         }
 
+        /**
+         * Adds a write. Must be called once per row, on the first write of the row by this transaction.
+         *
+         * @param rowId Row id.
+         */
         synchronized void addWrite(VersionChain<Tuple> rowId) {
-            writes.add(rowId);
+            if (writeCnt == writes.length) {
+                writes = Arrays.copyOf(writes, Math.max(4, writeCnt * 2));
+            }
+
+            writes[writeCnt++] = rowId;
         }
 
-        public void addUndo(Runnable r) {
-            undos.add(r);
+        /**
+         * Adds an undo record for an inserted index entry.
+         *
+         * @param index The index.
+         * @param key The key.
+         * @param rowId Row id.
+         */
+        synchronized void addUndo(Index index, Tuple key, VersionChain<Tuple> rowId) {
+            if (undoCnt == undos.length) {
+                undos = Arrays.copyOf(undos, Math.max(4, undoCnt * 2));
+            }
+
+            undos[undoCnt++] = new UndoRecord(index, key, rowId);
+        }
+
+        /**
+         * Reverts index entries inserted by this transaction.
+         */
+        void undo() {
+            for (int i = 0; i < undoCnt; i++) {
+                UndoRecord undo = undos[i];
+                undo.index.undoInsert(undo.key, undo.rowId);
+            }
+        }
+
+        @SuppressWarnings("unchecked")
+        private static VersionChain<Tuple>[] newWrites(int size) {
+            return (VersionChain<Tuple>[]) new VersionChain<?>[size];
+        }
+    }
+
+    /**
+     * An index entry inserted by a transaction.
+     */
+    private static final class UndoRecord {
+        final Index index;
+        final Tuple key;
+        final VersionChain<Tuple> rowId;
+
+        UndoRecord(Index index, Tuple key, VersionChain<Tuple> rowId) {
+            this.index = index;
+            this.key = key;
+            this.rowId = rowId;
         }
     }
 }
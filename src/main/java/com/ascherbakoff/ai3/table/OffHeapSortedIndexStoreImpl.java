@@ -0,0 +1,1032 @@
+package com.ascherbakoff.ai3.table;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.AbstractMap.SimpleEntry;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.function.LongFunction;
+import java.util.function.ToLongFunction;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Sorted index store backed by a B+-tree in off-heap pages. Keys are encoded by {@link KeyEncoder}, row ids are packed
+ * into longs. A tree entry is a (key, row id) pair, so the rows of a key don't need a separate set.
+ *
+ * <p>Concurrency is handled by optimistic lock coupling: each page has a version word, readers validate versions
+ * instead of locking and restart on a concurrent change, writers lock only the pages they modify. Full inner pages are
+ * split on the way down, so a split never propagates up. Pages are not merged on removal.
+ *
+ * <p>Leaves use prefix compression: the common prefix of leaf keys is stored once per page, entries keep only the rest
+ * of a key. The prefix is taken from the keys of a page on a split and is shortened when a key without it is inserted,
+ * so it needs no fence keys. Inner pages keep full keys, so adding a separator never grows other entries.
+ *
+ * <p>Returned keys are decoded from the tree.
+ *
+ * @param <T> Row id type.
+ */
+public class OffHeapSortedIndexStoreImpl<T> implements SortedIndexStore<T> {
+    static final int PAGE_SIZE = 8192;
+
+    // Max length of an encoded key.
+    static final int MAX_KEY_LEN = 1024;
+
+    // Pages are allocated in chunks.
+    private static final int CHUNK_PAGES = 64;
+
+    // Page layout: a header, then a slot array with entry offsets, which grows up, and entries, which grow down.
+    private static final int VERSION_OFF = 0;
+    private static final int TYPE_OFF = 8;
+    private static final int COUNT_OFF = 10;
+    private static final int DATA_OFF = 12; // The start of entries.
+    private static final int GARBAGE_OFF = 14; // Bytes of removed entries.
+    private static final int LINK_OFF = 16; // The next leaf for a leaf, the leftmost child for an inner page.
+    private static final int PREFIX_OFF = 20; // The start of the key prefix, which is stored with entries.
+    private static final int PREFIX_LEN_OFF = 22; // The key prefix length, always 0 for an inner page.
+    private static final int SLOTS_OFF = 24;
+
+    private static final byte LEAF = 1;
+    private static final byte INNER = 2;
+
+    private static final int NONE = -1;
+
+    // An inner page with less free space is split on the way down: a slot, a key length, a key, a row id and a child.
+    private static final int MAX_INNER_ENTRY = 2 + 2 + MAX_KEY_LEN + Long.BYTES + Integer.BYTES;
+
+    // Version word: the locked bit is set while a page is modified, the counter is incremented on each unlock.
+    private static final long LOCKED = 2;
+
+    private static final VarHandle VERSION = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.nativeOrder());
+
+    private static final Restart RESTART = new Restart();
+
+    private static final byte[] MIN_KEY = new byte[0];
+
+    private final ToLongFunction<T> toLong;
+
+    private final LongFunction<T> fromLong;
+
+    private final Object allocLock = new Object();
+
+    // Pages by ids, replaced on growth.
+    private volatile ByteBuffer[] pages = new ByteBuffer[0];
+
+    private int pageCnt;
+
+    private volatile int root;
+
+    /**
+     * @param toLong Packs a row id into a long, see {@link RowIdRegistry} for row ids, which are not numbers.
+     * @param fromLong Unpacks a row id.
+     */
+    public OffHeapSortedIndexStoreImpl(ToLongFunction<T> toLong, LongFunction<T> fromLong) {
+        this.toLong = toLong;
+        this.fromLong = fromLong;
+        this.root = allocPage(LEAF);
+    }
+
+    @Override
+    public Cursor<Entry<Tuple, Cursor<T>>> scan(@Nullable Tuple lower, boolean lowerInclusive, @Nullable Tuple upper, boolean upperInclusve) {
+        return new ScanCursor(
+                lower == null ? MIN_KEY : KeyEncoder.encode(lower),
+                lower == null || lowerInclusive ? -1 : 1,
+                upper == null ? null : KeyEncoder.encode(upper),
+                upperInclusve
+        );
+    }
+
+    @Override
+    public boolean insert(Tuple key, T rowId) {
+        byte[] key0 = KeyEncoder.encode(key);
+
+        if (key0.length > MAX_KEY_LEN) {
+            throw new IllegalArgumentException("Encoded key is too long: " + key0.length);
+        }
+
+        long row = toLong.applyAsLong(rowId);
+
+        while (true) {
+            try {
+                return insert0(key0, row);
+            } catch (Restart ignored) {
+                // Retry.
+            }
+        }
+    }
+
+    @Override
+    public boolean remove(Tuple key, T rowId) {
+        byte[] key0 = KeyEncoder.encode(key);
+        long row = toLong.applyAsLong(rowId);
+
+        while (true) {
+            try {
+                return remove0(key0, row);
+            } catch (Restart ignored) {
+                // Retry.
+            }
+        }
+    }
+
+    @Override
+    public @Nullable Tuple nextKey(Tuple key) {
+        ScanCursor cur = new ScanCursor(KeyEncoder.encode(key), 1, null, false);
+
+        return cur.advance() ? KeyEncoder.decode(cur.keys.get(cur.pos)) : null;
+    }
+
+    @Override
+    public boolean contains(Tuple key) {
+        byte[] key0 = KeyEncoder.encode(key);
+
+        return new ScanCursor(key0, -1, key0, true).advance();
+    }
+
+    private boolean insert0(byte[] key, long row) {
+        ByteBuffer parent = null;
+        long parentV = 0;
+
+        int nodeId = root;
+        ByteBuffer node = page(nodeId);
+        long v = readLock(node);
+
+        if (nodeId != root) {
+            throw RESTART;
+        }
+
+        while (type(node) == INNER) {
+            if (free(node) < MAX_INNER_ENTRY) {
+                lockForSplit(parent, parentV, nodeId, node, v);
+
+                try {
+                    int sibling = allocPage(INNER);
+                    splitInner(parent, nodeId, node, sibling);
+                } finally {
+                    writeUnlock(node);
+
+                    if (parent != null) {
+                        writeUnlock(parent);
+                    }
+                }
+
+                throw RESTART;
+            }
+
+            int childId;
+            ByteBuffer child;
+
+            try {
+                childId = child(node, key, row, 0);
+                child = page(childId);
+            } catch (IndexOutOfBoundsException e) {
+                throw RESTART; // Read a page under modification.
+            }
+
+            long childV = readLock(child);
+
+            check(node, v);
+
+            parent = node;
+            parentV = v;
+            nodeId = childId;
+            node = child;
+            v = childV;
+        }
+
+        int idx;
+        boolean exists;
+        int prefixLen;
+        int keep;
+
+        try {
+            idx = upperBound(node, key, row, 0);
+            exists = idx > 0 && compare(node, slot(node, idx - 1), key, row, 0) == 0;
+
+            // A key without the page prefix shortens it, so all entries grow.
+            prefixLen = prefixLen(node);
+            keep = matchPrefix(node, key);
+        } catch (IndexOutOfBoundsException e) {
+            throw RESTART; // Read a page under modification.
+        }
+
+        if (exists) {
+            check(node, v);
+
+            return false; // Already exists.
+        }
+
+        if (free(node) < 2 + leafEntrySize(key.length - keep) + (prefixLen - keep) * count(node)) {
+            lockForSplit(parent, parentV, nodeId, node, v);
+
+            try {
+                int sibling = allocPage(LEAF);
+                splitLeaf(parent, nodeId, node, sibling);
+            } finally {
+                writeUnlock(node);
+
+                if (parent != null) {
+                    writeUnlock(parent);
+                }
+            }
+
+            throw RESTART;
+        }
+
+        upgrade(node, v);
+
+        try {
+            if (keep < prefixLen) {
+                shortenPrefix(node, key, keep);
+            }
+
+            int off = reserve(node, idx, leafEntrySize(key.length - keep));
+            putEntry(node, off, key, keep, row);
+        } finally {
+            writeUnlock(node);
+        }
+
+        return true;
+    }
+
+    private boolean remove0(byte[] key, long row) {
+        long[] ver = new long[1];
+        int nodeId = findLeaf(key, row, 0, ver);
+        ByteBuffer node = page(nodeId);
+
+        int idx;
+        boolean exists;
+
+        try {
+            idx = upperBound(node, key, row, 0);
+            exists = idx > 0 && compare(node, slot(node, idx - 1), key, row, 0) == 0;
+        } catch (IndexOutOfBoundsException e) {
+            throw RESTART; // Read a page under modification.
+        }
+
+        if (!exists) {
+            check(node, ver[0]);
+
+            return false;
+        }
+
+        upgrade(node, ver[0]);
+
+        try {
+            int cnt = count(node);
+            int off = slot(node, idx - 1);
+
+            node.putShort(GARBAGE_OFF, (short) (garbage(node) + leafEntrySize(keyLen(node, off))));
+
+            for (int i = idx - 1; i < cnt - 1; i++) {
+                setSlot(node, i, slot(node, i + 1));
+            }
+
+            node.putShort(COUNT_OFF, (short) (cnt - 1));
+        } finally {
+            writeUnlock(node);
+        }
+
+        return true;
+    }
+
+    /**
+     * Finds the leaf, which contains the first entry after a bound, or the leaf before it.
+     *
+     * @param key Bound key.
+     * @param row Bound row id.
+     * @param rowMode Bound row mode, see {@link #compare(ByteBuffer, int, byte[], long, int)}.
+     * @param ver Receives the leaf version.
+     * @return Leaf id.
+     */
+    private int findLeaf(byte[] key, long row, int rowMode, long[] ver) {
+        int nodeId = root;
+        ByteBuffer node = page(nodeId);
+        long v = readLock(node);
+
+        if (nodeId != root) {
+            throw RESTART;
+        }
+
+        while (type(node) == INNER) {
+            int childId;
+            ByteBuffer child;
+
+            try {
+                childId = child(node, key, row, rowMode);
+                child = page(childId);
+            } catch (IndexOutOfBoundsException e) {
+                throw RESTART; // Read a page under modification.
+            }
+
+            long childV = readLock(child);
+
+            check(node, v);
+
+            nodeId = childId;
+            node = child;
+            v = childV;
+        }
+
+        ver[0] = v;
+
+        return nodeId;
+    }
+
+    /**
+     * Locks a page and its parent for a split.
+     */
+    private void lockForSplit(@Nullable ByteBuffer parent, long parentV, int nodeId, ByteBuffer node, long v) {
+        if (parent != null) {
+            upgrade(parent, parentV);
+        }
+
+        try {
+            upgrade(node, v);
+        } catch (Restart e) {
+            if (parent != null) {
+                writeUnlock(parent);
+            }
+
+            throw e;
+        }
+
+        if (parent == null && nodeId != root) {
+            writeUnlock(node);
+
+            throw RESTART;
+        }
+    }
+
+    private void splitLeaf(@Nullable ByteBuffer parent, int nodeId, ByteBuffer node, int siblingId) {
+        ByteBuffer sibling = page(siblingId);
+
+        int cnt = count(node);
+        byte[][] keys = new byte[cnt][];
+        long[] rows = new long[cnt];
+
+        for (int i = 0; i < cnt; i++) {
+            int off = slot(node, i);
+            keys[i] = key(node, off);
+            rows[i] = row(node, off);
+        }
+
+        int mid = splitPoint(keys, Long.BYTES);
+
+        sibling.putInt(LINK_OFF, node.getInt(LINK_OFF));
+
+        clear(node);
+        node.putInt(LINK_OFF, siblingId);
+
+        fillLeaf(node, keys[0], commonPrefix(keys[0], keys[mid - 1]), keys, rows, 0, mid);
+        fillLeaf(sibling, keys[mid], commonPrefix(keys[mid], keys[cnt - 1]), keys, rows, mid, cnt);
+
+        addSeparator(parent, nodeId, keys[mid], rows[mid], siblingId);
+    }
+
+    private void splitInner(@Nullable ByteBuffer parent, int nodeId, ByteBuffer node, int siblingId) {
+        ByteBuffer sibling = page(siblingId);
+
+        int cnt = count(node);
+        byte[][] keys = new byte[cnt][];
+        long[] rows = new long[cnt];
+        int[] children = new int[cnt];
+
+        for (int i = 0; i < cnt; i++) {
+            int off = slot(node, i);
+            keys[i] = key(node, off);
+            rows[i] = row(node, off);
+            children[i] = childAt(node, off);
+        }
+
+        // The middle separator moves up, its child becomes the leftmost child of the sibling.
+        int mid = Math.min(splitPoint(keys, Long.BYTES + Integer.BYTES), cnt - 2);
+
+        int link = node.getInt(LINK_OFF);
+
+        clear(node);
+        node.putInt(LINK_OFF, link);
+        sibling.putInt(LINK_OFF, children[mid]);
+
+        for (int i = 0; i < cnt; i++) {
+            if (i == mid) {
+                continue;
+            }
+
+            ByteBuffer dst = i < mid ? node : sibling;
+            int off = reserve(dst, count(dst), innerEntrySize(keys[i].length));
+            putEntry(dst, off, keys[i], 0, rows[i]);
+            dst.putInt(off + leafEntrySize(keys[i].length), children[i]);
+        }
+
+        addSeparator(parent, nodeId, keys[mid], rows[mid], siblingId);
+    }
+
+    /**
+     * Adds a separator for a new right sibling to the parent, or grows the tree if the split page is the root.
+     */
+    private void addSeparator(@Nullable ByteBuffer parent, int nodeId, byte[] key, long row, int siblingId) {
+        ByteBuffer dst = parent;
+
+        if (dst == null) {
+            int rootId = allocPage(INNER);
+            dst = page(rootId);
+            dst.putInt(LINK_OFF, nodeId);
+
+            int off = reserve(dst, 0, innerEntrySize(key.length));
+            putEntry(dst, off, key, 0, row);
+            dst.putInt(off + leafEntrySize(key.length), siblingId);
+
+            root = rootId; // Published under the old root lock.
+        } else {
+            int off = reserve(dst, upperBound(dst, key, row, 0), innerEntrySize(key.length));
+            putEntry(dst, off, key, 0, row);
+            dst.putInt(off + leafEntrySize(key.length), siblingId);
+        }
+    }
+
+    /**
+     * Rebuilds a leaf with a shorter prefix.
+     *
+     * @param p The leaf.
+     * @param key A key, which starts with the new prefix.
+     * @param prefixLen New prefix length.
+     */
+    private static void shortenPrefix(ByteBuffer p, byte[] key, int prefixLen) {
+        int cnt = count(p);
+        byte[][] keys = new byte[cnt][];
+        long[] rows = new long[cnt];
+
+        for (int i = 0; i < cnt; i++) {
+            int off = slot(p, i);
+            keys[i] = key(p, off);
+            rows[i] = row(p, off);
+        }
+
+        clear(p);
+        fillLeaf(p, key, prefixLen, keys, rows, 0, cnt);
+    }
+
+    /**
+     * Fills an empty leaf.
+     *
+     * @param p The leaf.
+     * @param prefix A key, which starts with the prefix.
+     * @param prefixLen Prefix length.
+     * @param keys Sorted keys, which start with the prefix.
+     * @param rows Row ids.
+     * @param from First entry, inclusive.
+     * @param to Last entry, exclusive.
+     */
+    private static void fillLeaf(ByteBuffer p, byte[] prefix, int prefixLen, byte[][] keys, long[] rows, int from, int to) {
+        int prefixOff = dataStart(p) - prefixLen;
+
+        p.duplicate().position(prefixOff).put(prefix, 0, prefixLen);
+        p.putShort(DATA_OFF, (short) prefixOff);
+        p.putShort(PREFIX_OFF, (short) prefixOff);
+        p.putShort(PREFIX_LEN_OFF, (short) prefixLen);
+
+        for (int i = from; i < to; i++) {
+            int off = reserve(p, count(p), leafEntrySize(keys[i].length - prefixLen));
+            putEntry(p, off, keys[i], prefixLen, rows[i]);
+        }
+    }
+
+    /**
+     * @return The common prefix length of two keys.
+     */
+    private static int commonPrefix(byte[] a, byte[] b) {
+        int n = Math.min(a.length, b.length);
+
+        for (int i = 0; i < n; i++) {
+            if (a[i] != b[i]) {
+                return i;
+            }
+        }
+
+        return n;
+    }
+
+    /**
+     * @return The first index of the right half, so that halves have about the same size.
+     */
+    private static int splitPoint(byte[][] keys, int extra) {
+        int total = 0;
+
+        for (byte[] key : keys) {
+            total += key.length + extra;
+        }
+
+        int acc = 0;
+
+        for (int i = 0; i < keys.length; i++) {
+            acc += keys[i].length + extra;
+
+            if (acc * 2 >= total) {
+                return Math.max(1, Math.min(i + 1, keys.length - 1));
+            }
+        }
+
+        return keys.length - 1;
+    }
+
+    /**
+     * Reserves space for an entry and inserts a slot for it. Compacts the page if free space is fragmented.
+     *
+     * @return The entry offset.
+     */
+    private static int reserve(ByteBuffer p, int idx, int size) {
+        int cnt = count(p);
+
+        if (dataStart(p) - (SLOTS_OFF + 2 * (cnt + 1)) < size) {
+            compact(p);
+        }
+
+        int off = dataStart(p) - size;
+
+        assert off >= SLOTS_OFF + 2 * (cnt + 1);
+
+        for (int i = cnt; i > idx; i--) {
+            setSlot(p, i, slot(p, i - 1));
+        }
+
+        setSlot(p, idx, off);
+
+        p.putShort(DATA_OFF, (short) off);
+        p.putShort(COUNT_OFF, (short) (cnt + 1));
+
+        return off;
+    }
+
+    private static void compact(ByteBuffer p) {
+        int cnt = count(p);
+        int extra = type(p) == INNER ? Integer.BYTES : 0;
+        byte[] tmp = new byte[PAGE_SIZE];
+        int pos = PAGE_SIZE - prefixLen(p);
+
+        p.duplicate().position(prefixStart(p)).get(tmp, pos, PAGE_SIZE - pos);
+        p.putShort(PREFIX_OFF, (short) pos);
+
+        for (int i = 0; i < cnt; i++) {
+            int off = slot(p, i);
+            int size = leafEntrySize(keyLen(p, off)) + extra;
+
+            pos -= size;
+            p.duplicate().position(off).get(tmp, pos, size);
+            setSlot(p, i, pos);
+        }
+
+        p.duplicate().position(pos).put(tmp, pos, PAGE_SIZE - pos);
+
+        p.putShort(DATA_OFF, (short) pos);
+        p.putShort(GARBAGE_OFF, (short) 0);
+    }
+
+    private static void clear(ByteBuffer p) {
+        p.putShort(COUNT_OFF, (short) 0);
+        p.putShort(DATA_OFF, (short) PAGE_SIZE);
+        p.putShort(GARBAGE_OFF, (short) 0);
+        p.putShort(PREFIX_OFF, (short) PAGE_SIZE);
+        p.putShort(PREFIX_LEN_OFF, (short) 0);
+    }
+
+    /**
+     * Writes an entry without the page prefix.
+     */
+    private static void putEntry(ByteBuffer p, int off, byte[] key, int prefixLen, long row) {
+        int len = key.length - prefixLen;
+
+        p.putShort(off, (short) len);
+        p.duplicate().position(off + 2).put(key, prefixLen, len);
+        p.putLong(off + 2 + len, row);
+    }
+
+    /**
+     * @return The number of entries less than or equal to a bound.
+     */
+    private static int upperBound(ByteBuffer p, byte[] key, long row, int rowMode) {
+        int res = comparePrefix(p, key);
+
+        if (res != 0) {
+            return res > 0 ? 0 : count(p); // All entries are after or before the bound.
+        }
+
+        int lo = 0;
+        int hi = count(p);
+
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+
+            if (compareEntry(p, slot(p, mid), key, row, rowMode) <= 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+
+        return lo;
+    }
+
+    /**
+     * @return The child of an inner page, which covers a bound.
+     */
+    private static int child(ByteBuffer p, byte[] key, long row, int rowMode) {
+        int idx = upperBound(p, key, row, rowMode);
+
+        return idx == 0 ? p.getInt(LINK_OFF) : childAt(p, slot(p, idx - 1));
+    }
+
+    /**
+     * Compares an entry with a bound.
+     *
+     * @param p The page.
+     * @param off Entry offset.
+     * @param key Bound key.
+     * @param row Bound row id.
+     * @param rowMode {@code 0} to compare row ids, {@code -1} or {@code 1} if the bound is before or after all rows
+     *      of the key.
+     * @return Comparison result.
+     */
+    private static int compare(ByteBuffer p, int off, byte[] key, long row, int rowMode) {
+        int res = comparePrefix(p, key);
+
+        return res != 0 ? res : compareEntry(p, off, key, row, rowMode);
+    }
+
+    /**
+     * Compares an entry with a bound, which starts with the page prefix.
+     */
+    private static int compareEntry(ByteBuffer p, int off, byte[] key, long row, int rowMode) {
+        int res = compareSuffix(p, off, key);
+
+        if (res != 0) {
+            return res;
+        }
+
+        return rowMode != 0 ? -rowMode : Long.compare(row(p, off), row);
+    }
+
+    /**
+     * Compares the page prefix with the start of a key.
+     *
+     * @return {@code 0} if the key starts with the prefix, the sign of the comparison of all page keys with the key
+     *      otherwise.
+     */
+    private static int comparePrefix(ByteBuffer p, byte[] key) {
+        int prefixLen = prefixLen(p);
+        int prefixOff = prefixStart(p);
+        int n = Math.min(prefixLen, key.length);
+
+        for (int i = 0; i < n; i++) {
+            int res = Byte.compareUnsigned(p.get(prefixOff + i), key[i]);
+
+            if (res != 0) {
+                return res;
+            }
+        }
+
+        return prefixLen > key.length ? 1 : 0;
+    }
+
+    /**
+     * Compares the rest of an entry key with the rest of a key, which starts with the page prefix.
+     */
+    private static int compareSuffix(ByteBuffer p, int off, byte[] key) {
+        int prefixLen = prefixLen(p);
+        int len = keyLen(p, off);
+        int n = Math.min(len, key.length - prefixLen);
+
+        for (int i = 0; i < n; i++) {
+            int res = Byte.compareUnsigned(p.get(off + 2 + i), key[prefixLen + i]);
+
+            if (res != 0) {
+                return res;
+            }
+        }
+
+        return prefixLen + len - key.length;
+    }
+
+    /**
+     * @return The length of the page prefix part, which a key starts with.
+     */
+    private static int matchPrefix(ByteBuffer p, byte[] key) {
+        int prefixLen = prefixLen(p);
+        int prefixOff = prefixStart(p);
+        int n = Math.min(prefixLen, key.length);
+
+        for (int i = 0; i < n; i++) {
+            if (p.get(prefixOff + i) != key[i]) {
+                return i;
+            }
+        }
+
+        return n;
+    }
+
+    /**
+     * @return The full key of an entry.
+     */
+    private static byte[] key(ByteBuffer p, int off) {
+        int prefixLen = prefixLen(p);
+        int prefixOff = prefixStart(p);
+        int len = keyLen(p, off);
+
+        if (off + 2 + len > PAGE_SIZE || prefixOff + prefixLen > PAGE_SIZE) {
+            throw RESTART; // Read a page under modification.
+        }
+
+        byte[] key = new byte[prefixLen + len];
+
+        p.duplicate().position(prefixOff).get(key, 0, prefixLen);
+        p.duplicate().position(off + 2).get(key, prefixLen, len);
+
+        return key;
+    }
+
+    private static int prefixStart(ByteBuffer p) {
+        return p.getShort(PREFIX_OFF) & 0xFFFF;
+    }
+
+    private static int prefixLen(ByteBuffer p) {
+        return p.getShort(PREFIX_LEN_OFF) & 0xFFFF;
+    }
+
+    /**
+     * @return The length of the rest of an entry key after the page prefix.
+     */
+    private static int keyLen(ByteBuffer p, int off) {
+        return p.getShort(off) & 0xFFFF;
+    }
+
+    private static long row(ByteBuffer p, int off) {
+        return p.getLong(off + 2 + keyLen(p, off));
+    }
+
+    private static int childAt(ByteBuffer p, int off) {
+        return p.getInt(off + 2 + keyLen(p, off) + Long.BYTES);
+    }
+
+    private static int leafEntrySize(int keyLen) {
+        return 2 + keyLen + Long.BYTES;
+    }
+
+    private static int innerEntrySize(int keyLen) {
+        return leafEntrySize(keyLen) + Integer.BYTES;
+    }
+
+    private static byte type(ByteBuffer p) {
+        return p.get(TYPE_OFF);
+    }
+
+    private static int count(ByteBuffer p) {
+        return p.getShort(COUNT_OFF) & 0xFFFF;
+    }
+
+    private static int dataStart(ByteBuffer p) {
+        return p.getShort(DATA_OFF) & 0xFFFF;
+    }
+
+    private static int garbage(ByteBuffer p) {
+        return p.getShort(GARBAGE_OFF) & 0xFFFF;
+    }
+
+    /**
+     * @return Free space including space of removed entries.
+     */
+    private static int free(ByteBuffer p) {
+        return dataStart(p) - (SLOTS_OFF + 2 * count(p)) + garbage(p);
+    }
+
+    private static int slot(ByteBuffer p, int idx) {
+        return p.getShort(SLOTS_OFF + 2 * idx) & 0xFFFF;
+    }
+
+    private static void setSlot(ByteBuffer p, int idx, int off) {
+        p.putShort(SLOTS_OFF + 2 * idx, (short) off);
+    }
+
+    /**
+     * @return Page version, waits while the page is locked.
+     */
+    private static long readLock(ByteBuffer p) {
+        long v;
+
+        while (((v = (long) VERSION.getAcquire(p, VERSION_OFF)) & LOCKED) != 0) {
+            Thread.onSpinWait();
+        }
+
+        return v;
+    }
+
+    /**
+     * Validates data read from a page.
+     *
+     * @throws Restart If the page was changed after the version was read.
+     */
+    private static void check(ByteBuffer p, long v) {
+        VarHandle.acquireFence();
+
+        if ((long) VERSION.getVolatile(p, VERSION_OFF) != v) {
+            throw RESTART;
+        }
+    }
+
+    private static void upgrade(ByteBuffer p, long v) {
+        if (!VERSION.compareAndSet(p, VERSION_OFF, v, v + LOCKED)) {
+            throw RESTART;
+        }
+    }
+
+    private static void writeUnlock(ByteBuffer p) {
+        VERSION.getAndAdd(p, VERSION_OFF, LOCKED);
+    }
+
+    private ByteBuffer page(int id) {
+        return pages[id];
+    }
+
+    private int allocPage(byte type) {
+        synchronized (allocLock) {
+            int id = pageCnt;
+            ByteBuffer[] pages0 = pages;
+
+            if (id == pages0.length) {
+                ByteBuffer chunk = ByteBuffer.allocateDirect(CHUNK_PAGES * PAGE_SIZE);
+
+                pages0 = Arrays.copyOf(pages0, id + CHUNK_PAGES);
+
+                for (int i = 0; i < CHUNK_PAGES; i++) {
+                    pages0[id + i] = chunk.duplicate().position(i * PAGE_SIZE).limit((i + 1) * PAGE_SIZE).slice();
+                }
+            }
+
+            ByteBuffer p = pages0[id];
+
+            p.put(TYPE_OFF, type);
+            clear(p);
+            p.putInt(LINK_OFF, NONE);
+
+            pageCnt = id + 1;
+            pages = pages0;
+
+            return id;
+        }
+    }
+
+    /**
+     * @return Number of allocated pages.
+     */
+    int pages() {
+        synchronized (allocLock) {
+            return pageCnt;
+        }
+    }
+
+    /**
+     * Iterates entries in order, a page at a time. A page is copied under an optimistic read, the next page is found
+     * from the tree after the last copied entry, so the scan is not affected by concurrent splits.
+     */
+    private class ScanCursor implements Cursor<Entry<Tuple, Cursor<T>>> {
+        private final @Nullable byte[] upper;
+        private final boolean upperInclusive;
+
+        // Entries are returned after this bound.
+        private byte[] boundKey;
+        private long boundRow;
+        private int boundMode;
+
+        private final List<byte[]> keys = new ArrayList<>();
+        private long[] rows = new long[16];
+        private int pos;
+        private boolean done;
+
+        ScanCursor(byte[] lower, int lowerMode, @Nullable byte[] upper, boolean upperInclusive) {
+            this.boundKey = lower;
+            this.boundMode = lowerMode;
+            this.upper = upper;
+            this.upperInclusive = upperInclusive;
+        }
+
+        @Override
+        public @Nullable Entry<Tuple, Cursor<T>> next() {
+            if (!advance()) {
+                return null;
+            }
+
+            byte[] key = keys.get(pos);
+            List<T> rows0 = new ArrayList<>(1);
+
+            do {
+                rows0.add(fromLong.apply(rows[pos++]));
+            } while (advance() && Arrays.equals(keys.get(pos), key));
+
+            return new SimpleEntry<>(KeyEncoder.decode(key), Cursor.wrap(rows0.iterator()));
+        }
+
+        /**
+         * @return True if there is a current entry.
+         */
+        boolean advance() {
+            if (pos < keys.size()) {
+                return true;
+            }
+
+            if (done) {
+                return false;
+            }
+
+            if (!keys.isEmpty()) {
+                boundKey = keys.get(keys.size() - 1);
+                boundRow = rows[keys.size() - 1];
+                boundMode = 0;
+            }
+
+            while (true) {
+                try {
+                    fetch();
+
+                    break;
+                } catch (Restart | IndexOutOfBoundsException ignored) {
+                    // Retry, a fetch only reads pages.
+                }
+            }
+
+            return pos < keys.size();
+        }
+
+        private void fetch() {
+            keys.clear();
+            pos = 0;
+
+            long[] ver = new long[1];
+            ByteBuffer p = page(findLeaf(boundKey, boundRow, boundMode, ver));
+            long v = ver[0];
+
+            while (true) {
+                int cnt = count(p);
+                int i = upperBound(p, boundKey, boundRow, boundMode);
+                boolean end = false;
+
+                // The upper bound is compared with the page prefix once.
+                int upperRes = upper == null ? -1 : comparePrefix(p, upper);
+
+                for (; i < cnt; i++) {
+                    int off = slot(p, i);
+
+                    if (upperRes >= 0) {
+                        int res = upperRes > 0 ? 1 : compareSuffix(p, off, upper);
+
+                        if (res > 0 || res == 0 && !upperInclusive) {
+                            end = true;
+
+                            break;
+                        }
+                    }
+
+                    if (keys.size() == rows.length) {
+                        rows = Arrays.copyOf(rows, rows.length * 2);
+                    }
+
+                    rows[keys.size()] = row(p, off);
+                    keys.add(key(p, off));
+                }
+
+                int next = p.getInt(LINK_OFF);
+
+                check(p, v);
+
+                if (end || next == NONE) {
+                    done = true;
+                }
+
+                if (done || !keys.isEmpty()) {
+                    return;
+                }
+
+                // Skip an empty page.
+                ByteBuffer nextPage = page(next);
+                long nextV = readLock(nextPage);
+
+                check(p, v);
+
+                p = nextPage;
+                v = nextV;
+            }
+        }
+    }
+
+    /**
+     * Signals a concurrent change of a page, an operation is restarted from the root.
+     */
+    private static class Restart extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        Restart() {
+            super(null, null, false, false);
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package com.ascherbakoff.ai3.table;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongFunction;
+import java.util.function.ToLongFunction;
+
+/**
+ * Maps row ids to longs for stores, which keep row ids off-heap, for example {@link VersionChain} heads of a
+ * {@link VersionChainRowStore} in an {@link OffHeapSortedIndexStoreImpl}. Ids are assigned in the order of first use.
+ *
+ * <p>TODO release ids of dropped rows, index entries are not removed yet.
+ *
+ * @param <T> Row id type, compared by {@link Object#equals(Object)}.
+ */
+public class RowIdRegistry<T> implements ToLongFunction<T>, LongFunction<T> {
+    private final Map<T, Long> ids = new ConcurrentHashMap<>();
+
+    private final Map<Long, T> rows = new ConcurrentHashMap<>();
+
+    private final AtomicLong cntr = new AtomicLong();
+
+    /**
+     * @param rowId Row id.
+     * @return Long id, assigned on first use.
+     */
+    @Override
+    public long applyAsLong(T rowId) {
+        return ids.computeIfAbsent(rowId, k -> {
+            long id = cntr.incrementAndGet();
+
+            rows.put(id, k); // Published before the id is returned.
+
+            return id;
+        });
+    }
+
+    /**
+     * @param id Long id.
+     * @return Row id.
+     */
+    @Override
+    public T apply(long id) {
+        T rowId = rows.get(id);
+
+        if (rowId == null) {
+            throw new IllegalArgumentException("Unknown row id: " + id);
+        }
+
+        return rowId;
+    }
+
+    /**
+     * @return Number of registered row ids.
+     */
+    public int size() {
+        return ids.size();
+    }
+}
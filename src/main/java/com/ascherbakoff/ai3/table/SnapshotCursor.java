@@ -0,0 +1,15 @@
+package com.ascherbakoff.ai3.table;
+
+/**
+ * A cursor over a snapshot, which holds the low watermark of the store until it is exhausted or closed. A cursor,
+ * which is not read to the end, must be closed, otherwise old versions are never collected.
+ *
+ * @param <T> Value type.
+ */
+public interface SnapshotCursor<T> extends Cursor<T>, AutoCloseable {
+    /**
+     * Releases the snapshot. Idempotent, the cursor returns no more values.
+     */
+    @Override
+    void close();
+}
@@ -1,5 +1,6 @@
 package com.ascherbakoff.ai3.table;
 
+import com.ascherbakoff.ai3.clock.Timestamp;
 import com.ascherbakoff.ai3.lock.Lock;
 import com.ascherbakoff.ai3.lock.LockMode;
 import com.ascherbakoff.ai3.lock.LockTable;
@@ -70,14 +71,14 @@ public class SortedNonUniqueIndex implements Index {
 
                     return curLock.acquire(txId, mode).thenAccept(ignored -> {
                         if (index.insert(newVal, rowId)) {
-                            txState.addUndo(() -> index.remove(newVal, rowId));
+                            txState.addUndo(this, newVal, rowId);
                         }
 
                         if (prevMode != null) {
                             nextLock.downgrade(txId, LockMode.IX, prevMode);
                         } else {
                             nextLock.release(txId);
-                            txState.locks.remove(nextLock);
+                            txState.removeLock(nextLock);
                         }
                     });
                 }));
@@ -155,4 +156,56 @@ public class SortedNonUniqueIndex implements Index {
     public Cursor<VersionChain<Tuple>> eq(EqQuery query0) {
         throw new UnsupportedOperationException("Not implemented");
     }
+
+    @Override
+    public void undoInsert(Tuple key, VersionChain<Tuple> rowId) {
+        index.remove(key, rowId);
+    }
+
+    @Override
+    public void vacuum(Tuple row, VersionChain<Tuple> rowId) {
+        Tuple key = row.select(col);
+
+        // Writes of the row are ordered with the check by the chain monitor. A write of the key after the removal
+        // inserts the entry again.
+        synchronized (rowId) {
+            if (!rowId.hasVersion(tup -> tup != Tuple.TOMBSTONE && tup.select(col).equals(key))) {
+                index.remove(key, rowId);
+            }
+        }
+    }
+
+    @Override
+    public Cursor<Tuple> eq(EqQuery query0, Timestamp readTs) {
+        return range(new RangeQuery(query0), readTs);
+    }
+
+    @Override
+    public Cursor<Tuple> range(RangeQuery query0, Timestamp readTs) {
+        Cursor<Entry<Tuple, Cursor<VersionChain<Tuple>>>> cur = index
+                .scan(query0.lowerKey, query0.lowerInclusive, query0.upperKey, query0.upperInclusive);
+
+        return new Cursor<Tuple>() {
+            Cursor<Tuple> rowIter = Cursor.empty();
+
+            @Override
+            public Tuple next() {
+                while (true) {
+                    Tuple row = rowIter.next();
+
+                    if (row != null) {
+                        return row;
+                    }
+
+                    Entry<Tuple, Cursor<VersionChain<Tuple>>> next = cur.next();
+
+                    if (next == null) {
+                        return null;
+                    }
+
+                    rowIter = Index.resolve(col, next.getKey(), next.getValue(), readTs);
+                }
+            }
+        };
+    }
 }
@@ -81,14 +81,14 @@ public class SortedUniqueIndex extends SortedNonUniqueIndex {
                         }
 
                         if (index.insert(newVal, rowId)) {
-                            txState.addUndo(() -> index.remove(newVal, rowId));
+                            txState.addUndo(this, newVal, rowId);
                         }
 
                         if (prevMode != null) { // Lock was upgraded.
                             nextLock.downgrade(txId, LockMode.IX, prevMode);
                         } else {
                             nextLock.release(txId);
-                            txState.locks.remove(nextLock);
+                            txState.removeLock(nextLock);
                         }
                     });
                 }));
@@ -18,7 +18,7 @@
 package com.ascherbakoff.ai3.table;
 
 /**
- *
+ * An immutable row of comparable columns.
  */
 public interface Tuple extends Comparable<Tuple> {
     static Tuple TOMBSTONE = Tuple.create();
@@ -26,13 +26,17 @@ public interface Tuple extends Comparable<Tuple> {
 
     <T> T get(int index);
 
-    void set(int index, Comparable value);
-
     int length();
 
+    /**
+     * @param index Column index.
+     * @return A tuple of a single column.
+     */
+    Tuple select(int index);
+
     Tuple select(int... indexes);
 
-    public static Tuple create(Comparable... values) {
+    public static Tuple create(Comparable<?>... values) {
         return new TupleImpl(values);
     }
 }
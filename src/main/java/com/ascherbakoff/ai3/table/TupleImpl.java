@@ -19,41 +19,135 @@ package com.ascherbakoff.ai3.table;
 
 import java.util.Arrays;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 /**
- * Simple tuple implementation.
+ * Columnar tuple implementation. Fixed width columns (int, long, double) are stored as bits in a primitive array, other
+ * values are stored by reference. Equality, hashing and comparison of fixed width columns don't box values.
+ *
+ * <p>Tuples are immutable, so {@link #select(int...)} returns a view over the columns of this tuple and index keys are
+ * not copied.
  */
 class TupleImpl implements Tuple {
-    private final Comparable[] values;
+    // Column types.
+    private static final byte NULL = 0;
+    private static final byte INT = 1;
+    private static final byte LONG = 2;
+    private static final byte DOUBLE = 3;
+    private static final byte REF = 4;
+
+    // Shared projections of a single column.
+    private static final int[][] SINGLE = new int[16][];
+
+    static {
+        for (int i = 0; i < SINGLE.length; i++) {
+            SINGLE[i] = new int[] {i};
+        }
+    }
+
+    private final byte[] types;
+
+    // Bits of fixed width columns.
+    private final long[] bits;
+
+    // Values of reference columns, null if there are none.
+    private final @Nullable Comparable<?>[] refs;
+
+    // Projected columns of a view, null for a tuple owning the columns.
+    private final @Nullable int[] cols;
+
+    TupleImpl(Comparable<?>... values) {
+        this.types = new byte[values.length];
+        this.bits = new long[values.length];
+        this.refs = hasRefs(values) ? new Comparable<?>[values.length] : null;
+        this.cols = null;
+
+        for (int i = 0; i < values.length; i++) {
+            init(i, values[i]);
+        }
+    }
+
+    private TupleImpl(TupleImpl base, int[] cols) {
+        this.types = base.types;
+        this.bits = base.bits;
+        this.refs = base.refs;
+        this.cols = cols;
+    }
+
+    private static boolean hasRefs(Comparable<?>[] values) {
+        for (Comparable<?> value : values) {
+            if (value != null && !(value instanceof Integer) && !(value instanceof Long) && !(value instanceof Double)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
 
-    TupleImpl(Comparable... values) {
-        this.values = values;
+    private int col(int index) {
+        return cols == null ? index : cols[index];
     }
 
+    @SuppressWarnings("unchecked")
     @Override
     public <T> T get(int index) {
-        return (T) values[index];
+        int col = col(index);
+
+        switch (types[col]) {
+            case INT:
+                return (T) Integer.valueOf((int) bits[col]);
+            case LONG:
+                return (T) Long.valueOf(bits[col]);
+            case DOUBLE:
+                return (T) Double.valueOf(Double.longBitsToDouble(bits[col]));
+            case REF:
+                return (T) refs[col];
+            default:
+                return null;
+        }
     }
 
-    @Override
-    public void set(int index, Comparable value) {
-        values[index] = value;
+    private void init(int index, @Nullable Comparable<?> value) {
+        if (value == null) {
+            types[index] = NULL;
+        } else if (value instanceof Integer) {
+            types[index] = INT;
+            bits[index] = (Integer) value;
+        } else if (value instanceof Long) {
+            types[index] = LONG;
+            bits[index] = (Long) value;
+        } else if (value instanceof Double) {
+            types[index] = DOUBLE;
+            bits[index] = Double.doubleToLongBits((Double) value);
+        } else {
+            assert refs != null;
+
+            types[index] = REF;
+            refs[index] = value;
+        }
     }
 
     @Override
     public int length() {
-        return values.length;
+        return cols == null ? types.length : cols.length;
+    }
+
+    @Override
+    public Tuple select(int index) {
+        int col = col(index);
+
+        return new TupleImpl(this, col < SINGLE.length ? SINGLE[col] : new int[] {col});
     }
 
     @Override
     public Tuple select(int... indexes) {
-        Comparable[] tmp = new Comparable[indexes.length];
+        int[] tmp = new int[indexes.length];
 
         for (int i = 0; i < indexes.length; i++) {
-            tmp[i] = values[indexes[i]];
+            tmp[i] = col(indexes[i]);
         }
 
-        return Tuple.create(tmp);
+        return new TupleImpl(this, tmp);
     }
 
     @Override
@@ -67,30 +161,116 @@ class TupleImpl implements Tuple {
 
         TupleImpl tuple = (TupleImpl) o;
 
-        // Probably incorrect - comparing Object[] arrays with Arrays.equals
-        if (!Arrays.equals(values, tuple.values)) {
+        if (length() != tuple.length()) {
             return false;
         }
 
+        for (int i = 0; i < length(); i++) {
+            int col = col(i);
+            int col0 = tuple.col(i);
+
+            if (types[col] != tuple.types[col0]) {
+                return false;
+            }
+
+            switch (types[col]) {
+                case NULL:
+                    break;
+                case REF:
+                    if (!refs[col].equals(tuple.refs[col0])) {
+                        return false;
+                    }
+                    break;
+                default:
+                    if (bits[col] != tuple.bits[col0]) {
+                        return false;
+                    }
+            }
+        }
+
         return true;
     }
 
+    /**
+     * The same as {@link Arrays#hashCode(Object[])} of column values.
+     */
     @Override
     public int hashCode() {
-        return Arrays.hashCode(values);
+        int h = 1;
+
+        for (int i = 0; i < length(); i++) {
+            int col = col(i);
+            int h0;
+
+            switch (types[col]) {
+                case NULL:
+                    h0 = 0;
+                    break;
+                case INT:
+                    h0 = (int) bits[col];
+                    break;
+                case REF:
+                    h0 = refs[col].hashCode();
+                    break;
+                default:
+                    h0 = Long.hashCode(bits[col]); // The same for doubles, because bits are canonical.
+            }
+
+            h = 31 * h + h0;
+        }
+
+        return h;
     }
 
+    /**
+     * Compares columns in order, nulls are first, then a shorter tuple is first. Columns of different types are
+     * compared as values.
+     */
     @Override
     public int compareTo(@NotNull Tuple o) {
         TupleImpl tuple = (TupleImpl) o;
 
         assert length() == tuple.length();
 
-        return Arrays.compare(values, tuple.values);
+        int len = Math.min(length(), tuple.length());
+
+        for (int i = 0; i < len; i++) {
+            int col = col(i);
+            int col0 = tuple.col(i);
+            byte type = types[col];
+            int res;
+
+            if (type == NULL || tuple.types[col0] == NULL) {
+                res = Boolean.compare(type != NULL, tuple.types[col0] != NULL);
+            } else if (type != tuple.types[col0] || type == REF) {
+                res = compareValues(get(i), tuple.get(i));
+            } else if (type == DOUBLE) {
+                res = Double.compare(Double.longBitsToDouble(bits[col]), Double.longBitsToDouble(tuple.bits[col0]));
+            } else {
+                res = Long.compare(bits[col], tuple.bits[col0]);
+            }
+
+            if (res != 0) {
+                return res;
+            }
+        }
+
+        return length() - tuple.length();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static int compareValues(Comparable<?> val, Object val0) {
+        return ((Comparable<Object>) val).compareTo(val0);
     }
 
     @Override
     public String toString() {
+        Object[] values = new Object[length()];
+
+        for (int i = 0; i < values.length; i++) {
+            values[i] = get(i);
+        }
+
         return "TupleImpl{" +
                 "values=" + Arrays.toString(values) +
                 '}';
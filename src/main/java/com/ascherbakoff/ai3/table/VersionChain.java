@@ -1,13 +1,13 @@
 package com.ascherbakoff.ai3.table;
 
 import com.ascherbakoff.ai3.clock.Timestamp;
+import java.util.List;
 import java.util.Objects;
 import java.util.UUID;
 import java.util.function.Predicate;
 import org.jetbrains.annotations.Nullable;
 
 class VersionChain<T> {
-    public static final int MAX_ALLOWED = 10;
     @Nullable Timestamp begin;
     @Nullable Timestamp end;
     T value;
@@ -17,6 +17,7 @@ class VersionChain<T> {
     @Nullable VersionChain<T> prev;
     @Nullable VersionChain<T> last; // TODO makes sense only for chain head.
     int cnt = 1; // TODO makes sense only for chain head.
+    boolean dropped; // Set on the head, when the chain is removed by garbage collection.
 
     VersionChain(UUID txId, @Nullable Timestamp begin, @Nullable Timestamp end, @Nullable T value) {
         this.txId = txId;
@@ -92,6 +93,14 @@ class VersionChain<T> {
                 '}';
     }
 
+    /**
+     * @param txId Txn id.
+     * @return True if the head is an uncommitted version written by the transaction.
+     */
+    synchronized boolean writtenBy(UUID txId) {
+        return txId.equals(this.txId);
+    }
+
     synchronized @Nullable T head() {
         return value;
     }
@@ -105,15 +114,25 @@ class VersionChain<T> {
             return filter == null ? value : filter.test(value) ? value : null;
         }
 
-        VersionChain<T> cur = this;
+        VersionChain<T> cur = version(timestamp);
 
-        do {
+        if (cur == null) {
+            return null;
+        }
+
+        return filter == null ? cur.value : filter.test(cur.value) ? cur.value : null;
+    }
+
+    /**
+     * @param timestamp The timestamp.
+     * @return The committed version visible at the timestamp or null.
+     */
+    synchronized @Nullable VersionChain<T> version(Timestamp timestamp) {
+        for (VersionChain<T> cur = this; cur != null; cur = cur.next) {
             if (cur.matches(timestamp)) {
-                return filter == null ? cur.value : filter.test(cur.value) ? cur.value : null;
+                return cur;
             }
-
-            cur = cur.next;
-        } while(cur != null);
+        }
 
         return null;
     }
@@ -128,6 +147,10 @@ class VersionChain<T> {
      * @param txId Txn id.
      */
     synchronized public T addWrite(T val, UUID txId) {
+        if (dropped) {
+            throw new IllegalStateException("The row is removed");
+        }
+
         if (txId.equals(this.txId)) {
             T oldVal = value;
             value = val;
@@ -154,17 +177,88 @@ class VersionChain<T> {
             setLast(next0);
         }
 
-        // Cut tail.
-        if (cnt > MAX_ALLOWED) {
-            VersionChain<T> tail = getLast().getPrev();
-            setLast(tail);
-            tail.setNext(null);
-            cnt--;
-        }
+        // History is bounded by prune.
 
         return oldVal;
     }
 
+    /**
+     * Removes versions, which are invisible to readers at or above the low watermark.
+     * Versions are ordered from newest to oldest, so the tail after the first such version is cut.
+     *
+     * @param lowWatermark The low watermark: the oldest active read timestamp.
+     * @param removedVals Receives values of removed versions, if not null.
+     * @return Number of removed versions.
+     */
+    synchronized int prune(Timestamp lowWatermark, @Nullable List<T> removedVals) {
+        VersionChain<T> prev = this;
+        VersionChain<T> cur = next;
+        int removed = 0;
+
+        while (cur != null) {
+            if (cur.end != null && cur.end.compareTo(lowWatermark) <= 0) {
+                prev.next = null;
+                cur.prev = null;
+
+                for (; cur != null; cur = cur.next) {
+                    removed++;
+
+                    if (removedVals != null) {
+                        removedVals.add(cur.value);
+                    }
+                }
+
+                break;
+            }
+
+            prev = cur;
+            cur = cur.next;
+        }
+
+        if (removed > 0) {
+            int cnt0 = 1;
+
+            for (VersionChain<T> c = next; c != null; c = c.next) {
+                cnt0++;
+            }
+
+            cnt = cnt0;
+            last = cnt0 < 2 ? null : prev;
+        }
+
+        return removed;
+    }
+
+    /**
+     * Marks the chain as dropped if the latest version is a committed tombstone visible to all readers at or above the
+     * low watermark. A dropped chain rejects writes.
+     *
+     * @param lowWatermark The low watermark.
+     * @param tombstone Tombstone predicate.
+     * @return True if the chain is dropped.
+     */
+    synchronized boolean drop(Timestamp lowWatermark, Predicate<T> tombstone) {
+        if (txId == null && begin != null && begin.compareTo(lowWatermark) <= 0 && tombstone.test(value)) {
+            dropped = true;
+        }
+
+        return dropped;
+    }
+
+    /**
+     * @param pred The predicate.
+     * @return True if some version, including an uncommitted one, matches the predicate.
+     */
+    synchronized boolean hasVersion(Predicate<T> pred) {
+        for (VersionChain<T> cur = this; cur != null; cur = cur.next) {
+            if (pred.test(cur.value)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
     synchronized public void printVersionChain() {
         System.out.println("head=" + (long)(hashCode() & (-1)));
         System.out.println("begin=" + begin + " end=" + end + ", value=" + value);
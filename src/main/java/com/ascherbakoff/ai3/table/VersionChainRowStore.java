@@ -1,11 +1,14 @@
 package com.ascherbakoff.ai3.table;
 
 import com.ascherbakoff.ai3.clock.Timestamp;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiConsumer;
 import java.util.function.Predicate;
 import org.jetbrains.annotations.Nullable;
 
@@ -63,6 +66,57 @@ public class VersionChainRowStore<T> implements RowStore<VersionChain<T>, T> {
         rowId.abortWrite(txId);
     }
 
+    /**
+     * Removes versions, which are invisible to readers at or above the low watermark, and drops chains ending with
+     * a tombstone visible to all such readers. Can be called concurrently with reads and writes, for example from
+     * a background thread. A dropped chain rejects writes.
+     *
+     * @param lowWatermark The low watermark: the oldest active read timestamp.
+     * @param tombstone Tombstone predicate.
+     * @return Number of removed versions.
+     */
+    public int vacuum(Timestamp lowWatermark, Predicate<T> tombstone) {
+        return vacuum(lowWatermark, tombstone, null);
+    }
+
+    /**
+     * Same as {@link #vacuum(Timestamp, Predicate)}, notifies about removed versions, for example to clean up index
+     * entries. Versions of a chain are reported before the chain is dropped.
+     *
+     * @param lowWatermark The low watermark: the oldest active read timestamp.
+     * @param tombstone Tombstone predicate.
+     * @param onRemoved Receives a chain and a value of its removed version.
+     * @return Number of removed versions.
+     */
+    public int vacuum(Timestamp lowWatermark, Predicate<T> tombstone, @Nullable BiConsumer<VersionChain<T>, T> onRemoved) {
+        int removed = 0;
+
+        List<T> removedVals = onRemoved == null ? null : new ArrayList<>();
+
+        Iterator<VersionChain<T>> iter = heads.iterator();
+
+        while (iter.hasNext()) {
+            VersionChain<T> head = iter.next();
+
+            removed += head.prune(lowWatermark, removedVals);
+
+            if (removedVals != null && !removedVals.isEmpty()) {
+                for (T val : removedVals) {
+                    onRemoved.accept(head, val);
+                }
+
+                removedVals.clear();
+            }
+
+            if (head.drop(lowWatermark, tombstone)) {
+                iter.remove();
+                removed++;
+            }
+        }
+
+        return removed;
+    }
+
     public Set<VersionChain<T>> getHeads() {
         return heads;
     }
@@ -0,0 +1,143 @@
+package com.ascherbakoff.ai3.clock;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import org.junit.jupiter.api.Test;
+
+public class LockFreeClockTest {
+    @Test
+    public void testPacking() {
+        Timestamp ts = new Timestamp(12345, 17);
+
+        assertEquals(ts, Timestamp.unpack(ts.toLong()));
+        assertTrue(new Timestamp(1, Timestamp.COUNTER_MASK).toLong() < new Timestamp(2, 0).toLong());
+    }
+
+    @Test
+    public void testPackedCompare() {
+        Timestamp ts = new Timestamp(100, 5);
+
+        assertEquals(0, Timestamp.compare(ts.toLong(), ts));
+        assertTrue(Timestamp.compare(new Timestamp(100, 4).toLong(), ts) < 0);
+        assertTrue(Timestamp.compare(new Timestamp(101, 0).toLong(), ts) > 0);
+        assertTrue(Timestamp.compare(ts.toLong(), new Timestamp(100, Timestamp.COUNTER_MASK + 1)) < 0);
+
+        assertEquals(ts.adjust(10).toLong(), Timestamp.adjust(ts.toLong(), 10));
+    }
+
+    @Test
+    public void testNow() {
+        ManualTimeProvider provider = new ManualTimeProvider();
+        provider.set(10);
+
+        LockFreeClock clock = new LockFreeClock(provider);
+
+        assertEquals(new Timestamp(10, 0), clock.now());
+        assertEquals(new Timestamp(10, 1), clock.now());
+
+        provider.adjust(1);
+
+        assertEquals(new Timestamp(11, 0), clock.now());
+    }
+
+    @Test
+    public void testCounterOverflow() {
+        ManualTimeProvider provider = new ManualTimeProvider();
+
+        LockFreeClock clock = new LockFreeClock(provider);
+
+        clock.onRequest(new Timestamp(0, Timestamp.COUNTER_MASK));
+
+        assertEquals(new Timestamp(1, 0), clock.now());
+    }
+
+    @Test
+    public void testRemoteCounterOverflow() {
+        ManualTimeProvider provider = new ManualTimeProvider();
+        provider.set(10);
+
+        LockFreeClock clock = new LockFreeClock(provider);
+
+        // A remote clock can have a wider counter.
+        Timestamp remote = new Timestamp(20, Timestamp.COUNTER_MASK + 5);
+
+        clock.onRequest(remote);
+
+        Timestamp now = clock.now();
+        assertTrue(now.compareTo(remote) > 0);
+        assertEquals(new Timestamp(21, 1), now);
+
+        clock.onResponse(new Timestamp(21, Timestamp.COUNTER_MASK * 2));
+        assertEquals(new Timestamp(22, 1), clock.now());
+
+        assertEquals(Timestamp.pack(Timestamp.MAX_PHYSICAL, Timestamp.COUNTER_MASK),
+                new Timestamp(Timestamp.MAX_PHYSICAL + 1, 0).toLongCeil());
+    }
+
+    @Test
+    public void testOnRequest() {
+        ManualTimeProvider provider = new ManualTimeProvider();
+        provider.set(10);
+
+        LockFreeClock clock = new LockFreeClock(provider);
+
+        clock.onRequest(new Timestamp(20, 5));
+        assertEquals(new Timestamp(20, 6), clock.now());
+
+        // Never goes back.
+        clock.onRequest(new Timestamp(15, 0));
+        assertEquals(new Timestamp(20, 7), clock.now());
+    }
+
+    @Test
+    public void testConcurrentMonotonic() throws InterruptedException {
+        ManualTimeProvider provider = new ManualTimeProvider();
+
+        LockFreeClock clock = new LockFreeClock(provider);
+
+        int threads = 4;
+        int iters = 10_000;
+
+        Set<Long> seen = ConcurrentHashMap.newKeySet();
+        CountDownLatch latch = new CountDownLatch(threads);
+        List<Thread> list = new ArrayList<>();
+
+        for (int i = 0; i < threads; i++) {
+            Thread t = new Thread(() -> {
+                try {
+                    long prev = -1;
+
+                    for (int j = 0; j < iters; j++) {
+                        if (j % 1000 == 0) {
+                            provider.adjust(1);
+                        }
+
+                        long now = clock.nowLong();
+
+                        if (now > prev) {
+                            seen.add(now);
+                        }
+
+                        prev = now;
+                    }
+                } finally {
+                    latch.countDown();
+                }
+            });
+
+            list.add(t);
+            t.start();
+        }
+
+        latch.await();
+
+        // Each timestamp is unique and grows within a thread.
+        assertEquals(threads * iters, seen.size());
+    }
+}
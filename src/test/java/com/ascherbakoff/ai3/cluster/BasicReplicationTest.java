@@ -5,6 +5,7 @@ import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 import com.ascherbakoff.ai3.clock.Timestamp;
+import com.ascherbakoff.ai3.replication.ReplicationOptions;
 import com.ascherbakoff.ai3.util.BasicTest;
 import java.util.HashSet;
 import java.util.Set;
@@ -26,6 +27,8 @@ public class BasicReplicationTest extends BasicTest {
 
     Set<NodeId> nodeIds;
 
+    ReplicationOptions options = new ReplicationOptions();
+
     protected void waitLeader(Timestamp ts, NodeId nodeId, Tracker tracker, Topology top, String grp) {
         for (Node node : top.getNodeMap().values()) {
             assertTrue(waitForCondition(() -> {
@@ -93,23 +96,23 @@ public class BasicReplicationTest extends BasicTest {
 
     protected void createCluster(int nodes) {
         top = new Topology();
-        top.regiser(new Node(alice, top, clock, GRP_NAME));
-        top.regiser(new Node(bob, top, clock, GRP_NAME));
+        top.regiser(new Node(alice, top, clock, options, GRP_NAME));
+        top.regiser(new Node(bob, top, clock, options, GRP_NAME));
 
         nodeIds = new HashSet<>();
         nodeIds.add(alice);
         nodeIds.add(bob);
 
         if (nodes >= 3) {
-            top.regiser(new Node(charlie, top, clock, GRP_NAME));
+            top.regiser(new Node(charlie, top, clock, options, GRP_NAME));
             nodeIds.add(charlie);
         }
 
         if (nodes >= 5) {
-            top.regiser(new Node(dave, top, clock, GRP_NAME));
+            top.regiser(new Node(dave, top, clock, options, GRP_NAME));
             nodeIds.add(dave);
 
-            top.regiser(new Node(eve, top, clock, GRP_NAME));
+            top.regiser(new Node(eve, top, clock, options, GRP_NAME));
             nodeIds.add(eve);
         }
 
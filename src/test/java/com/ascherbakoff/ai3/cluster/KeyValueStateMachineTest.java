@@ -0,0 +1,100 @@
+package com.ascherbakoff.ai3.cluster;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import com.ascherbakoff.ai3.clock.Timestamp;
+import com.ascherbakoff.ai3.replication.Put;
+import com.ascherbakoff.ai3.replication.Replicate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import org.junit.jupiter.api.Test;
+
+public class KeyValueStateMachineTest {
+    @Test
+    public void testApply() {
+        KeyValueStateMachine sm = new KeyValueStateMachine();
+
+        sm.apply(1, ts(1), new Put(0, 0));
+        sm.apply(2, ts(2), new Put(1, 1));
+        sm.apply(3, ts(3), new Put(0, 2)); // Same key in the batch.
+        sm.apply(4, ts(4), new Put(2, null)); // Removal of an absent key.
+        sm.flush();
+
+        assertNull(sm.get(0, ts(0)));
+        assertEquals(0, sm.get(0, ts(1)));
+        assertEquals(0, sm.get(0, ts(2)));
+        assertEquals(2, sm.get(0, ts(3)));
+        assertEquals(1, sm.get(1, ts(4)));
+        assertNull(sm.get(2, ts(4)));
+
+        sm.apply(5, ts(5), new Put(1, null));
+        sm.apply(6, ts(6), new Put(1, null)); // Already removed.
+        sm.apply(7, ts(7), new Put(1, 7));
+        sm.flush();
+
+        assertNull(sm.get(1, ts(5)));
+        assertNull(sm.get(1, ts(6)));
+        assertEquals(7, sm.get(1, ts(7)));
+        assertEquals(1, sm.get(1, ts(4)));
+    }
+
+    @Test
+    public void testSnapshot() {
+        KeyValueStateMachine sm = new KeyValueStateMachine();
+
+        sm.apply(1, ts(1), new Put(0, 0));
+        sm.apply(2, ts(2), new Put(1, 1));
+        sm.apply(3, ts(3), new Put(0, 2));
+        sm.apply(4, ts(4), new Put(1, null));
+        sm.flush();
+
+        assertEquals(List.of(e(3, 3, 0, 2), e(4, 4, 1, null)), entries(sm.snapshot(Timestamp.min(), 10)));
+        assertEquals(List.of(e(4, 4, 1, null)), entries(sm.snapshot(ts(3), 10)));
+        assertEquals(List.of(), entries(sm.snapshot(ts(4), 10)));
+
+        // Pages.
+        assertEquals(List.of(e(3, 3, 0, 2)), entries(sm.snapshot(Timestamp.min(), 1)));
+        assertEquals(List.of(e(4, 4, 1, null)), entries(sm.snapshot(ts(3), 1)));
+
+        // A removal of an absent key.
+        sm.apply(5, ts(5), new Put(2, null));
+        sm.flush();
+
+        assertEquals(List.of(e(4, 4, 1, null), e(5, 5, 2, null)), entries(sm.snapshot(ts(3), 10)));
+
+        // Overwrite moves the key to the end.
+        sm.apply(6, ts(6), new Put(0, 6));
+        sm.flush();
+
+        assertEquals(List.of(e(4, 4, 1, null), e(5, 5, 2, null), e(6, 6, 0, 6)), entries(sm.snapshot(Timestamp.min(), 10)));
+    }
+
+    @Test
+    public void testOpaque() {
+        KeyValueStateMachine sm = new KeyValueStateMachine();
+
+        sm.apply(1, ts(1), new Put(0, 0));
+        sm.apply(2, ts(2), "opaque");
+        sm.flush();
+
+        assertEquals(0, sm.get(0, ts(2)));
+        assertNull(sm.snapshot(Timestamp.min(), 10));
+    }
+
+    private static Timestamp ts(long t) {
+        return new Timestamp(t, 0);
+    }
+
+    private static Entry<Timestamp, Replicate> e(long ts, long cntr, int key, Integer val) {
+        return Map.entry(ts(ts), new Replicate(cntr, new Put(key, val)));
+    }
+
+    private static List<Entry<Timestamp, Replicate>> entries(Iterable<Entry<Timestamp, Replicate>> snap) {
+        List<Entry<Timestamp, Replicate>> res = new ArrayList<>();
+        snap.forEach(res::add);
+        return res;
+    }
+}
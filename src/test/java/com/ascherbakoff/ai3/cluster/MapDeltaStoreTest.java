@@ -0,0 +1,100 @@
+package com.ascherbakoff.ai3.cluster;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.ascherbakoff.ai3.clock.Timestamp;
+import com.ascherbakoff.ai3.replication.Put;
+import com.ascherbakoff.ai3.replication.Replicate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map.Entry;
+import org.junit.jupiter.api.Test;
+
+public class MapDeltaStoreTest {
+    @Test
+    public void testCompaction() {
+        MapDeltaStore store = new MapDeltaStore(true);
+
+        // Keys 0..4 are overwritten 4 times.
+        for (int i = 0; i < 20; i++) {
+            store.put(ts(i), new Replicate(i + 1, new Put(i % 5, i)));
+        }
+
+        store.compact(ts(14));
+
+        assertEquals(ts(14), store.compactTs());
+        assertEquals(5 + 5, store.logSize());
+
+        // Delta snapshot above the compaction point.
+        List<Entry<Timestamp, Replicate>> delta = list(store.snapshot(ts(14), ts(19)));
+        assertEquals(5, delta.size());
+        assertEquals(ts(15), delta.get(0).getKey());
+
+        // Full state transfer: latest value per key below compactTs followed by the log.
+        List<Entry<Timestamp, Replicate>> full = list(store.snapshot(Timestamp.min(), ts(19)));
+        assertEquals(10, full.size());
+
+        for (int i = 0; i < 10; i++) {
+            assertEquals(ts(10 + i), full.get(i).getKey());
+            assertEquals(new Put(i % 5, 10 + i), full.get(i).getValue().getData());
+        }
+
+        // Full state transfer by pages, which cross the compaction point.
+        List<Entry<Timestamp, Replicate>> paged = new ArrayList<>();
+        Timestamp low = Timestamp.min();
+
+        while (true) {
+            List<Entry<Timestamp, Replicate>> page = list(store.snapshot(low, ts(19), 3));
+
+            if (page.isEmpty()) {
+                break;
+            }
+
+            assertTrue(page.size() <= 3);
+
+            paged.addAll(page);
+            low = page.get(page.size() - 1).getKey();
+        }
+
+        assertEquals(full, paged);
+
+        // A page of the delta.
+        List<Entry<Timestamp, Replicate>> page = list(store.snapshot(ts(14), ts(19), 2));
+        assertEquals(List.of(ts(15), ts(16)), List.of(page.get(0).getKey(), page.get(1).getKey()));
+
+        // Entries below low are already known to the receiver.
+        assertEquals(7, list(store.snapshot(ts(12), ts(19))).size());
+
+        // Compaction below current compactTs is ignored.
+        store.compact(ts(3));
+        assertEquals(ts(14), store.compactTs());
+    }
+
+    @Test
+    public void testCompactionDisabled() {
+        MapDeltaStore store = new MapDeltaStore(false);
+
+        for (int i = 0; i < 10; i++) {
+            store.put(ts(i), new Replicate(i + 1, new Put(0, i)));
+        }
+
+        store.compact(ts(5));
+
+        assertEquals(Timestamp.min(), store.compactTs());
+        assertEquals(10, store.logSize());
+
+        assertEquals(3, list(store.snapshot(ts(2), ts(9), 3)).size());
+        assertEquals(2, list(store.snapshot(ts(7), ts(9), 3)).size());
+    }
+
+    private static Timestamp ts(int i) {
+        return new Timestamp(1 + i, 0);
+    }
+
+    private static List<Entry<Timestamp, Replicate>> list(Iterable<Entry<Timestamp, Replicate>> snapshot) {
+        List<Entry<Timestamp, Replicate>> res = new ArrayList<>();
+        snapshot.forEach(res::add);
+        return res;
+    }
+}
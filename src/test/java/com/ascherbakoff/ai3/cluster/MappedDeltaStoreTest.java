@@ -0,0 +1,163 @@
+package com.ascherbakoff.ai3.cluster;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.ascherbakoff.ai3.clock.Timestamp;
+import com.ascherbakoff.ai3.replication.Put;
+import com.ascherbakoff.ai3.replication.Replicate;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map.Entry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class MappedDeltaStoreTest {
+    private static final int SEGMENT_SIZE = 1024;
+
+    @TempDir
+    Path dir;
+
+    @Test
+    public void testSnapshot() {
+        try (MappedDeltaStore store = new MappedDeltaStore(dir, SEGMENT_SIZE, 4, false)) {
+            int cnt = 200;
+
+            fill(store, cnt);
+
+            assertEquals(cnt, store.logSize());
+            assertTrue(segments() > 1, "Expecting multiple segments");
+
+            List<Entry<Timestamp, Replicate>> all = list(store.snapshot(Timestamp.min(), Timestamp.max()));
+            assertEquals(cnt, all.size());
+
+            for (int i = 0; i < cnt; i++) {
+                assertEquals(ts(i), all.get(i).getKey());
+                assertEquals(i + 1, all.get(i).getValue().getCntr());
+                assertEquals(new Put(i, i), all.get(i).getValue().getData());
+            }
+
+            // Low is exclusive, high is inclusive.
+            List<Entry<Timestamp, Replicate>> range = list(store.snapshot(ts(50), ts(150)));
+            assertEquals(100, range.size());
+            assertEquals(ts(51), range.get(0).getKey());
+            assertEquals(ts(150), range.get(range.size() - 1).getKey());
+
+            assertTrue(list(store.snapshot(ts(cnt - 1), Timestamp.max())).isEmpty());
+        }
+    }
+
+    @Test
+    public void testSnapshotIsolatedFromUpdates() {
+        try (MappedDeltaStore store = new MappedDeltaStore(dir, SEGMENT_SIZE, 4, false)) {
+            fill(store, 10);
+
+            Iterable<Entry<Timestamp, Replicate>> snapshot = store.snapshot(Timestamp.min(), Timestamp.max());
+
+            for (int i = 10; i < 100; i++) {
+                store.put(ts(i), new Replicate(i + 1, new Put(i, i)));
+            }
+
+            assertEquals(10, list(snapshot).size());
+        }
+    }
+
+    @Test
+    public void testRecovery() {
+        int cnt = 100;
+
+        try (MappedDeltaStore store = new MappedDeltaStore(dir, SEGMENT_SIZE, 4, true)) {
+            fill(store, cnt);
+        }
+
+        try (MappedDeltaStore store = new MappedDeltaStore(dir, SEGMENT_SIZE, 4, false)) {
+            assertEquals(cnt, store.logSize());
+
+            store.put(ts(cnt), new Replicate(cnt + 1, new Put(null, cnt)));
+
+            List<Entry<Timestamp, Replicate>> all = list(store.snapshot(ts(cnt - 2), Timestamp.max()));
+            assertEquals(2, all.size());
+            assertEquals(new Put(cnt - 1, cnt - 1), all.get(0).getValue().getData());
+            assertEquals(new Put(null, cnt), all.get(1).getValue().getData());
+        }
+    }
+
+    @Test
+    public void testCompact() {
+        int cnt = 200;
+
+        try (MappedDeltaStore store = new MappedDeltaStore(dir, SEGMENT_SIZE, 4, false)) {
+            fill(store, cnt);
+
+            Iterable<Entry<Timestamp, Replicate>> snapshot = store.snapshot(Timestamp.min(), Timestamp.max());
+            long before = segments();
+
+            store.compact(ts(150));
+
+            assertEquals(ts(150), store.compactTs());
+            assertTrue(segments() < before, "Expecting deleted segments");
+            assertTrue(store.logSize() < cnt && store.logSize() >= cnt - 150);
+
+            // Entries above the compaction timestamp are kept.
+            List<Entry<Timestamp, Replicate>> tail = list(store.snapshot(ts(150), Timestamp.max()));
+            assertEquals(cnt - 151, tail.size());
+            assertEquals(ts(151), tail.get(0).getKey());
+
+            // A captured snapshot is not affected.
+            assertEquals(cnt, list(snapshot).size());
+
+            // The tail segment is kept.
+            store.compact(Timestamp.max());
+            assertEquals(1, segments());
+            assertEquals(ts(cnt - 1), list(store.snapshot(Timestamp.min(), Timestamp.max())).get(store.logSize() - 1).getKey());
+        }
+
+        try (MappedDeltaStore store = new MappedDeltaStore(dir, SEGMENT_SIZE, 4, false)) {
+            assertTrue(store.compactTs().compareTo(Timestamp.min()) > 0);
+        }
+    }
+
+    @Test
+    public void testCompactDisabled() {
+        try (MappedDeltaStore store = new MappedDeltaStore(dir, SEGMENT_SIZE, 4, false, false)) {
+            fill(store, 200);
+
+            store.compact(ts(150));
+
+            assertEquals(Timestamp.min(), store.compactTs());
+            assertEquals(200, store.logSize());
+        }
+    }
+
+    @Test
+    public void testOutOfOrder() {
+        try (MappedDeltaStore store = new MappedDeltaStore(dir, SEGMENT_SIZE, 4, false)) {
+            fill(store, 2);
+
+            assertThrows(IllegalArgumentException.class, () -> store.put(ts(0), new Replicate(3, new Put(0, 0))));
+        }
+    }
+
+    private static void fill(MappedDeltaStore store, int cnt) {
+        for (int i = 0; i < cnt; i++) {
+            store.put(ts(i), new Replicate(i + 1, new Put(i, i)));
+        }
+    }
+
+    private static Timestamp ts(int i) {
+        return new Timestamp(1 + i / 3, i % 3);
+    }
+
+    private long segments() {
+        return dir.toFile().list().length;
+    }
+
+    private static List<Entry<Timestamp, Replicate>> list(Iterable<Entry<Timestamp, Replicate>> snapshot) {
+        List<Entry<Timestamp, Replicate>> res = new ArrayList<>();
+        snapshot.forEach(res::add);
+        return res;
+    }
+}
@@ -0,0 +1,223 @@
+package com.ascherbakoff.ai3.cluster;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.ascherbakoff.ai3.clock.Timestamp;
+import com.ascherbakoff.ai3.replication.BinaryMessageCodec;
+import com.ascherbakoff.ai3.replication.Collect;
+import com.ascherbakoff.ai3.replication.JdkMessageCodec;
+import com.ascherbakoff.ai3.replication.MessageCodec;
+import com.ascherbakoff.ai3.replication.NioTransport;
+import com.ascherbakoff.ai3.replication.Put;
+import com.ascherbakoff.ai3.replication.Replicate;
+import com.ascherbakoff.ai3.replication.ReplicationOptions;
+import com.ascherbakoff.ai3.replication.Request;
+import com.ascherbakoff.ai3.replication.Response;
+import com.ascherbakoff.ai3.replication.RpcClient;
+import com.ascherbakoff.ai3.replication.SnapshotResponse;
+import com.ascherbakoff.ai3.util.BasicTest;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.file.Path;
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Function;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Replication between topologies connected by sockets. Each topology hosts a single node.
+ */
+public class NioTransportTest extends BasicTest {
+    private static final String GRP_NAME = "testGrp";
+
+    private final NodeId alice = new NodeId("alice");
+    private final NodeId bob = new NodeId("bob");
+    private final NodeId charlie = new NodeId("charlie");
+
+    private final Map<NodeId, Topology> tops = new LinkedHashMap<>();
+    private final List<NioTransport> transports = new ArrayList<>();
+
+    private MessageCodec codec = new BinaryMessageCodec(List.of(alice, bob, charlie));
+
+    @AfterEach
+    public void after() {
+        for (NioTransport transport : transports) {
+            transport.close();
+        }
+
+        for (Topology top : tops.values()) {
+            for (Node node : top.getNodeMap().values()) {
+                node.group(GRP_NAME).executorService.shutdownNow();
+            }
+        }
+    }
+
+    @Test
+    public void testTcpReplication() throws IOException {
+        InetAddress loopback = InetAddress.getLoopbackAddress();
+
+        createCluster(nodeId -> new InetSocketAddress(loopback, 0));
+
+        testReplication();
+    }
+
+    @Test
+    public void testTcpReplicationJdkCodec() throws IOException {
+        codec = new JdkMessageCodec();
+
+        createCluster(nodeId -> new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+
+        testReplication();
+    }
+
+    @Test
+    public void testUnixReplication(@TempDir Path dir) throws IOException {
+        createCluster(nodeId -> NioTransport.unixAddress(dir.resolve(nodeId.getId() + ".sock")));
+
+        testReplication();
+    }
+
+    @Test
+    public void testDeadNode() throws IOException {
+        createCluster(nodeId -> new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+
+        Topology top = tops.get(alice);
+        NodeId dave = new NodeId("dave");
+
+        assertFalse(top.isAlive(dave));
+        assertTrue(top.isAlive(bob));
+
+        // Known address, but the node is not hosted by the remote topology.
+        transports.get(0).addPeer(dave, transports.get(1).localAddress());
+
+        Request request = new Request();
+        request.setGrp(GRP_NAME);
+        request.setTs(clock.now());
+        request.setPayload(new Collect());
+
+        Response resp = new RpcClient(top).send(dave, request).join();
+        assertEquals(1, resp.getReturn());
+    }
+
+    @Test
+    public void testRequestTimeout() throws IOException {
+        try (ServerSocketChannel silent = ServerSocketChannel.open()) {
+            // Accepts connections, but never answers.
+            silent.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+
+            NioTransport transport = new NioTransport(new Topology(), codec, null, 100);
+            transports.add(transport);
+            transport.addPeer(bob, silent.getLocalAddress());
+
+            Request request = new Request();
+            request.setGrp(GRP_NAME);
+            request.setTs(clock.now());
+            request.setPayload(new Collect());
+
+            CompletionException err = assertThrows(CompletionException.class, () -> transport.send(bob, request).join());
+            assertTrue(err.getCause() instanceof TimeoutException, err.toString());
+            assertTrue(waitForCondition(() -> transport.pendingRequests() == 0, 1_000));
+        }
+    }
+
+    @Test
+    public void testSnapshotCodec() {
+        JdkMessageCodec codec = new JdkMessageCodec();
+
+        List<Entry<Timestamp, Replicate>> entries = new ArrayList<>();
+
+        for (int i = 1; i <= 3; i++) {
+            entries.add(new SimpleImmutableEntry<>(new Timestamp(i, 0), new Replicate(i, new Put(i, i))));
+        }
+
+        SnapshotResponse resp = new SnapshotResponse(new Timestamp(10, 1), entries, null);
+
+        SnapshotResponse decoded = (SnapshotResponse) codec.decode(codec.encode(resp));
+
+        assertEquals(resp.getTs(), decoded.getTs());
+
+        int i = 0;
+
+        for (Entry<Timestamp, Replicate> entry : decoded.getSnapshot()) {
+            assertEquals(entries.get(i).getKey(), entry.getKey());
+            assertEquals(entries.get(i).getValue().getCntr(), entry.getValue().getCntr());
+            assertEquals(entries.get(i).getValue().getData(), entry.getValue().getData());
+            i++;
+        }
+
+        assertEquals(entries.size(), i);
+    }
+
+    private void createCluster(Function<NodeId, SocketAddress> addrs) throws IOException {
+        Map<NodeId, SocketAddress> bound = new LinkedHashMap<>();
+
+        for (NodeId nodeId : List.of(alice, bob, charlie)) {
+            Topology top = new Topology();
+            NioTransport transport = new NioTransport(top, codec, addrs.apply(nodeId));
+            top.setTransport(transport);
+            top.regiser(new Node(nodeId, top, clock, new ReplicationOptions(), GRP_NAME));
+
+            tops.put(nodeId, top);
+            transports.add(transport);
+            bound.put(nodeId, transport.localAddress());
+        }
+
+        int idx = 0;
+
+        for (NodeId nodeId : tops.keySet()) {
+            NioTransport transport = transports.get(idx++);
+
+            for (Entry<NodeId, SocketAddress> entry : bound.entrySet()) {
+                if (!entry.getKey().equals(nodeId)) {
+                    transport.addPeer(entry.getKey(), entry.getValue());
+                }
+            }
+        }
+
+        Tracker tracker = new Tracker(tops.get(alice), clock);
+        Timestamp ts = tracker.assignLeader(GRP_NAME, alice, Set.of(alice, bob, charlie)).join();
+
+        for (NodeId nodeId : tops.keySet()) {
+            Node node = node(nodeId);
+
+            assertTrue(waitForCondition(() -> alice.equals(node.getLeader(GRP_NAME)) && ts.equals(node.getLease(GRP_NAME)), 1_000),
+                    "Failed to wait for leader: nodeId=" + nodeId);
+        }
+    }
+
+    private void testReplication() {
+        Node leader = node(alice);
+
+        for (int i = 0; i < 10; i++) {
+            leader.replicate(GRP_NAME, new Put(i, i)).join();
+        }
+
+        Group grp = leader.group(GRP_NAME);
+
+        assertTrue(waitForCondition(() -> grp.getSafeCntr() == 10, 1_000));
+
+        for (NodeId nodeId : tops.keySet()) {
+            assertTrue(waitForCondition(() -> grp.equals(node(nodeId).group(GRP_NAME)), 1_000),
+                    "Failed to wait for replication: nodeId=" + nodeId);
+        }
+    }
+
+    private Node node(NodeId nodeId) {
+        return tops.get(nodeId).getNode(nodeId);
+    }
+}
@@ -4,6 +4,7 @@ import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertNotEquals;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
@@ -14,15 +15,21 @@ import com.ascherbakoff.ai3.replication.Replicate;
 import com.ascherbakoff.ai3.replication.Replicator;
 import com.ascherbakoff.ai3.replication.Request;
 import java.lang.System.Logger.Level;
+import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map.Entry;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CompletionException;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executor;
 import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 
 /**
  * The leasholder is a standalone node.
@@ -78,6 +85,57 @@ public class ReplicationGroup2NodesTest extends BasicReplicationTest {
         assertEquals(1, grp1.getRepCntr());
     }
 
+    @Test
+    public void testLocalGet() throws InterruptedException, ExecutionException {
+        createCluster();
+
+        Node leaseholder = top.getNode(alice);
+        Timestamp ts0 = leaseholder.replicate(GRP_NAME, new Put(0, 1)).join();
+        waitReplication();
+
+        for (Node node : top.getNodeMap().values()) {
+            assertEquals(1, node.localGet(GRP_NAME, 0, ts0).join());
+            assertNull(node.localGet(GRP_NAME, 1, ts0).join());
+        }
+
+        // Reads above repTs wait.
+        Timestamp ts1 = clock.now();
+        CompletableFuture<Integer> read0 = top.getNode(bob).localGet(GRP_NAME, 0, ts1);
+        CompletableFuture<Integer> read1 = top.getNode(bob).localGet(GRP_NAME, 0, ts1);
+        Timestamp ts2 = clock.now();
+        CompletableFuture<Integer> read2 = top.getNode(bob).localGet(GRP_NAME, 0, ts2);
+        assertFalse(read2.isDone());
+
+        Timestamp ts3 = leaseholder.replicate(GRP_NAME, new Put(0, 2)).join();
+        waitReplication();
+
+        // Reads are served at the requested timestamp.
+        assertEquals(1, read0.join());
+        assertEquals(1, read1.join());
+        assertEquals(1, read2.join());
+        assertEquals(2, top.getNode(bob).localGet(GRP_NAME, 0, ts3).join());
+        assertEquals(1, top.getNode(bob).localGet(GRP_NAME, 0, ts0).join());
+
+        // Idle sync propagates repTs.
+        adjustClocks(20);
+        Timestamp ts4 = clock.now();
+        CompletableFuture<Integer> read3 = top.getNode(bob).localGet(GRP_NAME, 0, ts4);
+
+        leaseholder.sync(GRP_NAME).get();
+        waitReplication();
+
+        assertEquals(2, read3.join());
+
+        // Removal.
+        Timestamp ts5 = leaseholder.replicate(GRP_NAME, new Put(0, null)).join();
+        waitReplication();
+
+        for (Node node : top.getNodeMap().values()) {
+            assertNull(node.localGet(GRP_NAME, 0, ts5).join());
+            assertEquals(2, node.localGet(GRP_NAME, 0, ts3).join());
+        }
+    }
+
     @Test
     public void testReorder() throws InterruptedException {
         createCluster();
@@ -676,6 +734,126 @@ public class ReplicationGroup2NodesTest extends BasicReplicationTest {
 //        fail();
 //    }
 //
+    /**
+     * Tests a dead node catches up from a durable delta store.
+     */
+    @Test
+    public void testCatchUpMappedStore(@TempDir Path dir) {
+        options.setDeltaStoreFactory((nodeId, grp) -> new MappedDeltaStore(dir.resolve(nodeId.getId()).resolve(grp)));
+
+        testCatchUpWithRefresh();
+
+        assertEquals(3, top.getNode(bob).group(GRP_NAME).deltaStore.logSize());
+    }
+
+    /**
+     * Tests a dead node catches up by pages and resumes from the applied position after a failed page.
+     */
+    @Test
+    public void testCatchUpPaged() {
+        options.setMaxCatchUpPageEntries(3);
+
+        List<Timestamp> lows = Collections.synchronizedList(new ArrayList<>());
+        AtomicBoolean failed = new AtomicBoolean();
+
+        options.setDeltaStoreFactory((nodeId, grp) -> new MapDeltaStore(false) {
+            @Override
+            public Iterable<Entry<Timestamp, Replicate>> snapshot(Timestamp low, Timestamp high, int maxEntries) {
+                lows.add(low);
+
+                if (lows.size() == 2 && failed.compareAndSet(false, true)) {
+                    throw new IllegalStateException("Test failure");
+                }
+
+                return super.snapshot(low, high, maxEntries);
+            }
+        });
+
+        createCluster();
+
+        Node leader = top.getNode(alice);
+        leader.replicate(GRP_NAME, new Put(0, 0)).join(); // Init replicators.
+        waitReplication();
+
+        adjustClocks(Tracker.LEASE_DURATION / 2);
+
+        Node bobNode = top.getNode(bob);
+
+        assertNotNull(top.getNodeMap().remove(bob));
+
+        Timestamp ts = tracker.assignLeader(GRP_NAME, alice, top.getNodeMap().keySet()).join();
+        waitLeader(ts, alice, tracker, top, GRP_NAME);
+
+        for (int i = 1; i <= 10; i++) {
+            leader.replicate(GRP_NAME, new Put(i, i)).join();
+        }
+
+        top.regiser(bobNode);
+
+        ts = tracker.assignLeader(GRP_NAME, alice, top.getNodeMap().keySet()).join();
+        waitLeader(ts, alice, tracker, top, GRP_NAME);
+
+        assertTrue(waitForCondition(() -> leader.group(GRP_NAME).getMembers().size() == 2, 1_000));
+
+        leader.replicate(GRP_NAME, new Put(11, 11)).join();
+        waitReplication();
+
+        assertEquals(leader.group(GRP_NAME).deltaStore, top.getNode(bob).group(GRP_NAME).deltaStore);
+
+        // 4 pages and a retry of the second page from the same position.
+        assertEquals(5, lows.size(), lows.toString());
+        assertEquals(lows.get(1), lows.get(2));
+    }
+
+    /**
+     * Tests a dead node catches up from a compacted log.
+     */
+    @Test
+    public void testCatchUpCompacted() {
+        options.setDeltaStoreFactory((nodeId, grp) -> new MapDeltaStore(true));
+
+        createCluster();
+
+        Node leader = top.getNode(alice);
+        leader.replicate(GRP_NAME, new Put(0, 0)).join(); // Init replicators.
+        waitReplication();
+
+        adjustClocks(Tracker.LEASE_DURATION / 2);
+
+        Node bobNode = top.getNode(bob);
+
+        assertNotNull(top.getNodeMap().remove(bob));
+
+        Timestamp ts = tracker.assignLeader(GRP_NAME, alice, top.getNodeMap().keySet()).join();
+        waitLeader(ts, alice, tracker, top, GRP_NAME);
+
+        // Overwrite keys while other node is offline. The leader is alone and compacts immediately.
+        for (int i = 1; i <= 10; i++) {
+            leader.replicate(GRP_NAME, new Put(i % 2, i)).join();
+        }
+
+        DeltaStore store = leader.group(GRP_NAME).deltaStore;
+        assertEquals(leader.group(GRP_NAME).getRepTs(), store.compactTs());
+        assertEquals(2, store.logSize());
+
+        top.regiser(bobNode);
+
+        ts = tracker.assignLeader(GRP_NAME, alice, top.getNodeMap().keySet()).join();
+        waitLeader(ts, alice, tracker, top, GRP_NAME);
+
+        leader.replicate(GRP_NAME, new Put(2, 11)).join();
+        waitReplication();
+
+        assertTrue(waitForCondition(() -> leader.group(GRP_NAME).getMembers().size() == 2, 1_000));
+
+        Group grp1 = top.getNode(bob).group(GRP_NAME);
+        assertEquals(leader.group(GRP_NAME).getRepCntr(), grp1.getRepCntr());
+
+        List<Object> state = new ArrayList<>();
+        grp1.snapshot(Timestamp.min(), Timestamp.max()).forEach(e -> state.add(e.getValue().getData()));
+        assertTrue(state.containsAll(List.of(new Put(0, 10), new Put(1, 9), new Put(2, 11))), state.toString());
+    }
+
     /**
      * Tests if a non leader is attempting to replicate.
      */
@@ -689,6 +867,156 @@ public class ReplicationGroup2NodesTest extends BasicReplicationTest {
         assertThrows(CompletionException.class, () -> top.getNode(bob).replicate(GRP_NAME, new Put(0, 0)).join());
     }
 
+    /**
+     * Tests the leader sends to followers before the local write and commits only after the local write.
+     */
+    @Test
+    public void testLocalWriteOverlapsReplication() throws InterruptedException {
+        CountDownLatch latch = new CountDownLatch(1);
+        AtomicBoolean block = new AtomicBoolean();
+
+        options.setDeltaStoreFactory((nodeId, grp) -> !nodeId.equals(alice) ? new MapDeltaStore(false) : new MapDeltaStore(false) {
+            @Override
+            public void put(Timestamp repTs, Replicate replicate) {
+                if (block.get()) {
+                    try {
+                        latch.await();
+                    } catch (InterruptedException e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+
+                super.put(repTs, replicate);
+            }
+        });
+
+        createCluster();
+
+        block.set(true);
+
+        Node leader = top.getNode(alice);
+        CompletableFuture<Timestamp> fut = leader.replicate(GRP_NAME, new Put(0, 0));
+
+        // The follower has the entry while the local write is in progress.
+        assertTrue(waitForCondition(() -> top.getNode(bob).group(GRP_NAME).getRepCntr() == 1, 1000));
+        assertFalse(fut.isDone());
+
+        latch.countDown();
+
+        fut.join();
+        waitReplication();
+    }
+
+    /**
+     * Tests requests exceeding the replication window are queued and sent as the window frees.
+     */
+    @Test
+    public void testReplicationWindow() {
+        options.setMaxInflightEntries(2);
+
+        createCluster();
+
+        Node leader = top.getNode(alice);
+        leader.replicate(GRP_NAME, new Put(0, 0)).join();
+        waitReplication();
+
+        Replicator toBob = leader.group(GRP_NAME).replicators.get(bob);
+        toBob.client().block(r -> true);
+
+        List<CompletableFuture<Timestamp>> futs = new ArrayList<>();
+
+        for (int i = 1; i <= 5; i++) {
+            futs.add(leader.replicate(GRP_NAME, new Put(i, i)));
+        }
+
+        assertTrue(waitForCondition(() -> toBob.queued() == 3, 1000));
+        assertEquals(2, toBob.client().blocked().size());
+        assertEquals(2, toBob.windowEntries());
+        assertEquals(3, toBob.windowFullCount());
+
+        toBob.client().clearBlock();
+        toBob.client().unblock(r -> true);
+
+        for (CompletableFuture<Timestamp> fut : futs) {
+            fut.join();
+        }
+
+        waitReplication();
+
+        assertTrue(waitForCondition(() -> toBob.windowEntries() == 0, 1000));
+        assertEquals(0, toBob.queued());
+        assertEquals(0, toBob.windowBytes());
+        assertEquals(6, top.getNode(bob).group(GRP_NAME).getRepCntr());
+    }
+
+    /**
+     * Tests a lagging follower is cut off on the queue overflow.
+     */
+    @Test
+    public void testReplicationWindowOverflow() {
+        options.setMaxInflightEntries(1);
+        options.setMaxQueuedEntries(1);
+
+        createCluster();
+
+        Node leader = top.getNode(alice);
+        leader.replicate(GRP_NAME, new Put(0, 0)).join();
+        waitReplication();
+
+        Replicator toBob = leader.group(GRP_NAME).replicators.get(bob);
+        toBob.client().block(r -> true);
+
+        leader.replicate(GRP_NAME, new Put(1, 1)); // Occupies the window.
+        CompletableFuture<Timestamp> fut1 = leader.replicate(GRP_NAME, new Put(2, 2));
+        CompletableFuture<Timestamp> fut2 = leader.replicate(GRP_NAME, new Put(3, 3));
+
+        // A majority requires bob.
+        assertThrows(CompletionException.class, () -> fut1.join());
+        assertThrows(CompletionException.class, () -> fut2.join());
+        assertTrue(toBob.broken());
+        assertEquals(0, toBob.queued());
+    }
+
+    /**
+     * Tests the leader is fenced if it fails to apply an update locally: writes and lease refreshes are refused, so
+     * another node takes over after the lease expires.
+     */
+    @Test
+    public void testLocalApplyFailure() {
+        options.setDeltaStoreFactory((nodeId, grp) -> new MapDeltaStore(false) {
+            @Override
+            public void put(Timestamp ts, Replicate replicate) {
+                if (alice.equals(nodeId) && replicate.getData() instanceof Put && ((Put) replicate.getData()).getKey() < 0) {
+                    throw new IllegalStateException("Test failure");
+                }
+
+                super.put(ts, replicate);
+            }
+        });
+
+        createCluster();
+
+        Node leader = top.getNode(alice);
+        leader.replicate(GRP_NAME, new Put(0, 0)).join();
+        waitReplication();
+
+        assertThrows(CompletionException.class, () -> leader.replicate(GRP_NAME, new Put(-1, 0)).join());
+        assertTrue(leader.group(GRP_NAME).isBroken());
+
+        CompletionException err = assertThrows(CompletionException.class, () -> leader.replicate(GRP_NAME, new Put(1, 1)).join());
+        assertTrue(err.getCause() instanceof IllegalStateException, err.toString());
+
+        // The lease is not refreshed.
+        assertThrows(CompletionException.class, () -> tracker.assignLeader(GRP_NAME, alice, nodeIds).join());
+        assertThrows(ExecutionException.class, () -> leader.sync(GRP_NAME).get());
+
+        adjustClocks(Tracker.LEASE_DURATION);
+
+        Timestamp ts = tracker.assignLeader(GRP_NAME, bob, nodeIds).join();
+        Node newLeader = top.getNode(bob);
+        assertTrue(waitForCondition(() -> bob.equals(newLeader.getLeader(GRP_NAME)) && ts.equals(newLeader.getLease(GRP_NAME)), 1_000));
+    }
+
 //    private void validate(int val) {
 //        for (Node value : top.getNodeMap().values()) {
 //            assertEquals(val, top.getNode(alice).localGet(GRP_NAME, val, top.getNode(value.id()).group(GRP_NAME).repTs).join());
@@ -1,10 +1,14 @@
 package com.ascherbakoff.ai3.cluster;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 import com.ascherbakoff.ai3.clock.Timestamp;
 import com.ascherbakoff.ai3.replication.Put;
 import java.lang.System.Logger.Level;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executor;
@@ -134,6 +138,44 @@ public class ReplicationGroup3NodesTest extends BasicReplicationTest {
         assertEquals(store2, store3);
     }
 
+    @Test
+    public void testBatchedReplication() throws InterruptedException {
+        options.setMaxBatchEntries(16);
+        options.setBatchLingerMs(5);
+
+        createCluster();
+
+        Node leader = top.getNode(alice);
+
+        List<CompletableFuture<Timestamp>> futs = new ArrayList<>();
+
+        int msgCntr = 100;
+
+        for (int i = 0; i < msgCntr; i++) {
+            futs.add(leader.replicate(GRP_NAME, new Put(i, i)));
+        }
+
+        Timestamp prev = Timestamp.min();
+
+        for (CompletableFuture<Timestamp> fut : futs) {
+            Timestamp ts = fut.join();
+            assertTrue(ts.compareTo(prev) > 0, "Timestamps must grow in submission order");
+            prev = ts;
+        }
+
+        waitReplication();
+
+        assertEquals(msgCntr, leader.group(GRP_NAME).getRepCntr());
+        assertEquals(msgCntr, leader.group(GRP_NAME).deltaStore.logSize());
+
+        DeltaStore store = leader.group(GRP_NAME).deltaStore;
+        DeltaStore store2 = top.getNode(bob).group(GRP_NAME).deltaStore;
+        DeltaStore store3 = top.getNode(charlie).group(GRP_NAME).deltaStore;
+
+        assertEquals(store, store2);
+        assertEquals(store2, store3);
+    }
+
 //
 //    @Test
 //    public void testLeaseholderFailure() {
@@ -1,5 +1,11 @@
 package com.ascherbakoff.ai3.cluster;
 
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import com.ascherbakoff.ai3.clock.Timestamp;
+import java.util.concurrent.ExecutionException;
+import org.junit.jupiter.api.Test;
+
 /**
  * TODO
  */
@@ -10,4 +16,39 @@ public class ReplicationGroup5NodesTest extends BasicReplicationTest {
     protected void createCluster() {
         createCluster(5);
     }
+
+    @Test
+    public void testUpdateSafe() throws InterruptedException, ExecutionException {
+        createCluster();
+
+        Group group = top.getNode(alice).group(GRP_NAME);
+
+        group.executorService.submit(() -> {
+            group.replicators.get(bob).onResponse(4, new Timestamp(4, 0));
+            group.replicators.get(charlie).onResponse(3, new Timestamp(3, 0));
+            group.replicators.get(dave).onResponse(2, new Timestamp(2, 0));
+            group.replicators.get(eve).onResponse(1, new Timestamp(1, 0));
+            group.updateSafe();
+
+            // The leader and two replicas with the largest counters.
+            assertEquals(3, group.getSafeCntr());
+            assertEquals(new Timestamp(3, 0), group.getSafeTs());
+
+            // Acks reorder replicas.
+            group.replicators.get(eve).onResponse(6, new Timestamp(6, 0));
+            group.replicators.get(dave).onResponse(5, new Timestamp(5, 0));
+            group.updateSafe();
+
+            assertEquals(5, group.getSafeCntr());
+            assertEquals(new Timestamp(5, 0), group.getSafeTs());
+
+            // A removed member is not counted.
+            group.getMembers().remove(eve);
+            group.removeReplicator(eve);
+            group.updateSafe();
+
+            assertEquals(4, group.getSafeCntr());
+            assertEquals(new Timestamp(4, 0), group.getSafeTs());
+        }).get();
+    }
 }
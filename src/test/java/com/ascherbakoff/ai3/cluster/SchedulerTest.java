@@ -0,0 +1,198 @@
+package com.ascherbakoff.ai3.cluster;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.ascherbakoff.ai3.util.BasicTest;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.Test;
+
+public class SchedulerTest extends BasicTest {
+    /**
+     * Tests tasks of a group are executed serially in the submission order by the same thread.
+     */
+    @Test
+    public void testGroupOrder() throws InterruptedException {
+        try (Scheduler scheduler = new Scheduler("test", 2, false)) {
+            int groups = 8;
+            int tasks = 1000;
+
+            List<List<Integer>> results = new ArrayList<>();
+            List<List<Thread>> threads = new ArrayList<>();
+            CountDownLatch done = new CountDownLatch(groups);
+
+            for (int g = 0; g < groups; g++) {
+                List<Integer> res = new ArrayList<>();
+                List<Thread> thr = new ArrayList<>();
+                results.add(res);
+                threads.add(thr);
+
+                ExecutorService exec = scheduler.executor("grp" + g);
+
+                for (int i = 0; i < tasks; i++) {
+                    int i0 = i;
+                    exec.execute(() -> {
+                        res.add(i0);
+                        thr.add(Thread.currentThread());
+
+                        if (i0 == tasks - 1) {
+                            done.countDown();
+                        }
+                    });
+                }
+            }
+
+            assertTrue(done.await(10, TimeUnit.SECONDS));
+
+            for (int g = 0; g < groups; g++) {
+                for (int i = 0; i < tasks; i++) {
+                    assertEquals(i, results.get(g).get(i));
+                    assertEquals(threads.get(g).get(0), threads.get(g).get(i));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testQueueDepth() throws InterruptedException {
+        try (Scheduler scheduler = new Scheduler("test", 1, false)) {
+            CountDownLatch latch = new CountDownLatch(1);
+
+            ExecutorService exec = scheduler.executor("grp");
+
+            exec.execute(() -> {
+                try {
+                    latch.await();
+                } catch (InterruptedException e) {
+                    // Ignored.
+                }
+            });
+
+            for (int i = 0; i < 3; i++) {
+                exec.execute(() -> {});
+            }
+
+            assertTrue(waitForCondition(() -> scheduler.queueDepth(0) == 3, 1000));
+
+            latch.countDown();
+
+            assertTrue(waitForCondition(() -> scheduler.queueDepth(0) == 0 && scheduler.completedTasks(0) == 4, 1000));
+        }
+    }
+
+    /**
+     * Tests shutting down a group doesn't affect other groups of the lane.
+     */
+    @Test
+    public void testGroupShutdown() throws InterruptedException {
+        try (Scheduler scheduler = new Scheduler("test", 1, false)) {
+            CountDownLatch started = new CountDownLatch(1);
+            CountDownLatch latch = new CountDownLatch(1);
+            AtomicBoolean dropped = new AtomicBoolean(true);
+
+            ExecutorService exec1 = scheduler.executor("grp1");
+            ExecutorService exec2 = scheduler.executor("grp2");
+
+            exec1.execute(() -> {
+                started.countDown();
+
+                try {
+                    latch.await();
+                } catch (InterruptedException e) {
+                    // Ignored.
+                }
+            });
+            Runnable task = () -> dropped.set(false);
+            exec1.execute(task);
+
+            assertTrue(started.await(1, TimeUnit.SECONDS));
+            assertEquals(List.of(task), exec1.shutdownNow());
+            assertThrows(RejectedExecutionException.class, () -> exec1.execute(() -> {}));
+            assertFalse(exec1.isTerminated()); // The first task is still running.
+
+            latch.countDown();
+
+            assertTrue(exec1.awaitTermination(1, TimeUnit.SECONDS));
+
+            CountDownLatch done = new CountDownLatch(1);
+            exec2.execute(done::countDown);
+
+            assertTrue(done.await(1, TimeUnit.SECONDS));
+            assertTrue(dropped.get());
+            assertFalse(exec2.isShutdown());
+        }
+    }
+
+    /**
+     * Tests a graceful group shutdown completes queued tasks.
+     */
+    @Test
+    public void testGroupTermination() throws InterruptedException {
+        try (Scheduler scheduler = new Scheduler("test", 1, false)) {
+            CountDownLatch latch = new CountDownLatch(1);
+            AtomicInteger cnt = new AtomicInteger();
+
+            ExecutorService exec = scheduler.executor("grp");
+
+            exec.execute(() -> {
+                try {
+                    latch.await();
+                } catch (InterruptedException e) {
+                    // Ignored.
+                }
+            });
+
+            for (int i = 0; i < 3; i++) {
+                exec.execute(cnt::incrementAndGet);
+            }
+
+            exec.shutdown();
+
+            assertFalse(exec.awaitTermination(50, TimeUnit.MILLISECONDS));
+
+            latch.countDown();
+
+            assertTrue(exec.awaitTermination(1, TimeUnit.SECONDS));
+            assertEquals(3, cnt.get());
+        }
+    }
+
+    /**
+     * Tests stopping a node stops its scheduler.
+     */
+    @Test
+    public void testNodeStop() throws InterruptedException {
+        Node node = new Node(new NodeId("alice"), new Topology(), clock, "grp");
+
+        ExecutorService exec = node.group("grp").executorService;
+
+        node.stop();
+
+        assertTrue(exec.isShutdown());
+        assertTrue(exec.awaitTermination(1, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testVirtualLanes() throws InterruptedException {
+        if (Runtime.version().feature() < 21) {
+            assertThrows(UnsupportedOperationException.class, () -> new Scheduler("test", 1, true));
+            return;
+        }
+
+        try (Scheduler scheduler = new Scheduler("test", 1, true)) {
+            CountDownLatch done = new CountDownLatch(1);
+            scheduler.executor("grp").execute(done::countDown);
+
+            assertTrue(done.await(1, TimeUnit.SECONDS));
+        }
+    }
+}
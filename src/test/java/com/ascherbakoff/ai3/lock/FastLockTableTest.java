@@ -0,0 +1,129 @@
+package com.ascherbakoff.ai3.lock;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.Disabled;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Runs lock table tests against {@link FastLock}.
+ */
+public class FastLockTableTest extends LockTableTest {
+    public FastLockTableTest() {
+        lockTable = new LockTable(10, true, DeadlockPrevention.none(), true);
+    }
+
+    @Override
+    @Disabled("Fails for the base lock, see LockTableTest")
+    public void testDowngradeToWeaker() {
+    }
+
+    @Override
+    @Disabled("Fails for the base lock, see LockTableTest")
+    public void testConcurrentDowngrade() {
+    }
+
+    @Test
+    public void testSharedFastPath() {
+        FastLock lock = (FastLock) lockTable.getOrAddEntry(0);
+
+        UUID id1 = UUID.randomUUID();
+        UUID id2 = UUID.randomUUID();
+        UUID id3 = UUID.randomUUID();
+
+        lock.acquire(id1, LockMode.S).join();
+        lock.acquire(id2, LockMode.IS).join();
+        lock.acquire(id3, LockMode.S).join();
+
+        assertEquals(3, lock.fastOwners.size());
+        assertTrue(lock.owners.isEmpty());
+
+        // Conflicts with S, inflates the lock.
+        Locker l4 = lock.acquire(UUID.randomUUID(), LockMode.IX);
+        assertFalse(l4.isDone());
+        assertEquals(3, lock.owners.size());
+        assertTrue(lock.fastOwners.isEmpty());
+
+        lock.release(id1);
+        lock.release(id2);
+        lock.release(id3);
+        l4.join();
+
+        // The only owner holds a fast path mode, the lock is deflated.
+        assertEquals(1, lock.fastOwners.size());
+        assertTrue(lock.owners.isEmpty());
+
+        lock.release(l4);
+        assertEquals(0, lock.ownersCount());
+    }
+
+    @Test
+    public void testWaitDieFastPath() {
+        Lock lock = new LockTable(10, true, DeadlockPrevention.waitDie(), true).getOrAddEntry(0);
+
+        UUID older = new UUID(0, 0);
+        UUID younger = new UUID(0, 1);
+
+        lock.acquire(older, LockMode.S).join();
+
+        assertThrows(LockException.class, () -> lock.acquire(younger, LockMode.X));
+    }
+
+    @Test
+    public void testConcurrentReadersWriters() throws Exception {
+        Lock lock = lockTable.getOrAddEntry(0);
+
+        int threads = 8;
+        int iters = 5_000;
+
+        AtomicInteger readers = new AtomicInteger();
+        AtomicInteger writers = new AtomicInteger();
+        AtomicInteger violations = new AtomicInteger();
+        CountDownLatch latch = new CountDownLatch(threads);
+
+        for (int t = 0; t < threads; t++) {
+            int t0 = t;
+
+            new Thread(() -> {
+                try {
+                    for (int i = 0; i < iters; i++) {
+                        UUID id = new UUID(t0, i);
+                        boolean write = i % 16 == t0;
+
+                        lock.acquire(id, write ? LockMode.X : LockMode.S).join();
+
+                        if (write) {
+                            writers.incrementAndGet();
+                            if (readers.get() != 0 || writers.get() != 1) {
+                                violations.incrementAndGet();
+                            }
+                            writers.decrementAndGet();
+                        } else {
+                            readers.incrementAndGet();
+                            if (writers.get() != 0) {
+                                violations.incrementAndGet();
+                            }
+                            readers.decrementAndGet();
+                        }
+
+                        lock.release(id);
+                    }
+                } finally {
+                    latch.countDown();
+                }
+            }).start();
+        }
+
+        latch.await();
+
+        assertEquals(0, violations.get());
+        assertEquals(0, lock.ownersCount());
+        assertEquals(0, lock.waitersCount());
+    }
+}
@@ -6,6 +6,7 @@ import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 import java.util.EnumSet;
+import java.util.List;
 import java.util.UUID;
 import java.util.concurrent.CountDownLatch;
 import org.junit.jupiter.api.Disabled;
@@ -17,7 +18,7 @@ import org.junit.jupiter.params.provider.EnumSource;
  *
  */
 public class LockTableTest {
-    private LockTable lockTable = new LockTable(10, true, DeadlockPrevention.none());
+    LockTable lockTable = new LockTable(10, true, DeadlockPrevention.none());
 
     /**
      * Tests basic lock/unlock for all lock modes.
@@ -35,8 +36,8 @@ public class LockTableTest {
 
         lock.release(l1);
 
-        assertTrue(lock.owners.isEmpty());
-        assertTrue(lock.waiters.isEmpty());
+        assertTrue(lock.ownersCount() == 0);
+        assertEquals(0, lock.waitersCount());
     }
 
     /**
@@ -62,21 +63,21 @@ public class LockTableTest {
         Locker l2 = lock.acquire(id2, lockMode);
         assertFalse(l2.isDone());
 
-        assertTrue(lock.owners.size() == 1);
-        assertFalse(lock.waiters.isEmpty());
+        assertTrue(lock.ownersCount() == 1);
+        assertTrue(lock.waitersCount() > 0);
 
         lock.release(l1);
         l2.join();
         assertTrue(l2.id == id2 && l2.mode == lockMode);
         assertTrue(l2.isDone());
 
-        assertTrue(lock.owners.size() == 1);
-        assertTrue(lock.waiters.isEmpty());
+        assertTrue(lock.ownersCount() == 1);
+        assertEquals(0, lock.waitersCount());
 
         lock.release(l2);
 
-        assertTrue(lock.owners.isEmpty());
-        assertTrue(lock.waiters.isEmpty());
+        assertTrue(lock.ownersCount() == 0);
+        assertEquals(0, lock.waitersCount());
     }
 
     /**
@@ -103,15 +104,15 @@ public class LockTableTest {
         Locker l2 = lock.acquire(id2, lockMode);
         l2.join();
 
-        assertTrue(lock.owners.size() == 2);
-        assertTrue(lock.waiters.isEmpty());
+        assertTrue(lock.ownersCount() == 2);
+        assertEquals(0, lock.waitersCount());
 
         lock.release(l1);
 
-        assertTrue(lock.owners.size() == 1);
+        assertTrue(lock.ownersCount() == 1);
 
         lock.release(l2);
-        assertTrue(lock.owners.isEmpty());
+        assertTrue(lock.ownersCount() == 0);
     }
 
     /**
@@ -134,11 +135,11 @@ public class LockTableTest {
         assertEquals(LockMode.X, l2.join());
         assertTrue(l2.id == id1 && l2.mode == LockMode.X);
 
-        assertTrue(lock.owners.size() == 1);
-        assertTrue(lock.waiters.isEmpty());
+        assertTrue(lock.ownersCount() == 1);
+        assertEquals(0, lock.waitersCount());
 
         lock.release(l1);
-        assertTrue(lock.owners.isEmpty());
+        assertTrue(lock.ownersCount() == 0);
     }
 
     /**
@@ -164,13 +165,13 @@ public class LockTableTest {
             l2.join();
             assertTrue(l2.id == id1 && l2.mode == LockTable.supremum(fromMode, toMode));
 
-            assertTrue(lock.owners.size() == 1);
-            assertTrue(lock.waiters.isEmpty());
+            assertTrue(lock.ownersCount() == 1);
+            assertEquals(0, lock.waitersCount());
 
             lock.release(l2);
 
-            assertTrue(lock.owners.isEmpty());
-            assertTrue(lock.waiters.isEmpty());
+            assertTrue(lock.ownersCount() == 0);
+            assertEquals(0, lock.waitersCount());
         }
     }
 
@@ -195,13 +196,43 @@ public class LockTableTest {
         l3.join();
         assertTrue(l3.id == id1 && l3.mode == LockMode.X);
 
-        assertTrue(lock.owners.size() == 1);
-        assertTrue(lock.waiters.isEmpty());
+        assertTrue(lock.ownersCount() == 1);
+        assertEquals(0, lock.waitersCount());
 
         lock.release(l3); // We hold X lock
 
-        assertTrue(lock.owners.isEmpty());
-        assertTrue(lock.waiters.isEmpty());
+        assertTrue(lock.ownersCount() == 0);
+        assertEquals(0, lock.waitersCount());
+    }
+
+    /**
+     * Tests a batch release of lockers, which share the lock.
+     */
+    @Test
+    public void testReleaseAll() {
+        Lock lock = lockTable.getOrAddEntry(0);
+
+        UUID id1 = UUID.randomUUID();
+        UUID id2 = UUID.randomUUID();
+        UUID id3 = UUID.randomUUID();
+
+        lock.acquire(id1, LockMode.S).join();
+        lock.acquire(id2, LockMode.S).join();
+
+        Locker l3 = lock.acquire(id3, LockMode.X);
+        assertFalse(l3.isDone());
+
+        assertEquals(2, lock.releaseAll(List.of(id1, id2)));
+        l3.join();
+
+        assertEquals(1, lock.ownersCount());
+        assertEquals(0, lock.waitersCount());
+
+        assertEquals(0, lock.releaseAll(List.of(id1))); // Already released.
+
+        lock.release(l3);
+
+        assertTrue(lock.idle());
     }
 
     /**
@@ -236,8 +267,8 @@ public class LockTableTest {
 
         lock.release(l1_3);
 
-        assertTrue(lock.owners.isEmpty());
-        assertTrue(lock.waiters.isEmpty());
+        assertTrue(lock.ownersCount() == 0);
+        assertEquals(0, lock.waitersCount());
     }
 
     @Test
@@ -269,8 +300,8 @@ public class LockTableTest {
 
         lock.release(l1_3);
 
-        assertTrue(lock.owners.isEmpty());
-        assertTrue(lock.waiters.isEmpty());
+        assertTrue(lock.ownersCount() == 0);
+        assertEquals(0, lock.waitersCount());
     }
 
     /**
@@ -301,8 +332,8 @@ public class LockTableTest {
 
         assertTrue(l2_2.id == id2 && l2_2.mode == LockMode.X);
 
-        assertTrue(lock.owners.size() == 1);
-        assertTrue(lock.waiters.isEmpty());
+        assertTrue(lock.ownersCount() == 1);
+        assertEquals(0, lock.waitersCount());
     }
 
     /**
@@ -333,8 +364,8 @@ public class LockTableTest {
         l1_2.join();
         assertTrue(l1_2.id == id1 && l1_2.mode == LockMode.IX);
 
-        assertTrue(lock.owners.size() == 2);
-        assertTrue(lock.waiters.isEmpty());
+        assertTrue(lock.ownersCount() == 2);
+        assertEquals(0, lock.waitersCount());
     }
 
     /**
@@ -369,8 +400,8 @@ public class LockTableTest {
 
         assertTrue(l2_3.id == id2 && l2_3.mode == LockMode.X);
 
-        assertTrue(lock.owners.size() == 1);
-        assertTrue(lock.waiters.isEmpty());
+        assertTrue(lock.ownersCount() == 1);
+        assertEquals(0, lock.waitersCount());
     }
 
     /**
@@ -405,8 +436,8 @@ public class LockTableTest {
 
         lock.release(id2);
 
-        assertTrue(lock.owners.isEmpty());
-        assertTrue(lock.waiters.isEmpty());
+        assertTrue(lock.ownersCount() == 0);
+        assertEquals(0, lock.waitersCount());
     }
 
     /**
@@ -441,8 +472,8 @@ public class LockTableTest {
 
         lock.release(id2);
 
-        assertTrue(lock.owners.isEmpty());
-        assertTrue(lock.waiters.isEmpty());
+        assertTrue(lock.ownersCount() == 0);
+        assertEquals(0, lock.waitersCount());
     }
 
     @Test
@@ -472,8 +503,8 @@ public class LockTableTest {
 
         lock.release(id2);
 
-        assertTrue(lock.owners.isEmpty());
-        assertTrue(lock.waiters.isEmpty());
+        assertTrue(lock.ownersCount() == 0);
+        assertEquals(0, lock.waitersCount());
     }
 
     /**
@@ -534,11 +565,11 @@ public class LockTableTest {
 
         assertEquals(LockMode.X, lock.downgrade(id1, LockMode.X, lockMode));
 
-        assertTrue(lock.owners.size() == 1);
-        assertTrue(lock.waiters.isEmpty());
+        assertTrue(lock.ownersCount() == 1);
+        assertEquals(0, lock.waitersCount());
 
         lock.release(id1);
-        assertTrue(lock.owners.isEmpty());
+        assertTrue(lock.ownersCount() == 0);
     }
 
     /**
@@ -562,11 +593,11 @@ public class LockTableTest {
 
         assertEquals(LockMode.SIX, lock.downgrade(id1, LockMode.IX, LockMode.S));
 
-        assertTrue(lock.owners.size() == 1);
-        assertTrue(lock.waiters.isEmpty());
+        assertTrue(lock.ownersCount() == 1);
+        assertEquals(0, lock.waitersCount());
 
         lock.release(id1);
-        assertTrue(lock.owners.isEmpty());
+        assertTrue(lock.ownersCount() == 0);
     }
 
     @Test
@@ -660,6 +691,70 @@ public class LockTableTest {
         l4.join();
     }
 
+    @Test
+    public void testEntryReclaimed() {
+        Lock lock = lockTable.getOrAddEntry(1);
+        assertEquals(1, lockTable.size());
+
+        UUID id1 = UUID.randomUUID();
+        lock.acquire(id1, LockMode.X).join();
+
+        // Held lock is retained.
+        Lock lock2 = lockTable.getOrAddEntry(1);
+        assertTrue(lock == lock2);
+        lockTable.releaseEntryOptimistically(1, lock2);
+        assertEquals(1, lockTable.size());
+
+        lock.release(id1);
+        assertEquals(1, lockTable.size());
+
+        lock.releaseEntry();
+        assertEquals(0, lockTable.size());
+
+        assertFalse(lock == lockTable.getOrAddEntry(1));
+    }
+
+    @Test
+    public void testConcurrentEntryReclaim() throws Exception {
+        int threads = 8;
+        int iters = 5_000;
+        int keys = 4;
+
+        int[] counters = new int[keys];
+        CountDownLatch latch = new CountDownLatch(threads);
+
+        for (int t = 0; t < threads; t++) {
+            int t0 = t;
+
+            new Thread(() -> {
+                try {
+                    for (int i = 0; i < iters; i++) {
+                        Integer key = i % keys;
+                        UUID id = new UUID(t0, i);
+
+                        Lock lock = lockTable.getOrAddEntry(key);
+                        lock.acquire(id, LockMode.X).join();
+
+                        counters[key]++; // Guarded by the lock.
+
+                        lock.release(id);
+                        lock.releaseEntry();
+                    }
+                } finally {
+                    latch.countDown();
+                }
+            }).start();
+        }
+
+        latch.await(); // Happens-before with the last updates.
+
+        for (int i = 0; i < keys; i++) {
+            assertEquals(threads * iters / keys, counters[i]);
+        }
+
+        assertEquals(0, lockTable.size());
+    }
+
     @Test
     public void testInvalidRelease() {
         // TODO
@@ -707,6 +802,6 @@ public class LockTableTest {
 
         shortTermUnlocked.await();
 
-        assertEquals(LockMode.SIX, lock.owners.get(tx1).getMode());
+        assertEquals(LockMode.SIX, lock.owner(tx1).getMode());
     }
 }
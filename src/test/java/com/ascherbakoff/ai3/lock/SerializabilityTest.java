@@ -30,6 +30,14 @@ public class SerializabilityTest {
         doTestSingleKeyMultithreaded(2, 5_000, new LockTable(10, true, DeadlockPrevention.waitDie()));
     }
 
+    /**
+     * Tests if a locking provides serializability with {@link FastLock}.
+     */
+    @Test
+    public void testBalanceWaitDieFastLock() throws InterruptedException {
+        doTestSingleKeyMultithreaded(2, 5_000, new LockTable(10, true, DeadlockPrevention.waitDie(), true));
+    }
+
     /**
      * Performs a test.
      *
@@ -0,0 +1,250 @@
+package com.ascherbakoff.ai3.replication;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.ascherbakoff.ai3.clock.Timestamp;
+import com.ascherbakoff.ai3.cluster.NodeId;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.Random;
+import java.util.Set;
+import java.util.UUID;
+import org.jetbrains.annotations.Nullable;
+import org.junit.jupiter.api.Test;
+
+public class BinaryMessageCodecTest {
+    private final List<NodeId> nodes = List.of(new NodeId("alice"), new NodeId("bob"), new NodeId("charlie"));
+
+    private final BinaryMessageCodec codec = new BinaryMessageCodec(nodes);
+
+    /**
+     * Random messages must survive a round trip: re-encoding of a decoded message produces the same bytes.
+     */
+    @Test
+    public void testRoundTrip() {
+        long seed = System.nanoTime();
+        Random r = new Random(seed);
+
+        for (int i = 0; i < 10_000; i++) {
+            Object msg = r.nextBoolean() ? randomRequest(r) : randomResponse(r);
+
+            byte[] bytes = bytes(codec.encode(msg));
+            Object decoded = codec.decode(ByteBuffer.wrap(bytes));
+
+            assertEquals(msg.getClass(), decoded.getClass(), "seed=" + seed);
+            assertEquals(ByteBuffer.wrap(bytes), codec.encode(decoded), "seed=" + seed + ", msg=" + msg);
+        }
+    }
+
+    @Test
+    public void testRequest() {
+        Request request = new Request();
+        request.setSender(new NodeId("alice"));
+        request.setGrp("testGrp");
+        request.setTs(new Timestamp(100, 2));
+        request.setId(UUID.randomUUID());
+        request.setPayload(new Replicate(7, new Put(-1, null)));
+
+        Request decoded = (Request) codec.decode(codec.encode(request));
+
+        assertSame(nodes.get(0), decoded.getSender()); // Shared dictionary instance.
+        assertEquals(request.getGrp(), decoded.getGrp());
+        assertEquals(request.getTs(), decoded.getTs());
+        assertEquals(request.getId(), decoded.getId());
+        assertEquals(request.getPayload(), decoded.getPayload());
+    }
+
+    @Test
+    public void testSpecialTimestamps() {
+        for (Timestamp ts : new Timestamp[] {Timestamp.min(), Timestamp.max(), Timestamp.invalid(), new Timestamp(1, 1L << 20)}) {
+            Response decoded = (Response) codec.decode(codec.encode(new Response(ts, -1, null)));
+
+            assertEquals(ts, decoded.getTs());
+            assertEquals(-1, decoded.getReturn());
+            assertNull(decoded.getMessage());
+        }
+
+        assertSame(Timestamp.min(), ((Response) codec.decode(codec.encode(new Response(Timestamp.min())))).getTs());
+    }
+
+    @Test
+    public void testUnknownNode() {
+        LeaseProposed proposed = new LeaseProposed("grp", new Timestamp(1, 0), Set.of(new NodeId("dave"), nodes.get(1)));
+
+        Request request = new Request();
+        request.setPayload(proposed);
+
+        LeaseProposed decoded = (LeaseProposed) ((Request) codec.decode(codec.encode(request))).getPayload();
+
+        assertEquals(proposed.members(), decoded.members());
+    }
+
+    @Test
+    public void testOverflow() {
+        Request request = new Request();
+        request.setGrp("testGrp");
+        request.setPayload(new Replicate(1, new Put(1, 1)));
+
+        assertThrows(BufferOverflowException.class, () -> codec.encode(request, ByteBuffer.allocate(4)));
+    }
+
+    @Test
+    public void testSmallerThanJdk() {
+        Random r = new Random(0);
+
+        for (int i = 0; i < 100; i++) {
+            Request request = randomRequest(r);
+
+            int binary = codec.encode(request).remaining();
+            int jdk = new JdkMessageCodec().encode(request).remaining();
+
+            assertTrue(binary < jdk, "binary=" + binary + ", jdk=" + jdk);
+        }
+    }
+
+    /**
+     * Batch limits are computed from the encoded payload size.
+     */
+    @Test
+    public void testEstimateSize() {
+        long seed = System.nanoTime();
+        Random r = new Random(seed);
+
+        for (int i = 0; i < 1_000; i++) {
+            Replicate replicate = randomReplicate(r);
+
+            ByteBuffer buf = ByteBuffer.allocate(64 * 1024);
+            BinaryMessageCodec.writeReplicate(buf, replicate);
+
+            assertEquals(buf.position(), ReplicationOptions.estimateSize(replicate), "seed=" + seed + ", msg=" + replicate);
+        }
+    }
+
+    private static byte[] bytes(ByteBuffer buf) {
+        byte[] bytes = new byte[buf.remaining()];
+        buf.get(bytes);
+        return bytes;
+    }
+
+    private Request randomRequest(Random r) {
+        Request request = new Request();
+        request.setSender(r.nextInt(5) == 0 ? null : randomNode(r));
+        request.setGrp(r.nextInt(5) == 0 ? null : "grp" + r.nextInt(10));
+        request.setTs(randomTs(r, true));
+        request.setId(r.nextBoolean() ? null : new UUID(r.nextLong(), r.nextLong()));
+        request.setPayload(randomCommand(r));
+
+        return request;
+    }
+
+    private @Nullable Command randomCommand(Random r) {
+        switch (r.nextInt(7)) {
+            case 0:
+                return null;
+            case 1:
+                return randomReplicate(r);
+            case 2:
+                return new Collect();
+            case 3:
+                return new IdleSync(randomTs(r, false));
+            case 4:
+                return new LeaseGranted("grp", randomTs(r, false), randomNode(r), randomNodes(r), randomTs(r, true));
+            case 5:
+                return new LeaseProposed("grp", randomTs(r, false), randomNodes(r));
+            default:
+                return new Snapshot(randomCntr(r), randomTs(r, false), randomTs(r, false));
+        }
+    }
+
+    private Response randomResponse(Random r) {
+        switch (r.nextInt(4)) {
+            case 0:
+                return new Response(randomTs(r, false), r.nextInt(), r.nextBoolean() ? null : "msg" + r.nextInt());
+            case 1:
+                return new CollectResponse(randomTs(r, false), randomTs(r, false));
+            case 2:
+                return new ReplicateResponse(randomTs(r, false), randomCntr(r), randomTs(r, false));
+            default:
+                List<Entry<Timestamp, Replicate>> entries = new ArrayList<>();
+
+                for (int i = r.nextInt(10); i > 0; i--) {
+                    entries.add(new SimpleImmutableEntry<>(randomTs(r, false), randomReplicate(r)));
+                }
+
+                return new SnapshotResponse(randomTs(r, false), entries, randomTs(r, true));
+        }
+    }
+
+    private static Replicate randomReplicate(Random r) {
+        if (r.nextBoolean()) {
+            return new Replicate(randomCntr(r), randomPayload(r));
+        }
+
+        int size = 1 + r.nextInt(20);
+
+        Timestamp[] tss = new Timestamp[size];
+        Object[] batch = new Object[size];
+
+        for (int i = 0; i < size; i++) {
+            tss[i] = randomTs(r, false);
+            batch[i] = randomPayload(r);
+        }
+
+        return new Replicate(randomCntr(r), tss, batch);
+    }
+
+    private static @Nullable Object randomPayload(Random r) {
+        switch (r.nextInt(4)) {
+            case 0:
+                return null;
+            case 1:
+                return "payload" + r.nextInt(); // Serialized.
+            default:
+                return new Put(r.nextInt(5) == 0 ? null : r.nextInt(), r.nextInt(5) == 0 ? null : r.nextInt());
+        }
+    }
+
+    private static long randomCntr(Random r) {
+        return r.nextBoolean() ? r.nextInt(1000) : r.nextLong() & Long.MAX_VALUE;
+    }
+
+    private static @Nullable Timestamp randomTs(Random r, boolean nullable) {
+        switch (r.nextInt(nullable ? 6 : 5)) {
+            case 0:
+                return Timestamp.min();
+            case 1:
+                return Timestamp.max();
+            case 2:
+                return Timestamp.invalid();
+            case 3:
+                return new Timestamp(r.nextLong(), r.nextLong()); // Not packable.
+            case 4:
+                return new Timestamp(r.nextLong() & Timestamp.MAX_PHYSICAL, r.nextLong() & Timestamp.COUNTER_MASK);
+            default:
+                return null;
+        }
+    }
+
+    private NodeId randomNode(Random r) {
+        return r.nextInt(4) == 0 ? new NodeId("node" + r.nextInt(100)) : nodes.get(r.nextInt(nodes.size()));
+    }
+
+    private Set<NodeId> randomNodes(Random r) {
+        Set<NodeId> set = new HashSet<>();
+
+        for (int i = r.nextInt(5); i > 0; i--) {
+            set.add(randomNode(r));
+        }
+
+        return set;
+    }
+}
@@ -0,0 +1,119 @@
+package com.ascherbakoff.ai3.replication;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeMap;
+import org.junit.jupiter.api.Test;
+
+public class CounterRingTest {
+    @Test
+    public void testBasic() {
+        CounterRing<String> ring = new CounterRing<>(4);
+
+        assertTrue(ring.isEmpty());
+        assertNull(ring.first());
+        assertNull(ring.removeFirst());
+
+        ring.put(3, "3");
+        ring.put(1, "1"); // Out of order.
+        ring.put(10, "10"); // Grows.
+
+        assertEquals(3, ring.size());
+        assertEquals(1, ring.firstKey());
+        assertEquals("3", ring.get(3));
+        assertNull(ring.get(2));
+        assertNull(ring.get(10 + 16));
+
+        List<String> vals = new ArrayList<>();
+        ring.forEach(vals::add);
+        assertEquals(List.of("1", "3", "10"), vals);
+
+        assertEquals("1", ring.removeFirst());
+        assertEquals(3, ring.firstKey());
+        assertEquals("3", ring.removeFirst());
+        assertEquals(10, ring.firstKey());
+        assertEquals("10", ring.removeFirst());
+        assertTrue(ring.isEmpty());
+
+        ring.put(100, "100");
+        assertEquals(100, ring.firstKey());
+        assertEquals(1, ring.size());
+    }
+
+    /**
+     * Tests the ring shrinks back after a lagging range is folded.
+     */
+    @Test
+    public void testShrink() {
+        CounterRing<Long> ring = new CounterRing<>(16);
+
+        for (long i = 0; i < 1000; i++) {
+            ring.put(i, i);
+        }
+
+        assertEquals(1024, ring.capacity());
+
+        for (long i = 0; i < 990; i++) {
+            assertEquals(i, ring.removeFirst());
+        }
+
+        assertEquals(32, ring.capacity()); // At least twice the range.
+        assertEquals(990, ring.firstKey());
+
+        List<Long> vals = new ArrayList<>();
+        ring.forEach(vals::add);
+        assertEquals(List.of(990L, 991L, 992L, 993L, 994L, 995L, 996L, 997L, 998L, 999L), vals);
+
+        while (!ring.isEmpty()) {
+            ring.removeFirst();
+        }
+
+        assertEquals(16, ring.capacity());
+
+        ring.put(5000, 5000L);
+        assertEquals(5000L, ring.get(5000));
+    }
+
+    /**
+     * Compares with a sorted map on random out of order puts and head removals.
+     */
+    @Test
+    public void testRandom() {
+        long seed = System.nanoTime();
+        Random r = new Random(seed);
+
+        CounterRing<Long> ring = new CounterRing<>();
+        TreeMap<Long, Long> map = new TreeMap<>();
+
+        long next = 1;
+
+        for (int i = 0; i < 100_000; i++) {
+            if (r.nextInt(3) > 0 || map.isEmpty()) {
+                // A key in a sliding window ahead of the head.
+                long key = (map.isEmpty() ? next : map.firstKey()) + r.nextInt(64);
+                long val = r.nextLong();
+
+                ring.put(key, val);
+                map.put(key, val);
+                next = Math.max(next, key);
+            } else {
+                assertEquals(map.firstKey(), ring.firstKey(), "seed=" + seed);
+                assertEquals(map.pollFirstEntry().getValue(), ring.removeFirst(), "seed=" + seed);
+            }
+
+            assertEquals(map.size(), ring.size(), "seed=" + seed);
+
+            long probe = next - r.nextInt(100);
+            assertEquals(map.get(probe), ring.get(probe), "seed=" + seed);
+        }
+
+        List<Long> vals = new ArrayList<>();
+        ring.forEach(vals::add);
+        assertEquals(new ArrayList<>(map.values()), vals, "seed=" + seed);
+    }
+}
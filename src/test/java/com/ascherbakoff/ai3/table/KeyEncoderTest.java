@@ -0,0 +1,96 @@
+package com.ascherbakoff.ai3.table;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+
+public class KeyEncoderTest {
+    @Test
+    public void testOrder() {
+        List<Tuple> keys = new ArrayList<>();
+
+        for (int v : new int[] {Integer.MIN_VALUE, -256, -1, 0, 1, 255, 256, Integer.MAX_VALUE}) {
+            keys.add(Tuple.create(v, 0L));
+        }
+
+        for (long v : new long[] {Long.MIN_VALUE, -1L << 40, -1, 0, 1, 1L << 40, Long.MAX_VALUE}) {
+            keys.add(Tuple.create(0, v));
+        }
+
+        for (double v : new double[] {Double.NEGATIVE_INFINITY, -1e300, -1.5, -0.0, 0.0, Double.MIN_VALUE, 2.5, Double.MAX_VALUE,
+                Double.POSITIVE_INFINITY, Double.NaN}) {
+            keys.add(Tuple.create(v, 0));
+        }
+
+        for (String v : new String[] {"", "\0", "\0\0", "\0a", "a", "a\0", "a\0b", "ab", "b", "\u007f", "\u0080", "\u07ff",
+                "\u0800", "\u0100", "\ud83d\ude00", "\ue000", "\uffff"}) {
+            keys.add(Tuple.create(v, 1));
+            keys.add(Tuple.create(v, 2));
+        }
+
+        keys.add(Tuple.create(null, 0));
+
+        Random rnd = new Random(0);
+
+        for (int i = 0; i < 1000; i++) {
+            keys.add(Tuple.create(rnd.nextInt(10) - 5, rnd.nextLong()));
+            keys.add(Tuple.create(rnd.nextBoolean() ? null : String.valueOf((char) rnd.nextInt(3)) + (char) rnd.nextInt(300), 0));
+            keys.add(Tuple.create(String.valueOf((char) rnd.nextInt(0x10000)) + (char) rnd.nextInt(0x10000), 0));
+        }
+
+        for (Tuple k1 : keys) {
+            for (Tuple k2 : keys) {
+                if (k1.<Object>get(0) != null && k2.<Object>get(0) != null && k1.get(0).getClass() != k2.get(0).getClass()) {
+                    continue; // Columns of different types are not comparable.
+                }
+
+                assertEquals(Integer.signum(k1.compareTo(k2)),
+                        Integer.signum(Arrays.compareUnsigned(KeyEncoder.encode(k1), KeyEncoder.encode(k2))), k1 + " " + k2);
+            }
+        }
+    }
+
+    @Test
+    public void testPrefix() {
+        byte[] k1 = KeyEncoder.encode(Tuple.create(1));
+        byte[] k2 = KeyEncoder.encode(Tuple.create(1, "a"));
+
+        assertEquals(-1, Integer.signum(Arrays.compareUnsigned(k1, k2)));
+        assertEquals(0, KeyEncoder.encode(Tuple.create()).length);
+    }
+
+    @Test
+    public void testDecode() {
+        Tuple[] keys = {
+                Tuple.create(),
+                Tuple.create(1, -2L, -0.5, "a\0b", null),
+                Tuple.create(Integer.MIN_VALUE, Long.MAX_VALUE, Double.NEGATIVE_INFINITY, "", "\u0100\uffff\0"),
+                Tuple.create(null, 0.0, -0.0, Double.NaN),
+                Tuple.create("\u007f\u0080\u07ff\u0800\ud83d\ude00\ud800\uffff")
+        };
+
+        for (Tuple key : keys) {
+            assertEquals(key, KeyEncoder.decode(KeyEncoder.encode(key)));
+        }
+    }
+
+    /**
+     * Tests ASCII takes a byte per char.
+     */
+    @Test
+    public void testAsciiSize() {
+        assertEquals(1 + 3 + 2, KeyEncoder.encode(Tuple.create("abc")).length);
+        assertEquals(1 + 2 + 2 + 3 + 2, KeyEncoder.encode(Tuple.create("\0\u00ff\uffff")).length);
+    }
+
+    @Test
+    public void testUnsupported() {
+        assertThrows(IllegalArgumentException.class, () -> KeyEncoder.encode(Tuple.create(new BigDecimal(1))));
+    }
+}
@@ -2,7 +2,9 @@ package com.ascherbakoff.ai3.table;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
 import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 import com.ascherbakoff.ai3.clock.Timestamp;
@@ -11,6 +13,7 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.UUID;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.CompletionStage;
 import java.util.function.Function;
 import org.jetbrains.annotations.Nullable;
@@ -30,8 +33,8 @@ public abstract class MVStoreBasicTest extends BasicTest {
         Tuple t2 = Tuple.create(2, "val2");
         store.insert(t2, txId).join();
 
-        assertEquals(3, store.txnLocalMap.get(txId).locks.size());
-        assertEquals(3, store.txnLocalMap.get(txId).writes.size());
+        assertEquals(3, store.txnLocalMap.get(txId).lockCnt);
+        assertEquals(3, store.txnLocalMap.get(txId).writeCnt);
 
         store.commit(txId, clock.now());
         assertNull(store.txnLocalMap.get(txId));
@@ -41,6 +44,235 @@ public abstract class MVStoreBasicTest extends BasicTest {
         assertEquals(t2, getSingle(txId, 0, Tuple.create(2)));
     }
 
+    @Test
+    public void testLocksReclaimed() {
+        UUID txId = new UUID(0, 0);
+        UUID txId2 = new UUID(0, 1);
+
+        VersionChain<Tuple> rowId = store.insert(Tuple.create(0, "val0"), txId).join();
+        store.insert(Tuple.create(1, "val1"), txId).join();
+        store.commit(txId, clock.now());
+
+        store.update(rowId, Tuple.create(2, "val2"), txId2).join();
+        assertEquals(Tuple.create(2, "val2"), getSingle(txId2, 0, Tuple.create(2)));
+        store.abort(txId2);
+
+        assertEquals(0, store.lockTable.size());
+
+        for (Index index : store.indexes.values()) {
+            if (index instanceof SortedNonUniqueIndex) {
+                assertEquals(0, ((SortedNonUniqueIndex) index).lockTable.size());
+            } else if (index instanceof HashNonUniqueIndex) {
+                assertEquals(0, ((HashNonUniqueIndex) index).lockTable.size());
+            }
+        }
+    }
+
+    @Test
+    public void testGroupCommit() {
+        UUID txId = new UUID(0, 0);
+        UUID txId2 = new UUID(0, 1);
+        UUID txId3 = new UUID(0, 2);
+        UUID txId4 = new UUID(0, 3);
+
+        VersionChain<Tuple> rowId = store.insert(Tuple.create(0, "val0"), txId).join();
+        store.commit(txId, clock.now());
+
+        // Both readers share the row lock.
+        assertEquals(Tuple.create(0, "val0"), store.get(rowId, txId2, null).join());
+        assertEquals(Tuple.create(0, "val0"), store.get(rowId, txId3, null).join());
+        store.insert(Tuple.create(1, "val1"), txId3).join();
+
+        CompletableFuture<Tuple> fut = store.update(rowId, Tuple.create(0, "val2"), txId4);
+        assertFalse(fut.isDone());
+
+        Timestamp ts = clock.now();
+        store.commit(List.of(txId2, txId3, txId), ts); // The last one is already finished.
+        assertNull(store.txnLocalMap.get(txId2));
+        assertNull(store.txnLocalMap.get(txId3));
+
+        assertEquals(Tuple.create(0, "val0"), fut.join());
+        store.commit(txId4, clock.now());
+
+        assertEquals(Tuple.create(1, "val1"), getSingle(ts, 0, Tuple.create(1)));
+        assertEquals(0, store.lockTable.size());
+    }
+
+    @Test
+    public void testLargeTransaction() {
+        UUID txId = new UUID(0, 0);
+        UUID txId2 = new UUID(0, 1);
+
+        List<VersionChain<Tuple>> rowIds = new ArrayList<>();
+
+        for (int i = 0; i < 20; i++) {
+            rowIds.add(store.insert(Tuple.create(i, "val" + i), txId).join());
+        }
+
+        // Rewrites are not recorded again.
+        store.update(rowIds.get(0), Tuple.create(0, "val0_1"), txId).join();
+        store.update(rowIds.get(0), Tuple.create(0, "val0_2"), txId).join();
+        assertEquals(20, store.txnLocalMap.get(txId).writeCnt);
+
+        store.commit(txId, clock.now());
+
+        for (int i = 0; i < 20; i++) {
+            store.update(rowIds.get(i), Tuple.create(i, "new" + i), txId2).join();
+            store.update(rowIds.get(i), Tuple.create(i, "new" + i), txId2).join();
+        }
+
+        assertEquals(20, store.txnLocalMap.get(txId2).writeCnt);
+
+        store.abort(txId2);
+        assertEquals(0, store.lockTable.size());
+
+        assertEquals(Tuple.create(0, "val0_2"), getSingle(clock.now(), 0, Tuple.create(0)));
+        assertEquals(Tuple.create(19, "val19"), getSingle(clock.now(), 0, Tuple.create(19)));
+    }
+
+    @Test
+    public void testVacuum() {
+        UUID txId = new UUID(0, 0);
+        UUID txId2 = new UUID(0, 1);
+        UUID txId3 = new UUID(0, 2);
+
+        VersionChain<Tuple> rowId = store.insert(Tuple.create(0, "val0"), txId).join();
+        store.commit(txId, clock.now());
+
+        store.update(rowId, Tuple.create(0, "val1"), txId2).join();
+        Timestamp ts2 = clock.now();
+        store.commit(txId2, ts2);
+
+        assertEquals(1, store.vacuum(ts2));
+        assertEquals(Tuple.create(0, "val1"), rowId.resolve(null, ts2, null));
+        assertNull(rowId.next);
+
+        store.remove(rowId, txId3).join();
+        Timestamp ts3 = clock.now();
+        store.commit(txId3, ts3);
+
+        assertEquals(2, store.vacuum(ts3));
+        assertTrue(store.rowStore.getHeads().isEmpty());
+
+        // Index entries of removed versions are removed, the removed row rejects updates.
+        UUID txId4 = new UUID(0, 3);
+        assertTrue(store.query(new EqQuery(0, Tuple.create(0)), txId4).loadAll(new ArrayList<>()).join().isEmpty());
+        assertThrows(CompletionException.class, () -> store.update(rowId, Tuple.create(0, "val2"), txId4).join());
+        store.abort(txId4);
+    }
+
+    @Test
+    public void testVacuumByLowWatermark() {
+        UUID txId = new UUID(0, 0);
+
+        VersionChain<Tuple> rowId = store.insert(Tuple.create(0, "val0"), txId).join();
+        Timestamp ts0 = clock.now();
+        store.commit(txId, ts0);
+
+        // An open snapshot cursor holds the low watermark.
+        Cursor<Tuple> cur = store.query(new ScanQuery(), ts0);
+        assertEquals(ts0, store.lowWatermark());
+
+        int updates = MVStoreImpl.VACUUM_MIN_VERSIONS * 2;
+
+        for (int i = 1; i <= updates; i++) {
+            UUID txId0 = new UUID(1, i);
+            store.update(rowId, Tuple.create(0, "val" + i), txId0).join();
+            store.commit(txId0, clock.now());
+        }
+
+        assertEquals(updates + 1, rowId.cnt);
+        assertEquals(Tuple.create(0, "val0"), cur.next());
+        assertNull(cur.next());
+
+        // Released by the exhausted cursor, vacuum is scheduled by following commits.
+        for (int i = 1; i <= MVStoreImpl.VACUUM_MIN_VERSIONS; i++) {
+            UUID txId0 = new UUID(2, i);
+            store.update(rowId, Tuple.create(0, "new" + i), txId0).join();
+            store.commit(txId0, clock.now());
+        }
+
+        assertTrue(waitForCondition(() -> rowId.cnt < MVStoreImpl.VACUUM_MIN_VERSIONS, 5000),
+                "History is not collected: " + rowId.cnt);
+        assertEquals(Tuple.create(0, "new" + MVStoreImpl.VACUUM_MIN_VERSIONS), getSingle(clock.now(), 0, Tuple.create(0)));
+    }
+
+    @Test
+    public void testAbandonedCursor() {
+        UUID txId = new UUID(0, 0);
+        UUID txId2 = new UUID(0, 1);
+
+        VersionChain<Tuple> rowId = store.insert(Tuple.create(0, "val0"), txId).join();
+        store.insert(Tuple.create(1, "val1"), txId).join();
+        Timestamp ts0 = clock.now();
+        store.commit(txId, ts0);
+
+        SnapshotCursor<Tuple> cur = store.query(new ScanQuery(), ts0);
+        assertNotNull(cur.next());
+
+        store.update(rowId, Tuple.create(0, "new"), txId2).join();
+        Timestamp ts1 = clock.now();
+        store.commit(txId2, ts1);
+
+        // A partly read cursor holds the low watermark until closed.
+        assertEquals(ts0, store.lowWatermark());
+
+        cur.close();
+        cur.close();
+
+        assertNull(cur.next());
+        assertEquals(ts1, store.lowWatermark());
+
+        assertEquals(1, store.vacuum(store.lowWatermark()));
+
+        // Versions visible at ts0 may be collected.
+        assertThrows(IllegalArgumentException.class, () -> store.query(new ScanQuery(), ts0));
+        assertEquals(ts1, store.lowWatermark());
+
+        try (SnapshotCursor<Tuple> cur0 = store.query(new ScanQuery(), ts1)) {
+            assertEquals(2, cur0.getAll().size());
+        }
+
+        assertEquals(ts1, store.lowWatermark());
+    }
+
+    @Test
+    public void testSnapshotRead() {
+        UUID txId = new UUID(0, 0);
+        UUID txId2 = new UUID(0, 1);
+        UUID txId3 = new UUID(0, 2);
+        UUID txId4 = new UUID(0, 3);
+
+        VersionChain<Tuple> rowId = store.insert(Tuple.create(0, "val0"), txId).join();
+        Timestamp ts1 = clock.now();
+        store.commit(txId, ts1);
+
+        store.update(rowId, Tuple.create(1, "val1"), txId2).join();
+        Timestamp ts2 = clock.now();
+        store.commit(txId2, ts2);
+
+        // Uncommitted and X locked, doesn't block snapshot reads.
+        store.update(rowId, Tuple.create(2, "val2"), txId3).join();
+
+        assertEquals(Tuple.create(0, "val0"), getSingle(ts1, 0, Tuple.create(0)));
+        assertNull(getSingle(ts1, 0, Tuple.create(1)));
+        assertNull(getSingle(ts2, 0, Tuple.create(0)));
+        assertEquals(Tuple.create(1, "val1"), getSingle(ts2, 0, Tuple.create(1)));
+        assertNull(getSingle(clock.now(), 0, Tuple.create(2)));
+
+        store.abort(txId3);
+
+        store.remove(rowId, txId4).join();
+        Timestamp ts4 = clock.now();
+        store.commit(txId4, ts4);
+
+        assertNull(getSingle(ts4, 0, Tuple.create(1)));
+        assertEquals(Tuple.create(1, "val1"), getSingle(ts2, 0, Tuple.create(1)));
+
+        assertEquals(List.of(Tuple.create(1, "val1")), store.query(new ScanQuery(), ts2).getAll());
+        assertTrue(store.query(new ScanQuery(), ts4).getAll().isEmpty());
+    }
+
     @Test
     public void testInsertRemoveMultiTxn() {
         UUID txId = new UUID(0, 0);
@@ -1,8 +1,13 @@
 package com.ascherbakoff.ai3.table;
 
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import com.ascherbakoff.ai3.clock.Timestamp;
 import com.ascherbakoff.ai3.lock.DeadlockPrevention;
 import com.ascherbakoff.ai3.lock.LockTable;
 import java.util.Map;
+import java.util.UUID;
+import org.junit.jupiter.api.Test;
 
 public class MVStoreHashNonUniqueIndexTest extends MVStoreBasicNonUniqueIndexTest {
     public MVStoreHashNonUniqueIndexTest() {
@@ -15,4 +20,12 @@ public class MVStoreHashNonUniqueIndexTest extends MVStoreBasicNonUniqueIndexTes
             );
         }
     }
+
+    @Test
+    public void testRangeQueryRejected() {
+        RangeQuery query = new RangeQuery(0, Tuple.create(0), true, Tuple.create(1), true);
+
+        assertThrows(IllegalArgumentException.class, () -> store.query(query, new UUID(0, 0)));
+        assertThrows(IllegalArgumentException.class, () -> store.query(query, new Timestamp(1, 0)));
+    }
 }
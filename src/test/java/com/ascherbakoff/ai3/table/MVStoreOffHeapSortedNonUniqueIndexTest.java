@@ -0,0 +1,28 @@
+package com.ascherbakoff.ai3.table;
+
+import com.ascherbakoff.ai3.lock.DeadlockPrevention;
+import com.ascherbakoff.ai3.lock.LockTable;
+import java.util.Map;
+import org.junit.jupiter.api.Disabled;
+
+/**
+ * Runs sorted index tests against {@link OffHeapSortedIndexStoreImpl}, version chains are mapped by a
+ * {@link RowIdRegistry}.
+ */
+public class MVStoreOffHeapSortedNonUniqueIndexTest extends MVStoreSortedNonUniqueIndexTest {
+    public MVStoreOffHeapSortedNonUniqueIndexTest() {
+        VersionChainRowStore<Tuple> rowStore = new VersionChainRowStore<>();
+        RowIdRegistry<VersionChain<Tuple>> rowIds = new RowIdRegistry<>();
+        store = new MVStoreImpl(
+                rowStore,
+                new LockTable(10, true, DeadlockPrevention.none()),
+                Map.of(0, new SortedNonUniqueIndex(0, new LockTable(10, true, DeadlockPrevention.none()),
+                        new OffHeapSortedIndexStoreImpl<>(rowIds, rowIds), rowStore))
+        );
+    }
+
+    @Override
+    @Disabled("Fails for the skip list store too, see MVStoreSortedNonUniqueIndexTest")
+    public void testLockBetween() {
+    }
+}
@@ -5,6 +5,7 @@ import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
+import com.ascherbakoff.ai3.clock.Timestamp;
 import com.ascherbakoff.ai3.lock.DeadlockPrevention;
 import com.ascherbakoff.ai3.lock.LockTable;
 import java.util.ArrayList;
@@ -30,6 +31,39 @@ public class MVStoreSortedNonUniqueIndexTest extends MVStoreBasicNonUniqueIndexT
         }
     }
 
+    @Test
+    public void testSnapshotRange() {
+        UUID txId = new UUID(0, 0);
+        UUID txId2 = new UUID(0, 1);
+
+        List<VersionChain<Tuple>> rowIds = new ArrayList<>();
+
+        for (int i = 0; i < 5; i++) {
+            rowIds.add(store.insert(Tuple.create(i, "val" + i), txId).join());
+        }
+
+        Timestamp ts1 = clock.now();
+        store.commit(txId, ts1);
+
+        // Move row 0 into the range and row 2 out of it.
+        store.update(rowIds.get(0), Tuple.create(2, "val0"), txId2).join();
+        store.update(rowIds.get(2), Tuple.create(5, "val2"), txId2).join();
+        Timestamp ts2 = clock.now();
+        store.commit(txId2, ts2);
+
+        RangeQuery query = new RangeQuery(0, Tuple.create(1), true, Tuple.create(3), true);
+
+        assertEquals(
+                List.of(Tuple.create(1, "val1"), Tuple.create(2, "val2"), Tuple.create(3, "val3")),
+                store.query(query, ts1).getAll()
+        );
+
+        assertEquals(
+                List.of(Tuple.create(1, "val1"), Tuple.create(2, "val0"), Tuple.create(3, "val3")),
+                store.query(query, ts2).getAll()
+        );
+    }
+
     @Test
     public void testInsertGetRange() {
         UUID txId = new UUID(0, 0);
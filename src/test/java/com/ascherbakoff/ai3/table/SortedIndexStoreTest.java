@@ -2,11 +2,18 @@ package com.ascherbakoff.ai3.table;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 import java.lang.System.Logger;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
 import org.junit.jupiter.api.Test;
 
 public class SortedIndexStoreTest {
@@ -44,6 +51,245 @@ public class SortedIndexStoreTest {
         assertTrue(idx.data.isEmpty());
     }
 
+    @Test
+    public void testBinaryInsertScanRemove() {
+        BinarySortedIndexStoreImpl<Integer> idx = new BinarySortedIndexStoreImpl<>();
+
+        Tuple t1 = Tuple.create(1, "aaa");
+        Tuple t2 = Tuple.create(1, "bbb");
+        Tuple t3 = Tuple.create(2, "zzz");
+        Tuple t4 = Tuple.create(3, "qqq");
+
+        assertTrue(idx.insert(t1, 1));
+        assertTrue(idx.insert(t1, 2));
+        assertFalse(idx.insert(t1, 2));
+        assertTrue(idx.insert(t2, 3));
+        assertTrue(idx.insert(t3, 4));
+        assertTrue(idx.insert(t4, 5));
+
+        List<Map.Entry<Tuple, Cursor<Integer>>> rows = idx.scan(Tuple.create(1, "aaa"), true, Tuple.create(1, "bbb"), true).getAll();
+        assertEquals(2, rows.size());
+        assertEquals(t1, rows.get(0).getKey());
+        assertEquals(2, rows.get(0).getValue().getAll().size());
+        assertEquals(t2, rows.get(1).getKey());
+
+        assertEquals(List.of(t2, t3), keys(idx.scan(t1, false, t4, false)));
+        assertEquals(List.of(t1, t2), keys(idx.scan(null, false, t3, false)));
+        assertEquals(List.of(t3, t4), keys(idx.scan(t2, false, null, false)));
+        assertEquals(List.of(t1, t2, t3, t4), keys(idx.scan(null, false, null, false)));
+
+        assertEquals(t3, idx.nextKey(t2));
+        assertEquals(t1, idx.nextKey(Tuple.create(0, "zzz")));
+        assertEquals(null, idx.nextKey(t4));
+        assertTrue(idx.contains(Tuple.create(2, "zzz")));
+        assertFalse(idx.contains(Tuple.create(2, "zz")));
+
+        assertFalse(idx.remove(t1, 3));
+        assertTrue(idx.remove(t1, 1));
+        assertTrue(idx.remove(t1, 2));
+        assertTrue(idx.remove(t2, 3));
+        assertTrue(idx.remove(t3, 4));
+        assertTrue(idx.remove(t4, 5));
+
+        assertTrue(idx.data.isEmpty());
+    }
+
+    @Test
+    public void testOffHeapInsertScanRemove() {
+        OffHeapSortedIndexStoreImpl<Integer> idx = new OffHeapSortedIndexStoreImpl<>(Integer::longValue, v -> (int) v);
+
+        Tuple t1 = Tuple.create(1, "aaa");
+        Tuple t2 = Tuple.create(1, "bbb");
+        Tuple t3 = Tuple.create(2, "zzz");
+        Tuple t4 = Tuple.create(3, "qqq");
+
+        assertTrue(idx.insert(t1, 1));
+        assertTrue(idx.insert(t1, 2));
+        assertFalse(idx.insert(t1, 2));
+        assertTrue(idx.insert(t2, 3));
+        assertTrue(idx.insert(t3, 4));
+        assertTrue(idx.insert(t4, 5));
+
+        List<Map.Entry<Tuple, Cursor<Integer>>> rows = idx.scan(Tuple.create(1, "aaa"), true, Tuple.create(1, "bbb"), true).getAll();
+        assertEquals(2, rows.size());
+        assertEquals(t1, rows.get(0).getKey());
+        assertEquals(List.of(1, 2), rows.get(0).getValue().getAll());
+        assertEquals(t2, rows.get(1).getKey());
+
+        assertEquals(List.of(t2, t3), keys(idx.scan(t1, false, t4, false)));
+        assertEquals(List.of(t1, t2), keys(idx.scan(null, false, t3, false)));
+        assertEquals(List.of(t3, t4), keys(idx.scan(t2, false, null, false)));
+        assertEquals(List.of(t1, t2, t3, t4), keys(idx.scan(null, false, null, false)));
+
+        assertEquals(t3, idx.nextKey(t2));
+        assertEquals(t1, idx.nextKey(Tuple.create(0, "zzz")));
+        assertEquals(null, idx.nextKey(t4));
+        assertTrue(idx.contains(Tuple.create(2, "zzz")));
+        assertFalse(idx.contains(Tuple.create(2, "zz")));
+
+        assertFalse(idx.remove(t1, 3));
+        assertTrue(idx.remove(t1, 1));
+        assertTrue(idx.remove(t1, 2));
+        assertTrue(idx.remove(t2, 3));
+        assertTrue(idx.remove(t3, 4));
+        assertTrue(idx.remove(t4, 5));
+
+        assertFalse(idx.contains(t1));
+        assertEquals(List.of(), keys(idx.scan(null, false, null, false)));
+
+        assertThrows(IllegalArgumentException.class,
+                () -> idx.insert(Tuple.create("a".repeat(OffHeapSortedIndexStoreImpl.MAX_KEY_LEN)), 1));
+    }
+
+    @Test
+    public void testOffHeapRandom() {
+        OffHeapSortedIndexStoreImpl<Integer> idx = new OffHeapSortedIndexStoreImpl<>(Integer::longValue, v -> (int) v);
+        TreeMap<Tuple, TreeSet<Integer>> model = new TreeMap<>();
+
+        long seed = System.nanoTime();
+        LOG.log(Logger.Level.INFO, "seed=" + seed);
+        Random rnd = new Random(seed);
+
+        for (int i = 0; i < 20_000; i++) {
+            // Long keys fill pages faster.
+            Tuple key = Tuple.create(rnd.nextInt(500), "k".repeat(rnd.nextInt(200)));
+            int row = rnd.nextInt(4);
+
+            if (rnd.nextInt(4) == 0) {
+                TreeSet<Integer> rows = model.get(key);
+                boolean removed = rows != null && rows.remove(row);
+
+                if (removed && rows.isEmpty()) {
+                    model.remove(key);
+                }
+
+                assertEquals(removed, idx.remove(key, row));
+            } else {
+                assertEquals(model.computeIfAbsent(key, k -> new TreeSet<>()).add(row), idx.insert(key, row));
+            }
+        }
+
+        assertTrue(idx.pages() > 50);
+
+        List<Tuple> all = keys(idx.scan(null, false, null, false));
+        assertEquals(new ArrayList<>(model.keySet()), all);
+
+        for (Map.Entry<Tuple, Cursor<Integer>> entry : idx.scan(null, false, null, false).getAll()) {
+            assertEquals(new ArrayList<>(model.get(entry.getKey())), entry.getValue().getAll());
+        }
+
+        for (int i = 0; i < 200; i++) {
+            Tuple lower = Tuple.create(rnd.nextInt(500), "k".repeat(rnd.nextInt(200)));
+            Tuple upper = Tuple.create(rnd.nextInt(500), "k".repeat(rnd.nextInt(200)));
+            boolean lowerInclusive = rnd.nextBoolean();
+            boolean upperInclusive = rnd.nextBoolean();
+
+            List<Tuple> exp = lower.compareTo(upper) > 0 ? List.of() :
+                    new ArrayList<>(model.subMap(lower, lowerInclusive, upper, upperInclusive).keySet());
+
+            assertEquals(exp, keys(idx.scan(lower, lowerInclusive, upper, upperInclusive)));
+            assertEquals(model.higherKey(lower), idx.nextKey(lower));
+            assertEquals(model.containsKey(lower), idx.contains(lower));
+        }
+    }
+
+    @Test
+    public void testOffHeapPrefixCompression() {
+        OffHeapSortedIndexStoreImpl<Integer> idx = new OffHeapSortedIndexStoreImpl<>(Integer::longValue, v -> (int) v);
+        TreeSet<Tuple> model = new TreeSet<>();
+
+        long seed = System.nanoTime();
+        LOG.log(Logger.Level.INFO, "seed=" + seed);
+        Random rnd = new Random(seed);
+
+        String prefix = "/a/long/common/path/".repeat(10);
+
+        // 10k uncompressed entries take more than 300 pages.
+        for (int i = 0; i < 10_000; i++) {
+            Tuple key = Tuple.create(prefix + rnd.nextInt(1_000_000));
+
+            assertEquals(model.add(key), idx.insert(key, 0));
+        }
+
+        assertTrue(idx.pages() < 100, "pages=" + idx.pages());
+
+        // Keys without the prefix shorten it.
+        for (int i = 0; i < 1000; i++) {
+            Tuple key = Tuple.create(prefix.substring(0, rnd.nextInt(prefix.length())) + (char) ('a' + rnd.nextInt(26)));
+
+            assertEquals(model.add(key), idx.insert(key, 0));
+        }
+
+        assertEquals(new ArrayList<>(model), keys(idx.scan(null, false, null, false)));
+
+        for (Tuple key : model) {
+            assertTrue(idx.contains(key));
+            assertEquals(model.higher(key), idx.nextKey(key));
+        }
+
+        for (Tuple key : model) {
+            assertTrue(idx.remove(key, 0));
+        }
+
+        assertEquals(List.of(), keys(idx.scan(null, false, null, false)));
+    }
+
+    @Test
+    public void testOffHeapConcurrentInsert() throws InterruptedException {
+        OffHeapSortedIndexStoreImpl<Integer> idx = new OffHeapSortedIndexStoreImpl<>(Integer::longValue, v -> (int) v);
+
+        int threads = 4;
+        int cnt = 20_000;
+        CountDownLatch start = new CountDownLatch(1);
+        AtomicReference<Throwable> err = new AtomicReference<>();
+        List<Thread> workers = new ArrayList<>();
+
+        for (int t = 0; t < threads; t++) {
+            int t0 = t;
+
+            Thread worker = new Thread(() -> {
+                try {
+                    start.await();
+
+                    for (int i = 0; i < cnt; i++) {
+                        assertTrue(idx.insert(Tuple.create(i, "val".repeat(i % 20)), t0));
+
+                        if (i % 100 == 0) {
+                            // Concurrent scans must see keys in order.
+                            List<Tuple> keys = keys(idx.scan(Tuple.create(i - 50), true, Tuple.create(i + 50), false));
+                            for (int j = 1; j < keys.size(); j++) {
+                                assertTrue(keys.get(j - 1).compareTo(keys.get(j)) < 0);
+                            }
+                        }
+                    }
+                } catch (Throwable e) {
+                    err.compareAndSet(null, e);
+                }
+            });
+
+            worker.start();
+            workers.add(worker);
+        }
+
+        start.countDown();
+
+        for (Thread worker : workers) {
+            worker.join();
+        }
+
+        if (err.get() != null) {
+            throw new AssertionError(err.get());
+        }
+
+        List<Map.Entry<Tuple, Cursor<Integer>>> all = idx.scan(null, false, null, false).getAll();
+        assertEquals(cnt, all.size());
+
+        for (int i = 0; i < cnt; i++) {
+            assertEquals(Tuple.create(i, "val".repeat(i % 20)), all.get(i).getKey());
+            assertEquals(List.of(0, 1, 2, 3), all.get(i).getValue().getAll());
+        }
+    }
+
     @Test
     public void testInsertScanRemoveMany() {
         HashIndexStore<Integer> idx = new HashIndexStoreImpl();
@@ -60,4 +306,14 @@ public class SortedIndexStoreTest {
         assertTrue(idx.remove(t1, 1));
         assertTrue(idx.remove(t2, 1));
     }
+
+    private static List<Tuple> keys(Cursor<Map.Entry<Tuple, Cursor<Integer>>> cur) {
+        List<Tuple> keys = new ArrayList<>();
+
+        for (Map.Entry<Tuple, Cursor<Integer>> entry : cur.getAll()) {
+            keys.add(entry.getKey());
+        }
+
+        return keys;
+    }
 }
@@ -0,0 +1,76 @@
+package com.ascherbakoff.ai3.table;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import org.junit.jupiter.api.Test;
+
+public class TupleTest {
+    @Test
+    public void testGet() {
+        Tuple t = Tuple.create(1, 2L, 3.5, "val", null);
+
+        assertEquals(5, t.length());
+        assertEquals(Integer.valueOf(1), t.get(0));
+        assertEquals(Long.valueOf(2), t.get(1));
+        assertEquals(Double.valueOf(3.5), t.get(2));
+        assertEquals("val", t.get(3));
+        assertNull(t.get(4));
+    }
+
+    @Test
+    public void testSelect() {
+        Tuple t = Tuple.create(1, "val", 2L, 100);
+
+        assertEquals(Tuple.create("val"), t.select(1));
+        assertEquals(Tuple.create(100), t.select(3));
+        assertEquals(Tuple.create(2L, 1), t.select(2, 0));
+        assertEquals(Tuple.create(1), t.select(2, 0).select(1));
+
+        assertEquals(Tuple.create("val").hashCode(), t.select(1).hashCode());
+        assertEquals(Tuple.create(2L, 1).hashCode(), t.select(2, 0).hashCode());
+    }
+
+    /**
+     * Tests a view is a stable key: the tuple it is taken from can't be changed, and an equal tuple built from the
+     * same values is found by the view.
+     */
+    @Test
+    public void testSelectAsKey() {
+        Tuple t = Tuple.create(1, "val", 2L);
+
+        Map<Tuple, Integer> map = new HashMap<>();
+        map.put(t.select(1), 1);
+
+        assertEquals(1, map.get(Tuple.create("val")));
+        assertEquals(0, Tuple.create("val").compareTo(t.select(1)));
+    }
+
+    @Test
+    public void testEquals() {
+        assertEquals(Tuple.create(1, "a", null, 1.5), Tuple.create(1, "a", null, 1.5));
+        assertNotEquals(Tuple.create(1), Tuple.create(1L));
+        assertNotEquals(Tuple.create(1), Tuple.create(2));
+        assertNotEquals(Tuple.create(1, null), Tuple.create(1, 0));
+        assertNotEquals(Tuple.create(1), Tuple.create(1, 1));
+
+        Comparable[] vals = {1, 2L, -0.5, "a", null};
+        assertEquals(Arrays.hashCode(vals), Tuple.create(vals.clone()).hashCode());
+    }
+
+    @Test
+    public void testCompare() {
+        assertTrue(Tuple.create(1).compareTo(Tuple.create(2)) < 0);
+        assertTrue(Tuple.create(-1L).compareTo(Tuple.create(1L)) < 0);
+        assertTrue(Tuple.create(-1.5).compareTo(Tuple.create(1.0)) < 0);
+        assertTrue(Tuple.create("b").compareTo(Tuple.create("a")) > 0);
+        assertTrue(Tuple.create((Comparable) null).compareTo(Tuple.create(Integer.MIN_VALUE)) < 0);
+        assertTrue(Tuple.create(1, 2).compareTo(Tuple.create(1, 3)) < 0);
+        assertEquals(0, Tuple.create(1, "a").compareTo(Tuple.create(0, 1, "a").select(1, 2)));
+    }
+}
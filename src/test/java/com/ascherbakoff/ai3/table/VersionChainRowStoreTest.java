@@ -154,26 +154,70 @@ public class VersionChainRowStoreTest extends BasicTest {
         assertNotNull(rowId);
         assertEquals(t1, store.get(rowId, txId0, null));
 
-        store.commitWrite(rowId, clock.now(), txId0);
+        Timestamp[] commitTs = new Timestamp[100];
+        commitTs[0] = clock.now();
+        store.commitWrite(rowId, commitTs[0], txId0);
 
         for (int i = 1; i < 100; i++) {
             UUID txId = new UUID(0, gen++);
             Tuple t = Tuple.create("name" + i, "id@some.org");
             assertEquals(t1, store.update(rowId, t, txId));
-            store.commitWrite(rowId, clock.now(), txId);
+            commitTs[i] = clock.now();
+            store.commitWrite(rowId, commitTs[i], txId);
             t1 = t;
         }
 
+        // History is retained until vacuum.
+        assertEquals(100, rowId.cnt);
+        assertEquals(Tuple.create("name", "id@some.org"), store.get(rowId, commitTs[0], null));
+
+        // Versions up to 89 are invisible at the low watermark.
+        assertEquals(90, store.vacuum(commitTs[90], t -> t == Tuple.TOMBSTONE));
+        assertEquals(0, store.vacuum(commitTs[90], t -> t == Tuple.TOMBSTONE));
+
         VersionChain<Tuple> c = rowId;
         int cnt = 0;
-        for (int i = 99; i > 99 - VersionChain.MAX_ALLOWED; i--) {
+        for (int i = 99; i >= 90; i--) {
             assertEquals(Tuple.create("name" + i, "id@some.org"), c.value);
             c = c.next;
             cnt++;
         }
 
-        assertEquals(VersionChain.MAX_ALLOWED, cnt);
+        assertEquals(10, cnt);
         assertNull(c);
+        assertEquals(10, rowId.cnt);
+        assertEquals(Tuple.create("name90", "id@some.org"), rowId.last.value);
+
+        assertEquals(Tuple.create("name90", "id@some.org"), store.get(rowId, commitTs[90], null));
+        assertNull(store.get(rowId, commitTs[89], null));
+    }
+
+    @Test
+    public void testGCTombstone() {
+        UUID txId0 = new UUID(0, 0);
+        UUID txId1 = new UUID(0, 1);
+        UUID txId2 = new UUID(0, 2);
+
+        VersionChain<Tuple> rowId = store.insert(Tuple.create("name"), txId0);
+        store.commitWrite(rowId, new Timestamp(1, 0), txId0);
+
+        store.update(rowId, Tuple.TOMBSTONE, txId1);
+
+        // Uncommitted tombstone is retained.
+        assertEquals(0, store.vacuum(new Timestamp(10, 0), t -> t == Tuple.TOMBSTONE));
+
+        store.commitWrite(rowId, new Timestamp(2, 0), txId1);
+
+        // Not visible to a reader at the low watermark.
+        assertEquals(0, store.vacuum(new Timestamp(1, 0), t -> t == Tuple.TOMBSTONE));
+        assertEquals(1, store.getHeads().size());
+
+        VersionChain<Tuple> rowId2 = store.insert(Tuple.create("name2"), txId2);
+        store.commitWrite(rowId2, new Timestamp(3, 0), txId2);
+
+        assertEquals(2, store.vacuum(new Timestamp(2, 0), t -> t == Tuple.TOMBSTONE));
+        assertEquals(1, store.getHeads().size());
+        assertSame(rowId2, store.getHeads().iterator().next());
     }
 
     @Test